@@ -47,6 +47,41 @@ public class IsoConfig {
         return m;
     }
 
+    /**
+     * Template for network management (0800 request, 0810 response): echo test, sign-on and
+     * sign-off carry no card or amount data.
+     */
+    private IsoMessage networkBase(int mti) {
+        IsoMessage m = new IsoMessage();
+        m.setType(mti);
+
+        m.setField(7, new IsoValue<>(IsoType.DATE10, new java.util.Date(), 10));
+        m.setField(11, new IsoValue<>(IsoType.NUMERIC, "000000", 6));
+        if (mti == 0x810) {
+            m.setField(39, new IsoValue<>(IsoType.ALPHA, "00", 2));
+        }
+        m.setField(70, new IsoValue<>(IsoType.NUMERIC, "000", 3));
+
+        return m;
+    }
+
+    /**
+     * PARSE MAP FOR 0800 / 0810
+     */
+    private java.util.Map<Integer, FieldParseInfo> parseMapNetwork() {
+        var map = new java.util.HashMap<Integer, FieldParseInfo>();
+
+        map.put(7, new Date10ParseInfo());
+        map.put(11, new NumericParseInfo(6));
+        map.put(12, new NumericParseInfo(6));
+        map.put(13, new NumericParseInfo(4));
+        map.put(39, new AlphaParseInfo(2));
+        map.put(41, new AlphaParseInfo(8));
+        map.put(70, new NumericParseInfo(3));
+
+        return map;
+    }
+
     /**
      * PARSE MAP FOR 0200
      */
@@ -150,10 +185,14 @@ public class IsoConfig {
         f.addMessageTemplate(base(0x200));
         f.addMessageTemplate(base(0x210));
         f.addMessageTemplate(base(0x0231));  // Add error response template
+        f.addMessageTemplate(networkBase(0x800));
+        f.addMessageTemplate(networkBase(0x810));
 
         f.setParseMap(0x200, parseMap0200());
         f.setParseMap(0x210, parseMap0210());
         f.setParseMap(0x0231, parseMap0231());  // Add error response parse map
+        f.setParseMap(0x800, parseMapNetwork());
+        f.setParseMap(0x810, parseMapNetwork());
 
         log.info("✓ Programmatic MessageFactory ready");
         return f;
@@ -29,7 +29,11 @@ public class SecurityConfig {
                         // Public endpoints (no authentication required)
                         .requestMatchers("/v1/**").permitAll()
                         .requestMatchers("/actuator/health").permitAll()
+                        .requestMatchers("/actuator/health/readiness", "/actuator/health/liveness").permitAll()
                         .requestMatchers("/actuator/info").permitAll()
+                        // Draining or closing ATM connections is for operators only
+                        .requestMatchers("/actuator/isoconnections", "/actuator/isoconnections/**")
+                        .hasRole(JwtAuthenticationFilter.OPERATOR_ROLE)
                         // All other requests require authentication
                         .anyRequest().authenticated()
                 )
@@ -0,0 +1,582 @@
+package com.pridebank.token.iso;
+
+import com.solab.iso8583.IsoMessage;
+import com.solab.iso8583.IsoType;
+import com.solab.iso8583.IsoValue;
+import com.solab.iso8583.MessageFactory;
+import com.solab.iso8583.parse.date.DateTimeParseInfo;
+import lombok.extern.slf4j.Slf4j;
+
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.TimeZone;
+
+/**
+ * Codec for the fixed 0200/0210/0231 layouts of {@code IsoConfig}, producing the same bytes and
+ * {@link IsoMessage}s as the {@link MessageFactory} without its generic machinery.
+ * <p>
+ * Decoding walks the binary bitmap against a field table built once per message type and reads
+ * each field with ASCII arithmetic, so there are no parse-map lookups, no charset decoder and no
+ * intermediate strings for length prefixes. Encoding measures the message first and writes it into
+ * one exactly-sized array instead of a growing stream. Both handle only the well-formed, ASCII
+ * case: any other message type, a bitmap field outside the table, a short or non-ASCII payload, or
+ * a value j8583 would format differently goes to the message factory, which then produces exactly
+ * what it always did, including its exceptions.
+ */
+@Slf4j
+public class CompiledIsoCodec implements IsoCodec {
+
+    private static final byte[] HEX = "0123456789ABCDEF".getBytes(StandardCharsets.US_ASCII);
+
+    /**
+     * Layout of 0200, 0210 and 0231; mirrors the parse maps in {@code IsoConfig}.
+     */
+    private static final Field[] TRANSACTION_LAYOUT = layout(
+            new Field(2, IsoType.LLVAR, 0),
+            new Field(3, IsoType.NUMERIC, 6),
+            new Field(4, IsoType.NUMERIC, 12),
+            new Field(7, IsoType.DATE10, 10),
+            new Field(11, IsoType.NUMERIC, 6),
+            new Field(12, IsoType.NUMERIC, 6),
+            new Field(13, IsoType.NUMERIC, 4),
+            new Field(38, IsoType.ALPHA, 6),
+            new Field(39, IsoType.ALPHA, 2),
+            new Field(41, IsoType.ALPHA, 8),
+            new Field(44, IsoType.LLVAR, 0),
+            new Field(49, IsoType.NUMERIC, 3),
+            new Field(54, IsoType.LLLVAR, 0),
+            new Field(55, IsoType.LLLVAR, 0),
+            new Field(60, IsoType.LLLVAR, 0),
+            new Field(61, IsoType.LLLVAR, 0),
+            new Field(62, IsoType.LLLVAR, 0),
+            new Field(63, IsoType.LLLVAR, 0),
+            new Field(64, IsoType.BINARY, 8),
+            new Field(70, IsoType.NUMERIC, 3));
+
+    private final MessageFactory<IsoMessage> messageFactory;
+    private final String encoding;
+    private final boolean compatible;
+    private final boolean lazy;
+
+    /**
+     * @param messageFactory configured like {@code IsoConfig}; handles whatever this codec does not
+     */
+    public CompiledIsoCodec(MessageFactory<IsoMessage> messageFactory) {
+        this(messageFactory, false);
+    }
+
+    /**
+     * @param lazy decode into {@link LazyIsoMessage} views, which decode each field on first access
+     */
+    public CompiledIsoCodec(MessageFactory<IsoMessage> messageFactory, boolean lazy) {
+        this.messageFactory = messageFactory;
+        this.lazy = lazy;
+        this.encoding = messageFactory.getCharacterEncoding();
+        this.compatible = compatible(messageFactory);
+        if (!compatible) {
+            log.warn("MessageFactory is not configured like IsoConfig; the compiled codec delegates every message");
+        }
+    }
+
+    /**
+     * @return true when the factory writes messages the way this codec does
+     */
+    static boolean compatible(MessageFactory<IsoMessage> messageFactory) {
+        return messageFactory.isUseBinaryBitmap()
+                && !messageFactory.isBinaryHeader()
+                && !messageFactory.isBinaryFields()
+                && !messageFactory.isForceStringEncoding()
+                && !messageFactory.isVariableLengthFieldsInHex()
+                && !messageFactory.isUseDateTimeApi()
+                && messageFactory.getEtx() == -1
+                && isAsciiSuperset(messageFactory.getCharacterEncoding());
+    }
+
+    private static boolean isAsciiSuperset(String encoding) {
+        return "UTF-8".equalsIgnoreCase(encoding) || "ISO-8859-1".equalsIgnoreCase(encoding)
+                || "US-ASCII".equalsIgnoreCase(encoding);
+    }
+
+    private static boolean handles(int type) {
+        return type == 0x200 || type == 0x210 || type == 0x231;
+    }
+
+    // ---------------------------------------------------------------- decode
+
+    @Override
+    public IsoMessage decode(byte[] buf, int length) throws ParseException {
+        return decode(buf, length, null);
+    }
+
+    /**
+     * A lazy codec takes its views from {@code pool} and creates new ones for it when it is empty.
+     */
+    @Override
+    public IsoMessage decode(byte[] buf, int length, IsoMessagePool pool) throws ParseException {
+        IsoMessage message = compatible ? decodeFast(buf, Math.min(length, buf.length), pool) : null;
+        if (message != null) {
+            return message;
+        }
+        return IsoCodec.parse(messageFactory, buf, length);
+    }
+
+    /**
+     * @return null when the payload needs the message factory
+     */
+    private IsoMessage decodeFast(byte[] buf, int limit, IsoMessagePool pool) {
+        if (limit < 12) {
+            return null;
+        }
+        int type = mti(buf);
+        // A parser time zone changes how DATE10 is read; leave that to j8583
+        if (!handles(type) || messageFactory.getIsoHeader(type) != null
+                || DateTimeParseInfo.getDefaultTimeZone() != null) {
+            return null;
+        }
+        boolean secondary = (buf[4] & 0x80) != 0;
+        int pos = secondary ? 20 : 12;
+        if (pos > limit) {
+            return null;
+        }
+        int fields = secondary ? 128 : 64;
+        LazyIsoMessage view = null;
+        int[] starts = null;
+        if (lazy) {
+            view = pool != null ? pool.take() : null;
+            if (view == null) {
+                view = new LazyIsoMessage();
+            }
+            view.pool = pool;
+            starts = view.offsets(presentFields(buf, secondary));
+        }
+        int count = 0;
+        long present = 0;
+        long presentSecondary = 0;
+        IsoMessage message = lazy ? null : header(new IsoMessage(), type);
+        for (int i = 2; i <= fields; i++) {
+            if ((buf[4 + ((i - 1) >> 3)] & (0x80 >>> ((i - 1) & 7))) == 0) {
+                continue;
+            }
+            Field field = TRANSACTION_LAYOUT[i];
+            int end = field != null ? field.end(buf, pos, limit) : -1;
+            if (end < 0) {
+                if (pool != null) {
+                    pool.release(view);
+                }
+                return null;
+            }
+            if (lazy) {
+                starts[count++] = pos;
+                if (i <= 64) {
+                    present |= 1L << (i - 1);
+                } else {
+                    presentSecondary |= 1L << (i - 65);
+                }
+            } else {
+                field.put(message, buf, pos, encoding);
+            }
+            pos = end;
+        }
+        if (lazy) {
+            view.load(buf, limit, count, present, presentSecondary, encoding);
+            message = header(view, type);
+        }
+        return message;
+    }
+
+    private static int presentFields(byte[] buf, boolean secondary) {
+        int count = secondary ? -1 : 0; // bit 1 only announces the secondary bitmap
+        for (int i = 4; i < (secondary ? 20 : 12); i++) {
+            count += Integer.bitCount(buf[i] & 0xFF);
+        }
+        return count;
+    }
+
+    /**
+     * Where field {@code index} of a 0200, 0210 or 0231 payload starts, found by walking the fields
+     * before it.
+     *
+     * @return the offset of the field, or of where it would be inserted when it is absent; -1 when
+     * the payload is too short or has a field before it outside the table
+     */
+    static int fieldOffset(byte[] buf, int limit, int index) {
+        if (limit < 12) {
+            return -1;
+        }
+        boolean secondary = (buf[4] & 0x80) != 0;
+        int pos = secondary ? 20 : 12;
+        if (pos > limit) {
+            return -1;
+        }
+        for (int i = 2; i < index; i++) {
+            if ((buf[4 + ((i - 1) >> 3)] & (0x80 >>> ((i - 1) & 7))) == 0) {
+                continue;
+            }
+            Field field = TRANSACTION_LAYOUT[i];
+            pos = field != null ? field.end(buf, pos, limit) : -1;
+            if (pos < 0) {
+                return -1;
+            }
+        }
+        return pos;
+    }
+
+    /**
+     * Sets what the message factory would; before any field, as {@code setField} takes the
+     * message's encoding.
+     */
+    private IsoMessage header(IsoMessage message, int type) {
+        message.setCharacterEncoding(encoding);
+        message.setType(type);
+        message.setBinaryBitmap(true);
+        message.setForceSecondaryBitmap(messageFactory.isForceSecondaryBitmap());
+        return message;
+    }
+
+    static int mti(byte[] buf) {
+        int type = 0;
+        for (int i = 0; i < 4; i++) {
+            int digit = Character.digit(buf[i], 16);
+            if (digit < 0) {
+                return -1;
+            }
+            type = (type << 4) | digit;
+        }
+        return type;
+    }
+
+    // ---------------------------------------------------------------- encode
+
+    @Override
+    public byte[] encode(IsoMessage message) {
+        int size = compatible ? measure(message) : -1;
+        if (size < 0) {
+            return message.writeData();
+        }
+        byte[] out = new byte[size];
+        int type = message.getType();
+        out[0] = HEX[(type >> 12) & 0xF];
+        out[1] = HEX[(type >> 8) & 0xF];
+        out[2] = HEX[(type >> 4) & 0xF];
+        out[3] = HEX[type & 0xF];
+        boolean secondary = message.getForceSecondaryBitmap() || hasSecondaryFields(message);
+        int pos = secondary ? 20 : 12;
+        if (secondary) {
+            out[4] = (byte) 0x80;
+        }
+        LazyIsoMessage view = message instanceof LazyIsoMessage lazyMessage ? lazyMessage : null;
+        for (int i = 2; i <= (secondary ? 128 : 64); i++) {
+            if (view != null && view.rawLength(i) >= 0) {
+                out[4 + ((i - 1) >> 3)] |= (byte) (0x80 >>> ((i - 1) & 7));
+                pos = view.copyRaw(i, out, pos);
+                continue;
+            }
+            IsoValue<?> value = message.getField(i);
+            if (value == null) {
+                continue;
+            }
+            out[4 + ((i - 1) >> 3)] |= (byte) (0x80 >>> ((i - 1) & 7));
+            pos = write(value, out, pos);
+        }
+        return out;
+    }
+
+    private static boolean hasSecondaryFields(IsoMessage message) {
+        for (int i = 65; i <= 128; i++) {
+            if (message.hasField(i)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the encoded size, or -1 when the message needs the message factory
+     */
+    private int measure(IsoMessage message) {
+        if (!handles(message.getType()) || !message.isBinaryBitmap() || message.isBinaryHeader()
+                || message.isBinaryFields() || message.isEncodeVariableLengthFieldsInHex()
+                || message.getIsoHeader() != null || message.getBinaryIsoHeader() != null
+                || !isAsciiSuperset(message.getCharacterEncoding())) {
+            return -1;
+        }
+        boolean secondary = message.getForceSecondaryBitmap() || hasSecondaryFields(message);
+        int size = secondary ? 20 : 12;
+        LazyIsoMessage view = message instanceof LazyIsoMessage lazyMessage ? lazyMessage : null;
+        for (int i = 2; i <= (secondary ? 128 : 64); i++) {
+            int raw = view != null ? view.rawLength(i) : -1;
+            if (raw >= 0) {
+                // Unchanged since it was parsed: copied from the payload without decoding
+                size += raw;
+                continue;
+            }
+            IsoValue<?> value = message.getField(i);
+            if (value == null) {
+                continue;
+            }
+            int fieldSize = measure(value);
+            if (fieldSize < 0) {
+                return -1;
+            }
+            size += fieldSize;
+        }
+        return size;
+    }
+
+    /**
+     * @return the encoded size of one field, or -1 when j8583 has to write it
+     */
+    static int measure(IsoValue<?> value) {
+        Object v = value.getValue();
+        int length = value.getLength();
+        if (value.getEncoder() != null || v == null) {
+            return -1;
+        }
+        return switch (value.getType()) {
+            case NUMERIC -> {
+                if (v instanceof String s) {
+                    yield s.length() <= length && isAscii(s) ? length : -1;
+                }
+                if (v instanceof Long || v instanceof Integer) {
+                    long n = ((Number) v).longValue();
+                    yield n >= 0 && digits(n) <= length ? length : -1;
+                }
+                yield -1;
+            }
+            case ALPHA -> v instanceof String s && isAscii(s) ? length : -1;
+            case LLVAR -> v instanceof String s && length <= 99 && isAscii(s) ? 2 + s.length() : -1;
+            case LLLVAR -> v instanceof String s && length <= 999 && isAscii(s) ? 3 + s.length() : -1;
+            case DATE10 -> v instanceof Date ? 10 : -1;
+            case BINARY -> v instanceof byte[] ? length * 2 : -1;
+            default -> -1;
+        };
+    }
+
+    /**
+     * Writes a field {@link #measure} accepted.
+     *
+     * @return the position after the field
+     */
+    static int write(IsoValue<?> value, byte[] out, int pos) {
+        Object v = value.getValue();
+        int length = value.getLength();
+        switch (value.getType()) {
+            case NUMERIC -> {
+                if (v instanceof String s) {
+                    int pad = length - s.length();
+                    for (int i = 0; i < pad; i++) {
+                        out[pos++] = '0';
+                    }
+                    return ascii(s, s.length(), out, pos);
+                }
+                long n = ((Number) v).longValue();
+                for (int i = pos + length - 1; i >= pos; i--) {
+                    out[i] = (byte) ('0' + n % 10);
+                    n /= 10;
+                }
+                return pos + length;
+            }
+            case ALPHA -> {
+                String s = (String) v;
+                int end = ascii(s, Math.min(length, s.length()), out, pos);
+                while (end < pos + length) {
+                    out[end++] = ' ';
+                }
+                return end;
+            }
+            case LLVAR, LLLVAR -> {
+                String s = (String) v;
+                int digits = value.getType() == IsoType.LLVAR ? 2 : 3;
+                writeDigits(length, out, pos, digits);
+                return ascii(s, s.length(), out, pos + digits);
+            }
+            case DATE10 -> {
+                Date date = (Date) v;
+                TimeZone tz = value.getTimeZone() != null ? value.getTimeZone() : TimeZone.getDefault();
+                long millis = date.getTime();
+                LocalDateTime t = LocalDateTime.ofEpochSecond(Math.floorDiv(millis, 1000), 0,
+                        ZoneOffset.ofTotalSeconds(tz.getOffset(millis) / 1000));
+                writeDigits(t.getMonthValue(), out, pos, 2);
+                writeDigits(t.getDayOfMonth(), out, pos + 2, 2);
+                writeDigits(t.getHour(), out, pos + 4, 2);
+                writeDigits(t.getMinute(), out, pos + 6, 2);
+                writeDigits(t.getSecond(), out, pos + 8, 2);
+                return pos + 10;
+            }
+            case BINARY -> {
+                byte[] bytes = (byte[]) v;
+                for (int i = 0; i < length; i++) {
+                    int b = i < bytes.length ? bytes[i] & 0xFF : 0;
+                    out[pos++] = HEX[b >>> 4];
+                    out[pos++] = HEX[b & 0xF];
+                }
+                return pos;
+            }
+            default -> throw new IllegalStateException("Unmeasured type " + value.getType());
+        }
+    }
+
+    static int ascii(String s, int count, byte[] out, int pos) {
+        for (int i = 0; i < count; i++) {
+            out[pos++] = (byte) s.charAt(i);
+        }
+        return pos;
+    }
+
+    static void writeDigits(int n, byte[] out, int pos, int digits) {
+        for (int i = pos + digits - 1; i >= pos; i--) {
+            out[i] = (byte) ('0' + n % 10);
+            n /= 10;
+        }
+    }
+
+    private static int digits(long n) {
+        int digits = 1;
+        while (n >= 10) {
+            n /= 10;
+            digits++;
+        }
+        return digits;
+    }
+
+    static boolean isAscii(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            if (s.charAt(i) >= 0x80) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // ---------------------------------------------------------------- field table
+
+    private static Field[] layout(Field... fields) {
+        Field[] table = new Field[129];
+        for (Field field : fields) {
+            table[field.number] = field;
+        }
+        return table;
+    }
+
+    static Field field(int number) {
+        return TRANSACTION_LAYOUT[number];
+    }
+
+    /**
+     * One entry of the field table.
+     */
+    record Field(int number, IsoType type, int length) {
+
+        /**
+         * Checks the field at {@code pos} without decoding it.
+         *
+         * @return the position after the field, or -1 when the message factory has to parse it
+         */
+        int end(byte[] buf, int pos, int limit) {
+            int length = this.length;
+            switch (type) {
+                case LLVAR, LLLVAR -> {
+                    int digits = type == IsoType.LLVAR ? 2 : 3;
+                    if (pos + digits > limit) {
+                        return -1;
+                    }
+                    length = 0;
+                    for (int i = 0; i < digits; i++) {
+                        int d = buf[pos + i] - '0';
+                        if (d < 0 || d > 9) {
+                            return -1;
+                        }
+                        length = length * 10 + d;
+                    }
+                    pos += digits;
+                }
+                case BINARY -> {
+                    if (pos + length * 2 > limit) {
+                        return -1;
+                    }
+                    for (int i = pos; i < pos + length * 2; i++) {
+                        if (Character.digit(buf[i], 16) < 0) {
+                            return -1;
+                        }
+                    }
+                    return pos + length * 2;
+                }
+                case DATE10 -> {
+                    if (pos + 10 > limit) {
+                        return -1;
+                    }
+                    for (int i = pos; i < pos + 10; i++) {
+                        if (buf[i] < '0' || buf[i] > '9') {
+                            return -1;
+                        }
+                    }
+                    return pos + 10;
+                }
+                default -> {
+                    // NUMERIC and ALPHA: fixed length
+                }
+            }
+            if (pos + length > limit) {
+                return -1;
+            }
+            for (int i = pos; i < pos + length; i++) {
+                if (buf[i] < 0) {
+                    return -1; // not ASCII: leave the decoding to the charset
+                }
+            }
+            return pos + length;
+        }
+
+        /**
+         * Decodes a field {@link #end} accepted into {@code message}.
+         */
+        void put(IsoMessage message, byte[] buf, int pos, String encoding) {
+            IsoValue<?> value;
+            switch (type) {
+                case LLVAR, LLLVAR -> {
+                    int digits = type == IsoType.LLVAR ? 2 : 3;
+                    int length = 0;
+                    for (int i = 0; i < digits; i++) {
+                        length = length * 10 + buf[pos + i] - '0';
+                    }
+                    value = text(buf, pos + digits, length);
+                }
+                case BINARY -> {
+                    byte[] bytes = new byte[length];
+                    for (int i = 0; i < length; i++) {
+                        bytes[i] = (byte) ((Character.digit(buf[pos + 2 * i], 16) << 4)
+                                | Character.digit(buf[pos + 2 * i + 1], 16));
+                    }
+                    value = new IsoValue<>(type, bytes, length);
+                }
+                case DATE10 -> {
+                    Calendar cal = Calendar.getInstance();
+                    cal.set(Calendar.MONTH, twoDigits(buf, pos) - 1);
+                    cal.set(Calendar.DATE, twoDigits(buf, pos + 2));
+                    cal.set(Calendar.HOUR_OF_DAY, twoDigits(buf, pos + 4));
+                    cal.set(Calendar.MINUTE, twoDigits(buf, pos + 6));
+                    cal.set(Calendar.SECOND, twoDigits(buf, pos + 8));
+                    cal.set(Calendar.MILLISECOND, 0);
+                    DateTimeParseInfo.adjustWithFutureTolerance(cal);
+                    value = new IsoValue<>(type, cal.getTime(), null);
+                }
+                default -> value = text(buf, pos, length);
+            }
+            value.setCharacterEncoding(encoding);
+            message.setField(number, value);
+        }
+
+        private IsoValue<String> text(byte[] buf, int pos, int length) {
+            // Latin-1 is a plain byte copy, and equals UTF-8 on ASCII
+            return new IsoValue<>(type, new String(buf, pos, length, StandardCharsets.ISO_8859_1), length);
+        }
+
+        private static int twoDigits(byte[] buf, int pos) {
+            return (buf[pos] - '0') * 10 + buf[pos + 1] - '0';
+        }
+    }
+}
@@ -0,0 +1,344 @@
+package com.pridebank.token.iso;
+
+import com.solab.iso8583.IsoMessage;
+import com.solab.iso8583.IsoType;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A BER-TLV cursor over the EMV data of field 55, read where it lies.
+ * <p>
+ * Field 55 is an LLLVAR of hex characters. The cursor walks the top-level elements of those
+ * characters in place: when the message is a {@link LazyIsoMessage} whose field 55 is unchanged,
+ * {@link #wrap(IsoMessage)} points it at the payload itself, so iterating the tags or looking up
+ * the cryptogram (9F26), its information data (9F27) or the TVR (95) decodes no string and
+ * allocates nothing. One cursor is meant to be reused from message to message.
+ * <p>
+ * {@link #rewrite} writes the field with some tags replaced, removed or added; every other element
+ * is copied as its characters. Data that is not BER-TLV (an odd or non-hex character, a length
+ * running past the end, tags longer than 3 bytes) stops {@link #next()} and sets
+ * {@link #malformed()}. Like the messages it reads, the cursor is not thread-safe.
+ */
+public final class EmvTlv {
+
+    private static final byte[] HEX = "0123456789ABCDEF".getBytes(StandardCharsets.US_ASCII);
+
+    private byte[] data;
+    private int start;
+    private int end;
+    /** Where the next element starts. */
+    private int next;
+    /** The current element: where its tag starts, its tag and where its value starts. */
+    private int element;
+    private int tag;
+    private int valueStart;
+    /** Value bytes of the current element; it has twice as many characters. */
+    private int length;
+    private boolean constructed;
+    private boolean malformed;
+
+    /**
+     * Points the cursor at {@code length} hex characters of {@code data}, before their first element.
+     */
+    public EmvTlv wrap(byte[] data, int offset, int length) {
+        this.data = data;
+        this.start = offset;
+        this.end = offset + length;
+        rewind();
+        return this;
+    }
+
+    /**
+     * Points the cursor at field 55 of {@code message}: the payload of an unchanged
+     * {@link LazyIsoMessage} field, otherwise the characters of the field's value.
+     *
+     * @return false when the message has no field 55; the cursor is then empty
+     */
+    public boolean wrap(IsoMessage message) {
+        if (message instanceof LazyIsoMessage view) {
+            int raw = view.rawLength(55);
+            if (raw >= 3) {
+                // Past the three length digits
+                wrap(view.payload(), view.rawOffset(55) + 3, raw - 3);
+                return true;
+            }
+        }
+        if (!message.hasField(55)) {
+            wrap(HEX, 0, 0);
+            return false;
+        }
+        byte[] chars = message.getObjectValue(55).toString().getBytes(StandardCharsets.US_ASCII);
+        wrap(chars, 0, chars.length);
+        return true;
+    }
+
+    /**
+     * Goes back before the first element.
+     */
+    public void rewind() {
+        next = start;
+        element = start;
+        tag = 0;
+        valueStart = start;
+        length = 0;
+        constructed = false;
+        malformed = false;
+    }
+
+    /**
+     * Moves to the next top-level element; a constructed element's value is skipped as a whole.
+     *
+     * @return false at the end of the data or when it is malformed
+     */
+    public boolean next() {
+        if (malformed || next >= end) {
+            return false;
+        }
+        int pos = next;
+        int first = octet(pos);
+        if (first < 0) {
+            return fail();
+        }
+        int t = first;
+        pos += 2;
+        if ((first & 0x1F) == 0x1F) {
+            int b;
+            do {
+                b = octet(pos);
+                if (b < 0 || t > 0xFFFF) {
+                    return fail();
+                }
+                t = t << 8 | b;
+                pos += 2;
+            } while ((b & 0x80) != 0);
+        }
+        int l = octet(pos);
+        pos += 2;
+        if (l > 0x80) {
+            // Long form: the low bits count the length bytes that follow; two cover any field 55
+            int bytes = l & 0x7F;
+            if (bytes > 2) {
+                return fail();
+            }
+            l = 0;
+            for (int i = 0; i < bytes; i++, pos += 2) {
+                int b = octet(pos);
+                if (b < 0) {
+                    return fail();
+                }
+                l = l << 8 | b;
+            }
+        } else if (l < 0 || l == 0x80) {
+            return fail();
+        }
+        if (pos + 2L * l > end) {
+            return fail();
+        }
+        element = next;
+        tag = t;
+        constructed = (first & 0x20) != 0;
+        valueStart = pos;
+        length = l;
+        next = pos + 2 * l;
+        return true;
+    }
+
+    /**
+     * Moves to the first top-level element with {@code tag}, from the start of the data.
+     *
+     * @return false when there is none, or the data is malformed before it
+     */
+    public boolean find(int tag) {
+        rewind();
+        while (next()) {
+            if (this.tag == tag) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the current element's tag, its bytes as one number: 0x9F26, 0x95
+     */
+    public int tag() {
+        return tag;
+    }
+
+    /**
+     * @return the current element's value length in bytes
+     */
+    public int length() {
+        return length;
+    }
+
+    public boolean constructed() {
+        return constructed;
+    }
+
+    /**
+     * @return true when {@link #next()} stopped at data that is not BER-TLV
+     */
+    public boolean malformed() {
+        return malformed;
+    }
+
+    /**
+     * @return byte {@code i} of the current element's value
+     */
+    public int valueByte(int i) {
+        if (i < 0 || i >= length) {
+            throw new IndexOutOfBoundsException(i);
+        }
+        return octet(valueStart + 2 * i);
+    }
+
+    /**
+     * @return the current element's value as a big-endian number, for values of up to 8 bytes
+     * such as 9F26, 9F27, 95 or 9F36
+     */
+    public long valueLong() {
+        if (length > 8) {
+            throw new IllegalStateException("Tag " + Integer.toHexString(tag) + " has " + length + " bytes");
+        }
+        long value = 0;
+        for (int i = 0; i < length; i++) {
+            value = value << 8 | octet(valueStart + 2 * i);
+        }
+        return value;
+    }
+
+    /**
+     * @return the current element's value as its hex characters; allocates
+     */
+    public String valueHex() {
+        return new String(data, valueStart, 2 * length, StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * The characters {@link #rewrite(int[], byte[][], byte[], int)} writes.
+     *
+     * @return the length, or -1 when the data is malformed
+     */
+    public int rewrittenLength(int[] tags, byte[][] values) {
+        return rewrite(tags, values, null, 0);
+    }
+
+    /**
+     * Writes the wrapped data with each of {@code tags} set to the matching entry of
+     * {@code values}: an element with the tag gets the new value, or is dropped when the value is
+     * null, and a tag the data does not have is added at the end. Every other element is copied as
+     * it is, in its place.
+     *
+     * @param values raw value bytes, written as upper-case hex
+     * @param out    the characters go here from {@code pos}; null only measures
+     * @return the position after the data, or -1 when it is malformed and nothing can be rewritten
+     */
+    public int rewrite(int[] tags, byte[][] values, byte[] out, int pos) {
+        if (tags.length != values.length || tags.length > 64) {
+            throw new IllegalArgumentException("Expected one value for each of at most 64 tags");
+        }
+        long seen = 0;
+        rewind();
+        while (next()) {
+            int k = indexOf(tags, tag);
+            if (k < 0) {
+                if (out != null) {
+                    System.arraycopy(data, element, out, pos, next - element);
+                }
+                pos += next - element;
+                continue;
+            }
+            seen |= 1L << k;
+            if (values[k] != null) {
+                pos = element(tag, values[k], out, pos);
+            }
+        }
+        if (malformed) {
+            return -1;
+        }
+        for (int k = 0; k < tags.length; k++) {
+            if ((seen & (1L << k)) == 0 && values[k] != null) {
+                pos = element(tags[k], values[k], out, pos);
+            }
+        }
+        return pos;
+    }
+
+    /**
+     * Sets field 55 of {@code response} to the wrapped data {@link #rewrite rewritten}.
+     *
+     * @return false when the data is malformed or would not fit the LLLVAR; the response is then
+     * left as it was
+     */
+    public boolean rewrite(IsoMessage response, int[] tags, byte[][] values) {
+        int length = rewrittenLength(tags, values);
+        if (length < 0 || length > 999) {
+            return false;
+        }
+        byte[] out = new byte[length];
+        rewrite(tags, values, out, 0);
+        response.setValue(55, new String(out, StandardCharsets.US_ASCII), IsoType.LLLVAR, length);
+        return true;
+    }
+
+    private static int indexOf(int[] tags, int tag) {
+        for (int k = 0; k < tags.length; k++) {
+            if (tags[k] == tag) {
+                return k;
+            }
+        }
+        return -1;
+    }
+
+    private static int element(int tag, byte[] value, byte[] out, int pos) {
+        int tagBytes = tag > 0xFFFF ? 3 : tag > 0xFF ? 2 : 1;
+        for (int i = tagBytes - 1; i >= 0; i--) {
+            pos = hex(tag >>> (8 * i), out, pos);
+        }
+        int length = value.length;
+        if (length > 0xFF) {
+            pos = hex(0x82, out, pos);
+            pos = hex(length >>> 8, out, pos);
+        } else if (length > 0x7F) {
+            pos = hex(0x81, out, pos);
+        }
+        pos = hex(length, out, pos);
+        for (byte b : value) {
+            pos = hex(b, out, pos);
+        }
+        return pos;
+    }
+
+    private static int hex(int b, byte[] out, int pos) {
+        if (out != null) {
+            out[pos] = HEX[(b >>> 4) & 0xF];
+            out[pos + 1] = HEX[b & 0xF];
+        }
+        return pos + 2;
+    }
+
+    /**
+     * @return the byte written as the two characters at {@code pos}, or -1
+     */
+    private int octet(int pos) {
+        if (pos + 2 > end) {
+            return -1;
+        }
+        int high = digit(data[pos]);
+        int low = digit(data[pos + 1]);
+        return high < 0 || low < 0 ? -1 : high << 4 | low;
+    }
+
+    private static int digit(byte c) {
+        if (c >= '0' && c <= '9') return c - '0';
+        if (c >= 'A' && c <= 'F') return c - 'A' + 10;
+        if (c >= 'a' && c <= 'f') return c - 'a' + 10;
+        return -1;
+    }
+
+    private boolean fail() {
+        malformed = true;
+        return false;
+    }
+}
@@ -0,0 +1,90 @@
+package com.pridebank.token.iso;
+
+import com.solab.iso8583.IsoMessage;
+import com.solab.iso8583.MessageFactory;
+
+import java.io.UnsupportedEncodingException;
+import java.text.ParseException;
+import java.util.Arrays;
+
+/**
+ * Turns ISO-8583 payloads (without the 2-byte length header) into {@link IsoMessage}s and back.
+ * Selected per listener with {@code codec}: {@code j8583} parses and writes through the
+ * {@link MessageFactory}, {@code compiled} uses {@link CompiledIsoCodec} and {@code lazy} the same codec
+ * decoding into {@link LazyIsoMessage} views.
+ */
+public interface IsoCodec {
+
+    /**
+     * @param length payload bytes in {@code buf}, from offset 0
+     */
+    IsoMessage decode(byte[] buf, int length) throws ParseException;
+
+    /**
+     * Decodes into a message recycled through {@code pool} where the codec supports it; the
+     * caller {@link IsoMessagePool#release releases} it once the reply is written.
+     *
+     * @param pool may be null
+     */
+    default IsoMessage decode(byte[] buf, int length, IsoMessagePool pool) throws ParseException {
+        return decode(buf, length);
+    }
+
+    byte[] encode(IsoMessage message);
+
+    /**
+     * Whether {@link #decode} has to copy a buffer longer than {@code length}. Listeners then read
+     * frames into exact-length arrays of their own: pooling them would only add a copy.
+     */
+    default boolean needsExactFrames() {
+        return false;
+    }
+
+    static IsoCodec of(String name, MessageFactory<IsoMessage> messageFactory) {
+        if (name == null || "j8583".equalsIgnoreCase(name)) {
+            return j8583(messageFactory);
+        }
+        if ("compiled".equalsIgnoreCase(name)) {
+            return new CompiledIsoCodec(messageFactory);
+        }
+        if ("lazy".equalsIgnoreCase(name)) {
+            return new CompiledIsoCodec(messageFactory, true);
+        }
+        throw new IllegalArgumentException("Unknown ISO codec " + name + "; expected j8583, compiled or lazy");
+    }
+
+    static IsoCodec j8583(MessageFactory<IsoMessage> messageFactory) {
+        return new IsoCodec() {
+            @Override
+            public IsoMessage decode(byte[] buf, int length) throws ParseException {
+                return parse(messageFactory, buf, length);
+            }
+
+            @Override
+            public byte[] encode(IsoMessage message) {
+                return message.writeData();
+            }
+
+            @Override
+            public boolean needsExactFrames() {
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Parses the first {@code length} bytes of {@code buf} with j8583.
+     * <p>
+     * j8583 parses to the end of the array it is given and does not take a length, so a pooled
+     * buffer larger than the payload is copied down to it first: a truncated message would
+     * otherwise read its missing fields from the bytes after it.
+     */
+    static IsoMessage parse(MessageFactory<IsoMessage> messageFactory, byte[] buf, int length) throws ParseException {
+        byte[] payload = length == buf.length ? buf : Arrays.copyOf(buf, length);
+        try {
+            return messageFactory.parseMessage(payload, 0);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
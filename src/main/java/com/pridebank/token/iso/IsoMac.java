@@ -0,0 +1,247 @@
+package com.pridebank.token.iso;
+
+import com.solab.iso8583.IsoMessage;
+import com.solab.iso8583.MessageFactory;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.HexFormat;
+
+/**
+ * The field 64 MAC of 0200 requests and their 0210 / 0231 replies.
+ * <p>
+ * The MAC covers the encoded message as it is on the wire: MTI, bitmaps and every field except
+ * field 64 itself, whose 16 hex characters carry the 8 MAC bytes. It is computed over the payload
+ * in place, the bytes before field 64 and those after it, so no message is copied or re-encoded.
+ * <ul>
+ *   <li>{@code retail}: ISO 9797-1 MAC algorithm 3 (ANSI X9.19), single-DES CBC under the left key
+ *   half with the last block decrypted under the right half and encrypted again under the left,
+ *   zero padding; a 16-byte key, or an 8-byte one for plain CBC-MAC</li>
+ *   <li>{@code hmac-sha256}: HMAC-SHA256 truncated to 8 bytes; any key length</li>
+ * </ul>
+ * Keys are parsed once. Each thread keeps its own initialised {@link Cipher}s or {@link Mac} and
+ * scratch arrays, so a MAC allocates nothing once a thread has computed its first one. On virtual
+ * threads, which live for one transaction, that first one is paid per transaction.
+ */
+public final class IsoMac {
+
+    private static final byte[] HEX = "0123456789ABCDEF".getBytes(StandardCharsets.US_ASCII);
+    private static final int FIELD_64_CHARS = 16;
+
+    private final String algorithm;
+    private final SecretKeySpec left;
+    private final SecretKeySpec right;
+    private final ThreadLocal<Engine> engines;
+
+    private IsoMac(String algorithm, byte[] key) {
+        this.algorithm = algorithm;
+        if ("retail".equals(algorithm)) {
+            if (key.length != 8 && key.length != 16) {
+                throw new IllegalArgumentException("A retail MAC key has 8 or 16 bytes, not " + key.length);
+            }
+            this.left = new SecretKeySpec(key, 0, 8, "DES");
+            this.right = new SecretKeySpec(key, key.length - 8, 8, "DES");
+        } else {
+            this.left = new SecretKeySpec(key, "HmacSHA256");
+            this.right = null;
+        }
+        this.engines = ThreadLocal.withInitial(this::engine);
+        // Fails here, at start-up, when the JCE cannot provide the algorithm
+        engines.get();
+    }
+
+    /**
+     * @param algorithm {@code retail} or {@code hmac-sha256}
+     * @param hexKey    the key as hex
+     * @throws IllegalArgumentException when the factory does not write messages like
+     *                                  {@code IsoConfig}, or the algorithm or key is not usable
+     */
+    public static IsoMac of(MessageFactory<IsoMessage> messageFactory, String algorithm, String hexKey) {
+        if (!CompiledIsoCodec.compatible(messageFactory)) {
+            throw new IllegalArgumentException("Field 64 MACs need a MessageFactory configured like IsoConfig");
+        }
+        if (hexKey == null || hexKey.isBlank()) {
+            throw new IllegalArgumentException("No MAC key configured");
+        }
+        String name = algorithm == null ? "retail" : algorithm.toLowerCase();
+        if (!"retail".equals(name) && !"hmac-sha256".equals(name)) {
+            throw new IllegalArgumentException("Unknown MAC algorithm " + algorithm + "; expected retail or hmac-sha256");
+        }
+        return new IsoMac(name, HexFormat.of().parseHex(hexKey.trim()));
+    }
+
+    /**
+     * @return false for a 0200 whose field 64 is missing or does not match; true for anything else
+     */
+    public boolean verifyRequest(byte[] buf, int length) {
+        return length < 4 || CompiledIsoCodec.mti(buf) != 0x200 || verify(buf, length);
+    }
+
+    /**
+     * Sets field 64 of a 0210 or 0231 reply; other messages are returned as they are.
+     *
+     * @return {@code reply} with its MAC written in place, or a copy with field 64 added when the
+     * reply did not have it
+     */
+    public byte[] signReply(byte[] reply) {
+        int type = reply.length < 4 ? -1 : CompiledIsoCodec.mti(reply);
+        return type == 0x210 || type == 0x231 ? sign(reply) : reply;
+    }
+
+    /**
+     * @return true when the payload has a field 64 matching its MAC
+     */
+    public boolean verify(byte[] buf, int length) {
+        if (length < 12 || (buf[11] & 0x01) == 0) {
+            return false;
+        }
+        int start = CompiledIsoCodec.fieldOffset(buf, length, 64);
+        if (start < 0 || start + FIELD_64_CHARS > length) {
+            return false;
+        }
+        byte[] mac = engines.get().mac(buf, length, start);
+        int difference = 0;
+        for (int i = 0; i < 8; i++) {
+            int high = Character.digit(buf[start + 2 * i], 16);
+            int low = Character.digit(buf[start + 2 * i + 1], 16);
+            difference |= (high << 4 | low) ^ (mac[i] & 0xFF) | (high | low) >>> 31;
+        }
+        return difference == 0;
+    }
+
+    /**
+     * Writes the MAC of a 0200, 0210 or 0231 payload into its field 64, adding the field when it
+     * is missing.
+     *
+     * @return {@code message}, or the copy with field 64 added
+     * @throws IllegalArgumentException when the payload cannot be walked up to field 64
+     */
+    public byte[] sign(byte[] message) {
+        int start = CompiledIsoCodec.fieldOffset(message, message.length, 64);
+        if (start < 0) {
+            throw new IllegalArgumentException("Not a 0200, 0210 or 0231 this gateway can MAC");
+        }
+        if ((message[11] & 0x01) == 0) {
+            byte[] copy = new byte[message.length + FIELD_64_CHARS];
+            System.arraycopy(message, 0, copy, 0, start);
+            System.arraycopy(message, start, copy, start + FIELD_64_CHARS, message.length - start);
+            copy[11] |= 0x01;
+            message = copy;
+        }
+        byte[] mac = engines.get().mac(message, message.length, start);
+        for (int i = 0; i < 8; i++) {
+            message[start + 2 * i] = HEX[(mac[i] >>> 4) & 0xF];
+            message[start + 2 * i + 1] = HEX[mac[i] & 0xF];
+        }
+        return message;
+    }
+
+    private Engine engine() {
+        try {
+            return "retail".equals(algorithm) ? new RetailEngine(left, right) : new HmacEngine(left);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalArgumentException("Cannot initialise the " + algorithm + " MAC", e);
+        }
+    }
+
+    /**
+     * One thread's initialised MAC primitives.
+     */
+    private abstract static class Engine {
+
+        /** The last MAC; overwritten by the next. */
+        final byte[] mac = new byte[8];
+
+        /**
+         * @return the MAC of {@code buf} without the 16 characters at {@code skip}
+         */
+        byte[] mac(byte[] buf, int length, int skip) {
+            try {
+                update(buf, 0, skip);
+                update(buf, skip + FIELD_64_CHARS, length - skip - FIELD_64_CHARS);
+                finish(length - FIELD_64_CHARS);
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(e);
+            }
+            return mac;
+        }
+
+        abstract void update(byte[] buf, int offset, int length) throws GeneralSecurityException;
+
+        /**
+         * Writes the MAC of everything passed to {@link #update} into {@link #mac} and starts over.
+         */
+        abstract void finish(int length) throws GeneralSecurityException;
+    }
+
+    private static final class RetailEngine extends Engine {
+
+        /** CBC output is only needed for its last block, so input goes through in slices. */
+        private static final int SLICE = 256;
+
+        private final Cipher chain;
+        private final Cipher decrypt;
+        private final Cipher encrypt;
+        private final byte[] output = new byte[SLICE + 8];
+        private final byte[] last = new byte[8];
+        private final byte[] padding = new byte[8];
+
+        RetailEngine(SecretKeySpec left, SecretKeySpec right) throws GeneralSecurityException {
+            chain = Cipher.getInstance("DES/CBC/NoPadding");
+            chain.init(Cipher.ENCRYPT_MODE, left, new IvParameterSpec(new byte[8]));
+            decrypt = Cipher.getInstance("DES/ECB/NoPadding");
+            decrypt.init(Cipher.DECRYPT_MODE, right);
+            encrypt = Cipher.getInstance("DES/ECB/NoPadding");
+            encrypt.init(Cipher.ENCRYPT_MODE, left);
+        }
+
+        @Override
+        void update(byte[] buf, int offset, int length) throws GeneralSecurityException {
+            for (int end = offset + length; offset < end; offset += SLICE) {
+                int written = chain.update(buf, offset, Math.min(SLICE, end - offset), output, 0);
+                if (written > 0) {
+                    System.arraycopy(output, written - 8, last, 0, 8);
+                }
+            }
+        }
+
+        @Override
+        void finish(int length) throws GeneralSecurityException {
+            int pad = (8 - length % 8) % 8;
+            if (pad > 0 || length == 0) {
+                update(padding, 0, length == 0 ? 8 : pad);
+            }
+            // Resets the chain to its IV for the next MAC
+            chain.doFinal(output, 0);
+            decrypt.doFinal(last, 0, 8, output, 0);
+            encrypt.doFinal(output, 0, 8, mac, 0);
+        }
+    }
+
+    private static final class HmacEngine extends Engine {
+
+        private final Mac hmac;
+        private final byte[] output;
+
+        HmacEngine(SecretKeySpec key) throws GeneralSecurityException {
+            hmac = Mac.getInstance("HmacSHA256");
+            hmac.init(key);
+            output = new byte[hmac.getMacLength()];
+        }
+
+        @Override
+        void update(byte[] buf, int offset, int length) {
+            hmac.update(buf, offset, length);
+        }
+
+        @Override
+        void finish(int length) throws GeneralSecurityException {
+            hmac.doFinal(output, 0);
+            System.arraycopy(output, 0, mac, 0, 8);
+        }
+    }
+}
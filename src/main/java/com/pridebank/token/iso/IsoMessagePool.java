@@ -0,0 +1,58 @@
+package com.pridebank.token.iso;
+
+import com.solab.iso8583.IsoMessage;
+
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * The {@link LazyIsoMessage}s of one connection, recycled from transaction to transaction.
+ * <p>
+ * A view keeps its payload copy, field offsets and field array when it is released, so once a
+ * connection has as many views as it has requests in flight, decoding a request and building
+ * its reply allocate none of them. The lazy codec takes views from here and the replies built
+ * from them come from the same pool; both go back once the reply is written. A view that is
+ * released twice, or was not handed out by this pool, is ignored, and taking from an empty pool
+ * simply means a new view.
+ * <p>
+ * Requests and replies of a connection are handled on several threads at once, so the pool is
+ * thread-safe; the queue is bounded and does not allocate when it is used.
+ */
+public class IsoMessagePool {
+
+    private final ArrayBlockingQueue<LazyIsoMessage> free;
+
+    /**
+     * @param capacity views kept for reuse; more are dropped on release
+     */
+    public IsoMessagePool(int capacity) {
+        this.free = new ArrayBlockingQueue<>(capacity);
+    }
+
+    /**
+     * @return a cleared view, or null when none is free
+     */
+    LazyIsoMessage take() {
+        return free.poll();
+    }
+
+    /**
+     * Returns a message this pool handed out. Nothing may use it afterwards: release a request
+     * only once its reply, which reads the request's payload, is written.
+     *
+     * @param message may be null or any other message, which is ignored
+     */
+    public void release(IsoMessage message) {
+        if (message instanceof LazyIsoMessage view && view.pool == this) {
+            view.pool = null;
+            view.clear();
+            free.offer(view);
+        }
+    }
+
+    /**
+     * @return views waiting to be reused
+     */
+    public int size() {
+        return free.size();
+    }
+}
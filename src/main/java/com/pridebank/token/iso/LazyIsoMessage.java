@@ -0,0 +1,428 @@
+package com.pridebank.token.iso;
+
+import com.solab.iso8583.CustomFieldEncoder;
+import com.solab.iso8583.IsoMessage;
+import com.solab.iso8583.IsoType;
+import com.solab.iso8583.IsoValue;
+import com.solab.iso8583.MessageFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.IntPredicate;
+
+/**
+ * An {@link IsoMessage} over a raw 0200/0210/0231 payload that decodes each field on first access.
+ * <p>
+ * {@link CompiledIsoCodec} checks the whole payload and records where every field starts; this
+ * view then builds a field's {@link IsoValue} only when something asks for it. A request that is
+ * validated and converted reads a handful of fields, so the EMV and private-use blocks
+ * (55, 60-63) and the MAC (64) are never turned into strings. Presence checks never decode.
+ * <p>
+ * A field that has not been replaced is still exactly its bytes in the payload, decoded or not.
+ * {@link #reply} starts a response over the same payload, and the fields it echoes that way
+ * are written by {@link CompiledIsoCodec} and {@link ResponseTemplates} as a copy of those bytes.
+ * No value is decoded, cloned or re-encoded on the way. {@link EmvTlv} reads an unchanged field
+ * 55 in the payload the same way.
+ * <p>
+ * Setting or removing a field discards its raw value, and anything that needs every field
+ * (writing, {@link #debugString()}) decodes the rest first, so the view behaves exactly like the
+ * message the factory would have parsed. Like {@link IsoMessage}, it is not thread-safe.
+ */
+public class LazyIsoMessage extends IsoMessage {
+
+    private byte[] data;
+    /** Start of each present field in {@link #data}, in field order. */
+    private int[] starts;
+    private int count;
+    private int limit;
+    private String encoding;
+    /** Fields present in the payload: bit {@code i - 1} for 2-64, bit {@code i - 65} for 65-128. */
+    private long present;
+    private long presentSecondary;
+    /** Fields whose value is still their bytes in the payload, in the same layout. */
+    private long raw;
+    private long rawSecondary;
+    /** The raw fields that have not been decoded yet. */
+    private long pending;
+    private long pendingSecondary;
+    /** The arrays this view owns; a reply borrows its request's instead. */
+    private byte[] buffer;
+    private int[] offsets;
+    /** Where the view goes back once its reply is written; null when it is not recycled. */
+    IsoMessagePool pool;
+
+    LazyIsoMessage() {
+    }
+
+    /**
+     * @return this view's own array for the starts of {@code count} fields
+     */
+    int[] offsets(int count) {
+        if (offsets == null || offsets.length < count) {
+            offsets = new int[count];
+        }
+        return offsets;
+    }
+
+    /**
+     * Points the view at a copy of {@code buf}, whose fields start at the {@link #offsets}.
+     */
+    void load(byte[] buf, int limit, int count, long present, long presentSecondary, String encoding) {
+        // The frame buffer goes back to its pool, so the view keeps a copy of the payload
+        if (buffer == null || buffer.length < limit) {
+            buffer = new byte[limit];
+        }
+        System.arraycopy(buf, 0, buffer, 0, limit);
+        this.data = buffer;
+        this.starts = offsets;
+        this.count = count;
+        this.limit = limit;
+        this.encoding = encoding;
+        this.present = present;
+        this.presentSecondary = presentSecondary;
+        this.raw = present;
+        this.rawSecondary = presentSecondary;
+        this.pending = present;
+        this.pendingSecondary = presentSecondary;
+    }
+
+    /**
+     * Forgets the payload and every field, header settings included, so the view can be loaded
+     * again; the arrays it owns are kept.
+     */
+    void clear() {
+        for (int i = 2; i <= 128; i++) {
+            super.setField(i, null);
+        }
+        data = null;
+        starts = null;
+        count = limit = 0;
+        present = presentSecondary = 0;
+        raw = rawSecondary = 0;
+        pending = pendingSecondary = 0;
+        setIsoHeader(null);
+        setBinaryIsoHeader(null);
+        setEtx(-1);
+        setBinaryHeader(false);
+        setBinaryFields(false);
+        setForceStringEncoding(false);
+        setEncodeVariableLengthFieldsInHex(false);
+    }
+
+    private static boolean in(long primary, long secondary, int index) {
+        if (index < 2 || index > 128) {
+            return false;
+        }
+        return index <= 64
+                ? (primary & (1L << (index - 1))) != 0
+                : (secondary & (1L << (index - 65))) != 0;
+    }
+
+    /**
+     * @return true while field {@code index} is present and has not been decoded
+     */
+    public boolean isPending(int index) {
+        return in(pending, pendingSecondary, index);
+    }
+
+    /**
+     * Starts a response over the same payload, as {@link MessageFactory#newMessage} would create
+     * it, except that each field {@code echoed} selects is taken over from this message as its raw
+     * bytes when it is unchanged, instead of getting the template's value.
+     *
+     * The response reads the echoed fields from this message's payload, so a recycled request
+     * must not be released before its reply is written.
+     *
+     * @return the response, whose echoed raw fields are {@link #isPending pending}; or null when the
+     * factory sets headers, dates or trace numbers and {@code newMessage} has to build it
+     */
+    public LazyIsoMessage reply(MessageFactory<IsoMessage> messageFactory, int type, IntPredicate echoed) {
+        IsoMessage template = messageFactory.getMessageTemplate(type);
+        if (template == null || messageFactory.getIsoHeader(type) != null
+                || messageFactory.getBinaryIsoHeader(type) != null || messageFactory.getAssignDate()
+                || messageFactory.getTraceNumberGenerator() != null) {
+            return null;
+        }
+        LazyIsoMessage reply = pool != null ? pool.take() : null;
+        if (reply == null) {
+            reply = new LazyIsoMessage();
+        }
+        reply.pool = pool;
+        reply.data = data;
+        reply.starts = starts;
+        reply.count = count;
+        reply.limit = limit;
+        reply.encoding = encoding;
+        reply.present = present;
+        reply.presentSecondary = presentSecondary;
+        reply.setType(type);
+        reply.setEtx(messageFactory.getEtx());
+        reply.setBinaryHeader(messageFactory.isBinaryHeader());
+        reply.setBinaryFields(messageFactory.isBinaryFields());
+        reply.setForceSecondaryBitmap(messageFactory.isForceSecondaryBitmap());
+        reply.setBinaryBitmap(messageFactory.isUseBinaryBitmap());
+        reply.setCharacterEncoding(messageFactory.getCharacterEncoding());
+        reply.setForceStringEncoding(messageFactory.isForceStringEncoding());
+        reply.setEncodeVariableLengthFieldsInHex(messageFactory.isVariableLengthFieldsInHex());
+        for (int i = 2; i <= 128; i++) {
+            if (echoed.test(i) && in(raw, rawSecondary, i) && verbatim(i)) {
+                if (i <= 64) {
+                    reply.raw |= 1L << (i - 1);
+                    reply.pending |= 1L << (i - 1);
+                } else {
+                    reply.rawSecondary |= 1L << (i - 65);
+                    reply.pendingSecondary |= 1L << (i - 65);
+                }
+            } else if (template.hasField(i)) {
+                reply.setField(i, template.getField(i).clone());
+            }
+        }
+        return reply;
+    }
+
+    /**
+     * @return the encoded length of field {@code index} when it can be written as a copy of its
+     * payload bytes, or -1 when it has to be encoded from its value
+     */
+    int rawLength(int index) {
+        if (!in(raw, rawSecondary, index) || !verbatim(index)) {
+            return -1;
+        }
+        int rank = rank(index);
+        return (rank + 1 < count ? starts[rank + 1] : limit) - starts[rank];
+    }
+
+    /**
+     * @return where field {@code index}, which {@link #rawLength} accepted, starts in
+     * {@link #payload()}
+     */
+    int rawOffset(int index) {
+        return starts[rank(index)];
+    }
+
+    /**
+     * @return the payload the raw fields are read from; only valid until the view is released
+     */
+    byte[] payload() {
+        return data;
+    }
+
+    /**
+     * Copies field {@code index}, which {@link #rawLength} accepted, into {@code out}.
+     *
+     * @return the position after the field
+     */
+    int copyRaw(int index, byte[] out, int pos) {
+        int length = rawLength(index);
+        System.arraycopy(data, starts[rank(index)], out, pos, length);
+        return pos + length;
+    }
+
+    /**
+     * Whether j8583 would write the decoded value back as the same bytes. Dates are normalised
+     * through a {@link java.util.Calendar} and binary fields are written in upper-case hex, so
+     * those are only copied when that cannot change them.
+     */
+    private boolean verbatim(int index) {
+        CompiledIsoCodec.Field field = CompiledIsoCodec.field(index);
+        if (field.type() == IsoType.DATE10) {
+            return false;
+        }
+        if (field.type() == IsoType.BINARY) {
+            int start = starts[rank(index)];
+            for (int i = start; i < start + field.length() * 2; i++) {
+                if (data[i] >= 'a' && data[i] <= 'f') {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Fields are stored in order, so a field's slot is the number of present fields before it.
+     */
+    private int rank(int index) {
+        return index <= 64
+                ? Long.bitCount(present & ((1L << (index - 1)) - 1))
+                : Long.bitCount(present) + Long.bitCount(presentSecondary & ((1L << (index - 65)) - 1));
+    }
+
+    private void decode(int index) {
+        if (isPending(index)) {
+            boolean unchanged = in(raw, rawSecondary, index);
+            discard(index);
+            CompiledIsoCodec.field(index).put(this, data, starts[rank(index)], encoding);
+            // Decoding does not change the field: its bytes in the payload still stand for it
+            if (unchanged && index <= 64) {
+                raw |= 1L << (index - 1);
+            } else if (unchanged) {
+                rawSecondary |= 1L << (index - 65);
+            }
+        }
+    }
+
+    private void decodeAll() {
+        while (pending != 0) {
+            decode(Long.numberOfTrailingZeros(pending) + 1);
+        }
+        while (pendingSecondary != 0) {
+            decode(Long.numberOfTrailingZeros(pendingSecondary) + 65);
+        }
+    }
+
+    private void discard(int index) {
+        if (index < 2 || index > 128) {
+            return;
+        }
+        if (index <= 64) {
+            raw &= ~(1L << (index - 1));
+            pending &= ~(1L << (index - 1));
+        } else {
+            rawSecondary &= ~(1L << (index - 65));
+            pendingSecondary &= ~(1L << (index - 65));
+        }
+    }
+
+    @Override
+    public boolean hasField(int index) {
+        return isPending(index) || super.hasField(index);
+    }
+
+    @Override
+    public boolean hasEveryField(int... indexes) {
+        for (int index : indexes) {
+            if (!hasField(index)) return false;
+        }
+        return true;
+    }
+
+    @Override
+    public boolean hasAnyField(int... indexes) {
+        for (int index : indexes) {
+            if (hasField(index)) return true;
+        }
+        return false;
+    }
+
+    @Override
+    public <T> IsoValue<T> getField(int index) {
+        decode(index);
+        return super.getField(index);
+    }
+
+    @Override
+    public <T> Optional<IsoValue<T>> field(int index) {
+        decode(index);
+        return super.field(index);
+    }
+
+    @Override
+    public <T> IsoValue<T> getAt(int index) {
+        decode(index);
+        return super.getAt(index);
+    }
+
+    @Override
+    public <T> IsoValue<T> apply(int index) {
+        decode(index);
+        return super.apply(index);
+    }
+
+    @Override
+    public <T> T getObjectValue(int index) {
+        decode(index);
+        return super.getObjectValue(index);
+    }
+
+    @Override
+    public <T> Optional<T> objectValue(int index) {
+        decode(index);
+        return super.objectValue(index);
+    }
+
+    @Override
+    public IsoMessage setField(int index, IsoValue<?> field) {
+        discard(index);
+        return super.setField(index, field);
+    }
+
+    @Override
+    public IsoMessage setFields(Map<Integer, IsoValue<?>> values) {
+        values.keySet().forEach(this::discard);
+        return super.setFields(values);
+    }
+
+    @Override
+    public IsoMessage setValue(int index, Object value, IsoType t, int length) {
+        discard(index);
+        return super.setValue(index, value, t, length);
+    }
+
+    @Override
+    public <T> IsoMessage setValue(int index, T value, CustomFieldEncoder<T> encoder, IsoType t, int length) {
+        discard(index);
+        return super.setValue(index, value, encoder, t, length);
+    }
+
+    @Override
+    public <T> IsoMessage updateValue(int index, T value) {
+        decode(index);
+        return super.updateValue(index, value);
+    }
+
+    @Override
+    public <T> void putAt(int index, IsoValue<T> value) {
+        discard(index);
+        super.putAt(index, value);
+    }
+
+    @Override
+    public <T> void update(int index, IsoValue<T> value) {
+        discard(index);
+        super.update(index, value);
+    }
+
+    @Override
+    public void removeFields(int... indexes) {
+        for (int index : indexes) {
+            discard(index);
+        }
+        super.removeFields(indexes);
+    }
+
+    @Override
+    public void copyFieldsFrom(IsoMessage source, int... indexes) {
+        for (int index : indexes) {
+            decode(index);
+        }
+        super.copyFieldsFrom(source, indexes);
+    }
+
+    @Override
+    public byte[] writeData() {
+        decodeAll();
+        return super.writeData();
+    }
+
+    @Override
+    public ByteBuffer writeToBuffer(int lengthBytes) {
+        decodeAll();
+        return super.writeToBuffer(lengthBytes);
+    }
+
+    @Override
+    public void write(OutputStream outs, int lengthBytes) throws IOException {
+        decodeAll();
+        super.write(outs, lengthBytes);
+    }
+
+    @Override
+    public String debugString() {
+        decodeAll();
+        return super.debugString();
+    }
+}
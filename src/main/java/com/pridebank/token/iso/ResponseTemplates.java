@@ -0,0 +1,194 @@
+package com.pridebank.token.iso;
+
+import com.solab.iso8583.IsoMessage;
+import com.solab.iso8583.IsoType;
+import com.solab.iso8583.IsoValue;
+import com.solab.iso8583.MessageFactory;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Arrays;
+
+/**
+ * Error replies written straight from pre-encoded 0210 and 0231 templates.
+ * <p>
+ * An error reply is the message factory's template for the response type, the request's fields
+ * 2-64 echoed over it, and a response code and text. The template fields are encoded once here,
+ * so a reply is measured and written into one array: echoed fields are written from the request's
+ * values, or copied byte for byte when the request is a {@link LazyIsoMessage} and the field is
+ * unchanged; 39 and 44 are written in place and every other field is a copy of its template bytes.
+ * No {@link IsoMessage} or {@link IsoValue} is built. The format-error reply for an unparseable
+ * frame depends on nothing at all and is encoded once.
+ * <p>
+ * The bytes are exactly those of {@code AtmTransactionProcessor.createErrorResponse} written by
+ * j8583. Anything this class does not handle the same way (another response type, a value j8583
+ * would format differently) returns null, and the caller builds the message as before.
+ */
+@Slf4j
+public class ResponseTemplates {
+
+    private final Template[] templates;
+    private final byte[] formatError;
+    private final boolean forceSecondaryBitmap;
+
+    public ResponseTemplates(MessageFactory<IsoMessage> messageFactory) {
+        this.forceSecondaryBitmap = messageFactory.isForceSecondaryBitmap();
+        boolean compatible = CompiledIsoCodec.compatible(messageFactory);
+        this.templates = compatible
+                ? new Template[]{Template.of(messageFactory, 0x210), Template.of(messageFactory, 0x231)}
+                : new Template[0];
+        if (!compatible) {
+            log.warn("MessageFactory is not configured like IsoConfig; error replies are built field by field");
+        }
+        IsoMessage error = messageFactory.newMessage(0x210);
+        error.setValue(39, "30", IsoType.ALPHA, 2);
+        this.formatError = error.writeData();
+    }
+
+    /**
+     * @return the 0210 with response code 30 sent for a frame that is not a valid message
+     */
+    public byte[] formatError() {
+        return formatError.clone();
+    }
+
+    /**
+     * The encoded error reply to {@code request}, built like
+     * {@code AtmTransactionProcessor.createErrorResponse}: code 30 is a 0231 whose field 44 is
+     * always present; any other code answers with the request's type + 0x10 and carries field 44
+     * only when the message is not blank.
+     *
+     * @param request     the parsed request, or null for an 0210 / 0231 echoing nothing
+     * @param responseCode field 39; blank means 96
+     * @param message     field 44, truncated to 25 characters; may be null
+     * @return the reply, or null when it has to be built as an {@link IsoMessage}
+     */
+    public byte[] error(IsoMessage request, String responseCode, String message) {
+        String code = (responseCode == null || responseCode.isBlank()) ? "96" : responseCode;
+        String text = message == null ? "" : message.length() > 25 ? message.substring(0, 25) : message;
+        if (code.length() != 2 || !CompiledIsoCodec.isAscii(code) || !CompiledIsoCodec.isAscii(text)) {
+            return null;
+        }
+        boolean formatError = "30".equals(code);
+        int type = formatError ? 0x231 : request != null ? request.getType() + 0x10 : 0x210;
+        Template template = template(type);
+        if (template == null) {
+            return null;
+        }
+        // A format error always carries 44 and never 38; other replies carry a non-blank text only
+        String field44 = formatError || !text.isBlank() ? text : null;
+        return template.render(request, code, field44, formatError, forceSecondaryBitmap);
+    }
+
+    private Template template(int type) {
+        for (Template template : templates) {
+            if (template != null && template.type == type) {
+                return template;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * One response type: its header and each template field, encoded.
+     */
+    private static final class Template {
+
+        private final int type;
+        private final byte[] mti;
+        /** Encoded template value of each field, or null when the template does not have it. */
+        private final byte[][] fields;
+
+        private Template(int type, byte[] mti, byte[][] fields) {
+            this.type = type;
+            this.mti = mti;
+            this.fields = fields;
+        }
+
+        /**
+         * @return null when a template field is not one the compiled codec can write
+         */
+        static Template of(MessageFactory<IsoMessage> messageFactory, int type) {
+            IsoMessage message = messageFactory.newMessage(type);
+            byte[][] fields = new byte[129][];
+            for (int i = 2; i <= 128; i++) {
+                IsoValue<?> value = message.getField(i);
+                if (value == null) {
+                    continue;
+                }
+                int size = CompiledIsoCodec.measure(value);
+                if (size < 0) {
+                    return null;
+                }
+                fields[i] = new byte[size];
+                CompiledIsoCodec.write(value, fields[i], 0);
+            }
+            byte[] data = message.writeData();
+            return new Template(type, Arrays.copyOf(data, 4), fields);
+        }
+
+        /**
+         * Whether field {@code i} of the reply comes from the request, as
+         * {@code IsoMessageBuilder.createResponseFromRequest} copies it.
+         */
+        private static boolean echoed(int i) {
+            return i <= 64 && i != 38 && i != 39 && i != 44 && i != 54;
+        }
+
+        byte[] render(IsoMessage request, String code, String field44, boolean without38,
+                      boolean forceSecondaryBitmap) {
+            boolean secondary = forceSecondaryBitmap;
+            int size = 0;
+            LazyIsoMessage view = request instanceof LazyIsoMessage lazyMessage ? lazyMessage : null;
+            for (int i = 2; i <= 128; i++) {
+                int fieldSize;
+                int raw = view != null && echoed(i) ? view.rawLength(i) : -1;
+                IsoValue<?> value = raw < 0 && request != null && echoed(i) ? request.getField(i) : null;
+                if (raw >= 0) {
+                    fieldSize = raw;
+                } else if (value != null) {
+                    fieldSize = CompiledIsoCodec.measure(value);
+                    if (fieldSize < 0) {
+                        return null;
+                    }
+                } else if (i == 39) {
+                    fieldSize = 2;
+                } else if (i == 44 && field44 != null) {
+                    fieldSize = 2 + field44.length();
+                } else if (fields[i] != null && !(i == 38 && without38)) {
+                    fieldSize = fields[i].length;
+                } else {
+                    continue;
+                }
+                size += fieldSize;
+                secondary |= i > 64;
+            }
+            int pos = secondary ? 20 : 12;
+            byte[] out = new byte[pos + size];
+            System.arraycopy(mti, 0, out, 0, 4);
+            if (secondary) {
+                out[4] = (byte) 0x80;
+            }
+            for (int i = 2; i <= (secondary ? 128 : 64); i++) {
+                int raw = view != null && echoed(i) ? view.rawLength(i) : -1;
+                IsoValue<?> value = raw < 0 && request != null && echoed(i) ? request.getField(i) : null;
+                if (raw >= 0) {
+                    pos = view.copyRaw(i, out, pos);
+                } else if (value != null) {
+                    pos = CompiledIsoCodec.write(value, out, pos);
+                } else if (i == 39) {
+                    pos = CompiledIsoCodec.ascii(code, 2, out, pos);
+                } else if (i == 44 && field44 != null) {
+                    CompiledIsoCodec.writeDigits(field44.length(), out, pos, 2);
+                    pos = CompiledIsoCodec.ascii(field44, field44.length(), out, pos + 2);
+                } else if (fields[i] != null && !(i == 38 && without38)) {
+                    System.arraycopy(fields[i], 0, out, pos, fields[i].length);
+                    pos += fields[i].length;
+                } else {
+                    continue;
+                }
+                out[4 + ((i - 1) >> 3)] |= (byte) (0x80 >>> ((i - 1) & 7));
+            }
+            return out;
+        }
+    }
+}
@@ -16,6 +16,7 @@ import java.util.Base64;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Set;
 
 @Slf4j
 @Component
@@ -27,6 +28,10 @@ public class JwtTokenProvider {
     @Value("${jwt.expiration}")
     private long jwtExpirationMs;
 
+    // Token subjects allowed to act on the ISO listeners (drain or close connections)
+    @Value("${jwt.operators:}")
+    private Set<String> operators;
+
     // Uganda/East Africa Time Zone (EAT - UTC+3)
     private static final ZoneId UGANDA_TIMEZONE = ZoneId.of("Africa/Kampala");
 
@@ -162,6 +167,13 @@ public class JwtTokenProvider {
         }
     }
 
+    /**
+     * Whether the token subject may use the operator actuator endpoints
+     */
+    public boolean isOperator(String username) {
+        return username != null && operators.contains(username);
+    }
+
     /**
      * Validate JWT token
      */
@@ -0,0 +1,196 @@
+package com.pridebank.token.server;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Listening sockets of the ATM port and their accept threads, shared by both engines.
+ * <p>
+ * With more than one acceptor each binds its own SO_REUSEPORT socket on the port, letting the
+ * kernel spread connection storms across them. Every accept first takes a permit from the
+ * {@link ConnectionGate}; a connection over the gate's caps is reset on the acceptor thread
+ * (SO_LINGER 0, no FIN handshake, no buffers kept) before an engine sees it. Admitted sockets
+ * are handed to the engine together with a callback it must run once when the socket closes.
+ */
+@Slf4j
+public class AcceptorGroup {
+
+    /**
+     * Takes ownership of an admitted connection.
+     */
+    public interface Handler {
+        /**
+         * @param onClosed to be run when the connection closes; safe to run more than once
+         */
+        void accept(SocketChannel channel, Runnable onClosed) throws Exception;
+    }
+
+    private final int port;
+    private final int acceptors;
+    private final int backlog;
+    private final boolean tcpNoDelay;
+    private final ConnectionGate gate;
+    private final Counter[] accepted;
+    private final List<ServerSocketChannel> channels = new ArrayList<>();
+    private volatile boolean running;
+
+    /**
+     * @param acceptors listening sockets wanted; fewer are bound without SO_REUSEPORT support
+     * @param backlog   listen backlog per socket; connections wait there while accepts are paced,
+     *                  zero or less keeps the platform default
+     */
+    public AcceptorGroup(int port, int acceptors, int backlog, boolean tcpNoDelay, ConnectionGate gate,
+                         MeterRegistry registry) throws IOException {
+        this.port = port;
+        this.acceptors = resolveAcceptors(acceptors);
+        this.backlog = Math.max(0, backlog);
+        this.tcpNoDelay = tcpNoDelay;
+        this.gate = gate;
+        this.accepted = new Counter[this.acceptors];
+        for (int i = 0; i < this.acceptors; i++) {
+            accepted[i] = Counter.builder("atm.server.connections.accepted")
+                    .description("Connections accepted per listening socket")
+                    .tag("acceptor", String.valueOf(i))
+                    .register(registry);
+        }
+    }
+
+    /**
+     * Several acceptors need SO_REUSEPORT; without it only one socket can be bound.
+     */
+    private static int resolveAcceptors(int requested) throws IOException {
+        if (requested <= 1) {
+            return 1;
+        }
+        try (ServerSocketChannel probe = ServerSocketChannel.open()) {
+            if (!probe.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT)) {
+                log.warn("SO_REUSEPORT is not supported on this platform; using a single acceptor");
+                return 1;
+            }
+        }
+        return requested;
+    }
+
+    public int getAcceptors() {
+        return acceptors;
+    }
+
+    public void start(Handler handler) throws IOException {
+        for (int i = 0; i < acceptors; i++) {
+            ServerSocketChannel channel = ServerSocketChannel.open();
+            channel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+            if (acceptors > 1) {
+                channel.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+            }
+            channel.bind(new InetSocketAddress(port), backlog);
+            channels.add(channel);
+        }
+        running = true;
+        for (int i = 0; i < acceptors; i++) {
+            int acceptor = i;
+            Thread t = new Thread(() -> acceptLoop(acceptor, handler), "iso-accept-" + i);
+            t.setDaemon(true);
+            t.start();
+        }
+    }
+
+    /**
+     * Stops accepting. Connections already handed to an engine are not touched.
+     */
+    public void close() {
+        running = false;
+        for (ServerSocketChannel channel : channels) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                log.debug("Error closing server channel", e);
+            }
+        }
+    }
+
+    private void acceptLoop(int acceptor, Handler handler) {
+        ServerSocketChannel serverChannel = channels.get(acceptor);
+        while (running && serverChannel.isOpen()) {
+            SocketChannel channel;
+            try {
+                gate.awaitPermit();
+                channel = serverChannel.accept();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (IOException e) {
+                if (running && serverChannel.isOpen()) {
+                    log.error("Accept error", e);
+                }
+                continue;
+            }
+            accepted[acceptor].increment();
+            admit(channel, handler);
+        }
+    }
+
+    private void admit(SocketChannel channel, Handler handler) {
+        InetAddress address = null;
+        try {
+            if (channel.getRemoteAddress() instanceof InetSocketAddress remote) {
+                address = remote.getAddress();
+            }
+        } catch (IOException e) {
+            log.debug("Connection closed before it was admitted", e);
+            closeQuietly(channel);
+            return;
+        }
+        if (!gate.tryOpen(address)) {
+            log.debug("Refusing connection from {}: connection limit reached", address);
+            refuse(channel);
+            return;
+        }
+        InetAddress admitted = address;
+        AtomicBoolean closed = new AtomicBoolean();
+        Runnable onClosed = () -> {
+            if (closed.compareAndSet(false, true)) {
+                gate.closed(admitted);
+            }
+        };
+        try {
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, tcpNoDelay);
+            handler.accept(channel, onClosed);
+        } catch (Exception e) {
+            log.error("Unable to hand over connection from {}", admitted, e);
+            onClosed.run();
+            closeQuietly(channel);
+        }
+    }
+
+    /**
+     * Resets the connection instead of closing it gracefully, so a refused ATM learns at once
+     * and the socket leaves no TIME_WAIT behind.
+     */
+    private static void refuse(SocketChannel channel) {
+        try {
+            channel.setOption(StandardSocketOptions.SO_LINGER, 0);
+        } catch (IOException e) {
+            log.debug("Unable to set SO_LINGER on refused connection", e);
+        }
+        closeQuietly(channel);
+    }
+
+    private static void closeQuietly(SocketChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            log.debug("Error closing channel", e);
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package com.pridebank.token.server;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Resizes the transaction worker pool from what its {@link TimedExecutor} observes.
+ * <p>
+ * Every interval the sizer takes the arrival rate and the mean service time (mostly the ESB
+ * round trip) and applies Little's law: {@code rate × service time} workers are busy on
+ * average, so the pool wants that many divided by the target utilisation. A mean queue wait
+ * above the threshold means the pool is already short and grows it even when the estimate
+ * does not.
+ * <p>
+ * Growing is immediate once the estimate clears the current size by {@value #GROW_BAND_PERCENT}%.
+ * Shrinking needs the estimate {@value #SHRINK_BAND_PERCENT}% below the current size for
+ * {@value #SHRINK_AFTER_INTERVALS} intervals in a row and then goes half way, so a lull between
+ * bursts does not make the pool oscillate.
+ */
+@Slf4j
+public class AdaptivePoolSizer implements TimedExecutor.Listener, AutoCloseable {
+
+    static final int GROW_BAND_PERCENT = 10;
+    static final int SHRINK_BAND_PERCENT = 25;
+    static final int SHRINK_AFTER_INTERVALS = 3;
+
+    private final ThreadPoolExecutor pool;
+    private final int minThreads;
+    private final int maxThreads;
+    private final Duration interval;
+    private final double targetUtilization;
+    private final long queueWaitThresholdNanos;
+
+    private final LongAdder arrivals = new LongAdder();
+    private final LongAdder completions = new LongAdder();
+    private final LongAdder serviceNanos = new LongAdder();
+    private final LongAdder queueWaitNanos = new LongAdder();
+
+    private final Counter grown;
+    private final Counter shrunk;
+
+    private ScheduledExecutorService scheduler;
+    private long lastSample = System.nanoTime();
+    private int intervalsBelow;
+    private volatile int target;
+    private volatile double arrivalRate;
+    private volatile double serviceSeconds;
+    private volatile double queueWaitSeconds;
+
+    public AdaptivePoolSizer(ThreadPoolExecutor pool, int minThreads, int maxThreads, Duration interval,
+                             double targetUtilization, Duration queueWaitThreshold, MeterRegistry registry) {
+        if (minThreads < 1 || maxThreads < minThreads) {
+            throw new IllegalArgumentException(
+                    "Invalid adaptive worker bounds: min " + minThreads + ", max " + maxThreads);
+        }
+        this.pool = pool;
+        this.minThreads = minThreads;
+        this.maxThreads = maxThreads;
+        this.interval = interval;
+        this.targetUtilization = targetUtilization > 0 && targetUtilization <= 1 ? targetUtilization : 0.75;
+        this.queueWaitThresholdNanos = queueWaitThreshold.toNanos();
+        this.target = pool.getMaximumPoolSize();
+
+        Gauge.builder("atm.server.workers.size", pool, ThreadPoolExecutor::getMaximumPoolSize)
+                .description("Current transaction worker pool size")
+                .register(registry);
+        Gauge.builder("atm.server.workers.target", this, s -> s.target)
+                .description("Worker pool size wanted by the last evaluation")
+                .register(registry);
+        Gauge.builder("atm.server.workers.arrival.rate", this, s -> s.arrivalRate)
+                .description("Tasks handed to the worker pool per second")
+                .register(registry);
+        Gauge.builder("atm.server.workers.service.time", this, s -> s.serviceSeconds)
+                .description("Mean worker task service time in seconds")
+                .register(registry);
+        Gauge.builder("atm.server.workers.queue.wait", this, s -> s.queueWaitSeconds)
+                .description("Mean worker pool queue wait in seconds")
+                .register(registry);
+        this.grown = Counter.builder("atm.server.workers.resize")
+                .tag("direction", "grow")
+                .register(registry);
+        this.shrunk = Counter.builder("atm.server.workers.resize")
+                .tag("direction", "shrink")
+                .register(registry);
+    }
+
+    public void start() {
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "iso-pool-sizer");
+            t.setDaemon(true);
+            return t;
+        });
+        long ms = interval.toMillis();
+        scheduler.scheduleAtFixedRate(this::evaluate, ms, ms, TimeUnit.MILLISECONDS);
+        log.info("Adaptive worker pool between {} and {} threads, evaluated every {} ms",
+                minThreads, maxThreads, ms);
+    }
+
+    @Override
+    public void close() {
+        if (scheduler != null) scheduler.shutdownNow();
+    }
+
+    @Override
+    public void arrived() {
+        arrivals.increment();
+    }
+
+    @Override
+    public void completed(long queueWaitNanos, long serviceNanos) {
+        completions.increment();
+        this.queueWaitNanos.add(queueWaitNanos);
+        this.serviceNanos.add(serviceNanos);
+    }
+
+    private void evaluate() {
+        try {
+            long now = System.nanoTime();
+            double elapsed = (now - lastSample) / 1e9;
+            lastSample = now;
+            evaluate(elapsed);
+        } catch (Exception e) {
+            log.error("Worker pool evaluation failed", e);
+        }
+    }
+
+    /**
+     * One sizing decision over the samples gathered during the last {@code elapsedSeconds}.
+     *
+     * @return the pool size after the decision
+     */
+    int evaluate(double elapsedSeconds) {
+        long arrived = arrivals.sumThenReset();
+        long done = completions.sumThenReset();
+        long service = serviceNanos.sumThenReset();
+        long waited = queueWaitNanos.sumThenReset();
+
+        arrivalRate = arrived / elapsedSeconds;
+        if (done > 0) {
+            // Without completions the last service time stays the best estimate
+            serviceSeconds = service / 1e9 / done;
+        }
+        long meanWait = done > 0 ? waited / done : 0;
+        queueWaitSeconds = meanWait / 1e9;
+
+        int size = pool.getMaximumPoolSize();
+        int wanted = (int) Math.ceil(arrivalRate * serviceSeconds / targetUtilization);
+        boolean queueBuilding = meanWait > queueWaitThresholdNanos;
+        if (queueBuilding && wanted <= size) {
+            wanted = size + Math.max(1, size / 4);
+        }
+        wanted = Math.max(minThreads, Math.min(maxThreads, wanted));
+        target = wanted;
+
+        if (wanted > size && (queueBuilding || wanted * 100L > size * (100L + GROW_BAND_PERCENT))) {
+            intervalsBelow = 0;
+            resize(size, wanted);
+        } else if (wanted * 100L <= size * (100L - SHRINK_BAND_PERCENT)) {
+            if (++intervalsBelow >= SHRINK_AFTER_INTERVALS) {
+                intervalsBelow = 0;
+                resize(size, size - Math.max(1, (size - wanted) / 2));
+            }
+        } else {
+            intervalsBelow = 0;
+        }
+        return pool.getMaximumPoolSize();
+    }
+
+    private void resize(int from, int to) {
+        if (to > from) {
+            pool.setMaximumPoolSize(to);
+            pool.setCorePoolSize(to);
+            grown.increment();
+        } else {
+            pool.setCorePoolSize(to);
+            pool.setMaximumPoolSize(to);
+            shrunk.increment();
+        }
+        log.info("Resized ISO worker pool {} -> {} (arrivals {}/s, service {} ms, queue wait {} ms)",
+                from, to, String.format("%.1f", arrivalRate), Math.round(serviceSeconds * 1000),
+                Math.round(queueWaitSeconds * 1000));
+    }
+}
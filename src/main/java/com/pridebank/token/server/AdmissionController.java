@@ -0,0 +1,142 @@
+package com.pridebank.token.server;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Duration;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bounded admission stage in front of the transaction workers.
+ * <p>
+ * At most {@code queueDepth} frames may wait for a worker. A frame that finds the queue full is
+ * rejected on the submitting thread; a frame still waiting when its {@code maxQueueWait} budget
+ * runs out is rejected by a timer at that moment, even if every worker is stuck on the ESB.
+ * Whichever of worker and timer claims the frame first wins, so a rejected frame is never
+ * processed afterwards.
+ */
+@Slf4j
+public class AdmissionController {
+
+    private final Executor workers;
+    private final int queueDepth;
+    private final long maxQueueWaitNanos;
+    private final ScheduledThreadPoolExecutor timer;
+    private final AtomicInteger queued = new AtomicInteger();
+
+    private final Counter rejectedQueueFull;
+    private final Counter rejectedQueueTimeout;
+    private final Timer queueWait;
+
+    public AdmissionController(Executor workers, int queueDepth, Duration maxQueueWait,
+                               MeterRegistry registry) {
+        this.workers = workers;
+        this.queueDepth = queueDepth;
+        this.maxQueueWaitNanos = maxQueueWait.toNanos();
+        this.timer = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread t = new Thread(r, "iso-admission-timer");
+            t.setDaemon(true);
+            return t;
+        });
+        this.timer.setRemoveOnCancelPolicy(true);
+
+        Gauge.builder("atm.admission.queue.depth", queued, AtomicInteger::get)
+                .description("Frames waiting for a transaction worker")
+                .register(registry);
+        this.rejectedQueueFull = Counter.builder("atm.admission.rejected")
+                .tag("reason", "queue_full")
+                .register(registry);
+        this.rejectedQueueTimeout = Counter.builder("atm.admission.rejected")
+                .tag("reason", "queue_timeout")
+                .register(registry);
+        this.queueWait = Timer.builder("atm.admission.queue.wait")
+                .description("Time frames spent waiting for a transaction worker")
+                .register(registry);
+    }
+
+    /**
+     * Runs {@code task} on a worker, or {@code onReject} instead when the frame cannot start
+     * within its budget.
+     */
+    public void execute(Runnable task, Runnable onReject) {
+        if (queued.incrementAndGet() > queueDepth) {
+            queued.decrementAndGet();
+            rejectedQueueFull.increment();
+            onReject.run();
+            return;
+        }
+
+        Admission admission = new Admission(task, onReject);
+        admission.timeout = timer.schedule(admission::expire, maxQueueWaitNanos, TimeUnit.NANOSECONDS);
+        try {
+            workers.execute(admission::start);
+        } catch (RejectedExecutionException e) {
+            if (admission.claim()) {
+                admission.timeout.cancel(false);
+                queued.decrementAndGet();
+                rejectedQueueFull.increment();
+                onReject.run();
+            }
+        }
+    }
+
+    public int getQueued() {
+        return queued.get();
+    }
+
+    public void shutdown() {
+        timer.shutdownNow();
+    }
+
+    private final class Admission {
+
+        private final long enqueuedAt = System.nanoTime();
+        private final AtomicBoolean claimed = new AtomicBoolean();
+        private final Runnable task;
+        private final Runnable onReject;
+        private volatile ScheduledFuture<?> timeout;
+
+        private Admission(Runnable task, Runnable onReject) {
+            this.task = task;
+            this.onReject = onReject;
+        }
+
+        boolean claim() {
+            return claimed.compareAndSet(false, true);
+        }
+
+        void start() {
+            if (!claim()) {
+                return; // already answered by the timer
+            }
+            ScheduledFuture<?> t = timeout;
+            if (t != null) t.cancel(false);
+            queued.decrementAndGet();
+            queueWait.record(System.nanoTime() - enqueuedAt, TimeUnit.NANOSECONDS);
+            task.run();
+        }
+
+        void expire() {
+            if (!claim()) {
+                return;
+            }
+            queued.decrementAndGet();
+            queueWait.record(System.nanoTime() - enqueuedAt, TimeUnit.NANOSECONDS);
+            rejectedQueueTimeout.increment();
+            try {
+                onReject.run();
+            } catch (Exception e) {
+                log.error("Admission rejection failed", e);
+            }
+        }
+    }
+}
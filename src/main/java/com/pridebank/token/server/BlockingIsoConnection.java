@@ -0,0 +1,103 @@
+package com.pridebank.token.server;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Connection served by the thread-per-connection engine. Workers completing pipelined
+ * requests share the socket's output stream. A reply is queued and written by whichever worker
+ * holds the write lock; replies that complete while a write is in progress are picked up by
+ * that worker and go out together in its next write. Each write runs under the write deadline,
+ * which closes the socket if the peer stops draining it.
+ * <p>
+ * A blocking write cannot tell whether the peer is reading until it returns, and nearly every
+ * write returns at once into the socket buffer. So a write only counts as blocked on the peer
+ * once it has been running for {@link #STALLED_WRITE_MS}.
+ */
+@Slf4j
+class BlockingIsoConnection extends IsoConnection {
+
+    static final long STALLED_WRITE_MS = 50;
+
+    private final Socket socket;
+    private final OutputStream out;
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private final Queue<ByteBuffer> outbox = new ConcurrentLinkedQueue<>();
+    private final ConnectionTimeouts.Deadlines deadlines;
+    private volatile long writeStartedAt;
+
+    BlockingIsoConnection(Socket socket, ConnectionTimeouts timeouts) throws IOException {
+        super(String.valueOf(socket.getRemoteSocketAddress()));
+        this.socket = socket;
+        this.out = socket.getOutputStream();
+        this.deadlines = timeouts.open(this);
+    }
+
+    ConnectionTimeouts.Deadlines deadlines() {
+        return deadlines;
+    }
+
+    boolean isClosed() {
+        return socket.isClosed();
+    }
+
+    @Override
+    public void send(byte[] body) throws IOException {
+        outbox.add(FrameEncoder.encode(body));
+        // If another worker holds the lock it will find this reply after its current write
+        while (!outbox.isEmpty() && writeLock.tryLock()) {
+            try {
+                deadlines.writeStarted();
+                writeStartedAt = System.currentTimeMillis();
+                ByteBuffer batch;
+                while ((batch = FrameEncoder.drain(outbox)) != null) {
+                    out.write(batch.array(), batch.arrayOffset() + batch.position(), batch.remaining());
+                }
+                out.flush();
+            } finally {
+                deadlines.writeCompleted();
+                writeStartedAt = 0;
+                writeLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * @return when the current write started, once it has run for {@link #STALLED_WRITE_MS}; else 0
+     */
+    @Override
+    public long getWriteBlockedSince() {
+        long started = writeStartedAt;
+        return started != 0 && System.currentTimeMillis() - started >= STALLED_WRITE_MS ? started : 0;
+    }
+
+    /**
+     * Half-closes the input: the reader sees end-of-stream, waits for its in-flight requests
+     * and then closes the socket.
+     */
+    @Override
+    public void drain() {
+        try {
+            socket.shutdownInput();
+        } catch (IOException e) {
+            log.debug("Error draining socket {}", getRemote(), e);
+        }
+    }
+
+    @Override
+    public void close() {
+        deadlines.cancel();
+        try {
+            socket.close();
+        } catch (IOException e) {
+            log.debug("Error closing socket {}", getRemote(), e);
+        }
+    }
+}
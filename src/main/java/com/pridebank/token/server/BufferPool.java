@@ -0,0 +1,60 @@
+package com.pridebank.token.server;
+
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * Size-classed pool of frame buffers.
+ * <p>
+ * Buffers come in power-of-two classes from 256 bytes up to the largest frame the listener
+ * accepts. Each class retains a bounded number of released buffers; beyond that they are left
+ * to the GC, so a burst cannot pin memory forever.
+ */
+public class BufferPool {
+
+    private static final int MIN_CLASS_SHIFT = 8; // 256 bytes
+
+    private final ArrayBlockingQueue<byte[]>[] classes;
+
+    @SuppressWarnings("unchecked")
+    public BufferPool(int maxBufferSize, int buffersPerClass) {
+        int classCount = classIndex(maxBufferSize) + 1;
+        this.classes = new ArrayBlockingQueue[classCount];
+        for (int i = 0; i < classCount; i++) {
+            classes[i] = new ArrayBlockingQueue<>(Math.max(1, buffersPerClass));
+        }
+    }
+
+    /**
+     * @return a buffer of at least {@code size} bytes; its contents are undefined
+     */
+    public byte[] acquire(int size) {
+        int idx = classIndex(size);
+        if (idx >= classes.length) {
+            return new byte[size];
+        }
+        byte[] buffer = classes[idx].poll();
+        return buffer != null ? buffer : new byte[classSize(idx)];
+    }
+
+    public void release(byte[] buffer) {
+        int idx = classIndex(buffer.length);
+        if (idx < classes.length && classSize(idx) == buffer.length) {
+            classes[idx].offer(buffer);
+        }
+    }
+
+    int pooled(int size) {
+        return classes[classIndex(size)].size();
+    }
+
+    private static int classIndex(int size) {
+        if (size <= (1 << MIN_CLASS_SHIFT)) {
+            return 0;
+        }
+        return 32 - Integer.numberOfLeadingZeros(size - 1) - MIN_CLASS_SHIFT;
+    }
+
+    private static int classSize(int idx) {
+        return 1 << (idx + MIN_CLASS_SHIFT);
+    }
+}
@@ -0,0 +1,132 @@
+package com.pridebank.token.server;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import java.net.InetAddress;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Connection admission for a listener, applied on the acceptor threads before a connection
+ * gets any thread or buffer of its own.
+ * <p>
+ * When the bank network flaps the whole fleet reconnects at once. A token bucket paces
+ * {@code accept()} itself: while it is empty the acceptor waits and new connections queue in
+ * the kernel's listen backlog (counted as deferred) instead of all landing on the workers
+ * together. Accepted connections beyond the global cap or the per-source-IP cap are reset
+ * straight away (counted as refused).
+ * <p>
+ * Any limit of zero or less is disabled.
+ */
+public class ConnectionGate {
+
+    private final int maxConnections;
+    private final int maxPerAddress;
+    private final double permitsPerNano;
+    private final double burst;
+    private final ReentrantLock bucketLock = new ReentrantLock();
+    private double tokens;
+    private long refilledAt = System.nanoTime();
+
+    private final AtomicInteger open = new AtomicInteger();
+    private final Map<InetAddress, AtomicInteger> perAddress = new ConcurrentHashMap<>();
+
+    private final Counter deferred;
+    private final Counter refusedGlobal;
+    private final Counter refusedAddress;
+
+    public ConnectionGate(int maxConnections, int maxPerAddress, double acceptsPerSecond, int burst,
+                          MeterRegistry registry) {
+        this.maxConnections = maxConnections;
+        this.maxPerAddress = maxPerAddress;
+        this.permitsPerNano = acceptsPerSecond / TimeUnit.SECONDS.toNanos(1);
+        this.burst = Math.max(1, burst);
+        this.tokens = this.burst;
+
+        Gauge.builder("atm.server.connections.open", open, AtomicInteger::get)
+                .description("Connections admitted and still open")
+                .register(registry);
+        this.deferred = Counter.builder("atm.server.connections.deferred")
+                .description("Accepts held back by the accept rate limit")
+                .register(registry);
+        this.refusedGlobal = Counter.builder("atm.server.connections.refused")
+                .tag("reason", "global_limit")
+                .register(registry);
+        this.refusedAddress = Counter.builder("atm.server.connections.refused")
+                .tag("reason", "address_limit")
+                .register(registry);
+    }
+
+    /**
+     * Takes an accept permit, waiting on the calling acceptor thread while the bucket is empty.
+     */
+    public void awaitPermit() throws InterruptedException {
+        if (permitsPerNano <= 0) {
+            return;
+        }
+        long waitNanos;
+        bucketLock.lock();
+        try {
+            long now = System.nanoTime();
+            tokens = Math.min(burst, tokens + (now - refilledAt) * permitsPerNano);
+            refilledAt = now;
+            // Reserve the permit now, so concurrent acceptors queue up behind each other
+            tokens -= 1;
+            waitNanos = tokens >= 0 ? 0 : (long) (-tokens / permitsPerNano);
+        } finally {
+            bucketLock.unlock();
+        }
+        if (waitNanos > 0) {
+            deferred.increment();
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+    }
+
+    /**
+     * @return false when the connection is over a cap and must be refused; otherwise it counts
+     * as open until {@link #closed(InetAddress)}
+     */
+    public boolean tryOpen(InetAddress address) {
+        int total = open.incrementAndGet();
+        if (maxConnections > 0 && total > maxConnections) {
+            open.decrementAndGet();
+            refusedGlobal.increment();
+            return false;
+        }
+        if (maxPerAddress > 0 && address != null) {
+            AtomicInteger count = new AtomicInteger();
+            perAddress.compute(address, (a, current) -> {
+                AtomicInteger c = current != null ? current : new AtomicInteger();
+                count.set(c.incrementAndGet());
+                return c;
+            });
+            if (count.get() > maxPerAddress) {
+                release(address);
+                open.decrementAndGet();
+                refusedAddress.increment();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public void closed(InetAddress address) {
+        open.decrementAndGet();
+        if (maxPerAddress > 0 && address != null) {
+            release(address);
+        }
+    }
+
+    public int getOpen() {
+        return open.get();
+    }
+
+    private void release(InetAddress address) {
+        perAddress.computeIfPresent(address, (a, count) -> count.decrementAndGet() <= 0 ? null : count);
+    }
+}
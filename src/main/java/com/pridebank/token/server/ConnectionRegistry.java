@@ -0,0 +1,154 @@
+package com.pridebank.token.server;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Live connections of every ISO listener, for the {@code isoconnections} actuator endpoint and
+ * the per-listener connection gauges.
+ * <p>
+ * Registering costs one map insert per connection; the statistics themselves live on the
+ * {@link IsoConnection} and are only summed when the endpoint or a gauge is read.
+ */
+@Component
+public class ConnectionRegistry {
+
+    private final long idleAfterMs;
+    private final long slowWriteMs;
+    private final Map<Long, Entry> connections = new ConcurrentHashMap<>();
+
+    /**
+     * @param idleAfterMs a connection with nothing in flight and no traffic for this long counts
+     *                    as idle
+     * @param slowWriteMs a connection whose reply has waited this long for the peer to read
+     *                    counts as a slow reader
+     */
+    public ConnectionRegistry(@Value("${atm.server.registry.idle-after-ms:60000}") long idleAfterMs,
+                              @Value("${atm.server.registry.slow-write-ms:1000}") long slowWriteMs) {
+        this.idleAfterMs = idleAfterMs;
+        this.slowWriteMs = slowWriteMs;
+    }
+
+    /**
+     * Connections of one listener, with its gauges registered on {@code registry}.
+     */
+    public Scope scope(String listener, MeterRegistry registry) {
+        Scope scope = new Scope(listener);
+        Gauge.builder("atm.connections.in.flight", scope, s -> s.count(Stat.IN_FLIGHT))
+                .description("Requests read and not yet answered, over all connections")
+                .register(registry);
+        Gauge.builder("atm.connections.idle", scope, s -> s.count(Stat.IDLE))
+                .description("Connections with no traffic and nothing in flight for a while")
+                .register(registry);
+        Gauge.builder("atm.connections.slow.readers", scope, s -> s.count(Stat.SLOW_READER))
+                .description("Connections whose peer has not read a reply for a while")
+                .register(registry);
+        return scope;
+    }
+
+    public List<ConnectionInfo> list(String listener) {
+        long now = System.currentTimeMillis();
+        return connections.values().stream()
+                .filter(e -> listener == null || e.listener.equals(listener))
+                .map(e -> info(e, now))
+                .sorted(Comparator.comparingLong(ConnectionInfo::id))
+                .toList();
+    }
+
+    public ConnectionInfo get(long id) {
+        Entry entry = connections.get(id);
+        return entry != null ? info(entry, System.currentTimeMillis()) : null;
+    }
+
+    /**
+     * @return false when no such connection is open
+     */
+    public boolean drain(long id) {
+        Entry entry = connections.get(id);
+        if (entry == null) {
+            return false;
+        }
+        entry.connection.drain();
+        return true;
+    }
+
+    /**
+     * @return false when no such connection is open
+     */
+    public boolean close(long id) {
+        Entry entry = connections.get(id);
+        if (entry == null) {
+            return false;
+        }
+        entry.connection.close();
+        return true;
+    }
+
+    private static ConnectionInfo info(Entry entry, long now) {
+        IsoConnection c = entry.connection;
+        long writeBlockedSince = c.getWriteBlockedSince();
+        return new ConnectionInfo(c.getId(), entry.listener, c.getRemote(), c.getTerminalId(),
+                Instant.ofEpochMilli(c.getOpenedAt()), Instant.ofEpochMilli(c.getLastActivity()),
+                now - c.getLastActivity(), c.getFramesIn(), c.getFramesOut(), c.getBytesIn(), c.getBytesOut(),
+                c.getInFlight(), writeBlockedSince == 0 ? 0 : now - writeBlockedSince);
+    }
+
+    private enum Stat { IN_FLIGHT, IDLE, SLOW_READER }
+
+    /**
+     * The registry as seen by one listener.
+     */
+    public final class Scope {
+
+        private final String listener;
+        private final Set<IsoConnection> open = ConcurrentHashMap.newKeySet();
+
+        private Scope(String listener) {
+            this.listener = listener;
+        }
+
+        public void add(IsoConnection connection) {
+            open.add(connection);
+            connections.put(connection.getId(), new Entry(listener, connection));
+        }
+
+        public void remove(IsoConnection connection) {
+            open.remove(connection);
+            connections.remove(connection.getId());
+        }
+
+        private double count(Stat stat) {
+            long now = System.currentTimeMillis();
+            long total = 0;
+            for (IsoConnection c : open) {
+                total += switch (stat) {
+                    case IN_FLIGHT -> c.getInFlight();
+                    case IDLE -> c.getInFlight() == 0 && now - c.getLastActivity() >= idleAfterMs ? 1 : 0;
+                    case SLOW_READER -> c.getWriteBlockedSince() != 0
+                            && now - c.getWriteBlockedSince() >= slowWriteMs ? 1 : 0;
+                };
+            }
+            return total;
+        }
+    }
+
+    private record Entry(String listener, IsoConnection connection) {
+    }
+
+    /**
+     * Snapshot of one connection.
+     */
+    public record ConnectionInfo(long id, String listener, String remote, String terminalId, Instant openedAt,
+                                 Instant lastActivity, long idleMs, long framesIn, long framesOut, long bytesIn,
+                                 long bytesOut, int inFlight, long writeBlockedMs) {
+    }
+}
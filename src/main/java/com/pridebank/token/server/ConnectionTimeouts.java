@@ -0,0 +1,172 @@
+package com.pridebank.token.server;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * The three deadlines of an ATM connection, tracked on a shared {@link HashedWheelTimer}:
+ * <ul>
+ *   <li><b>idle</b> – no frame started and no request outstanding. Healthy ATM links sit idle
+ *   between customers, so this one is long.</li>
+ *   <li><b>frame</b> – from the first header byte of a frame until its last byte. A peer
+ *   trickling a partial frame (slowloris) is cut off after this, however active it looks.</li>
+ *   <li><b>write</b> – a response write that the peer does not drain in time.</li>
+ * </ul>
+ * A deadline of zero or less is disabled. An expired deadline closes the connection and counts
+ * in {@code atm.server.timeouts}, tagged by kind.
+ */
+@Slf4j
+public class ConnectionTimeouts {
+
+    private final HashedWheelTimer timer;
+    private final long idleMs;
+    private final long frameMs;
+    private final long writeMs;
+    private final Counter idleTimeouts;
+    private final Counter frameTimeouts;
+    private final Counter writeTimeouts;
+
+    public ConnectionTimeouts(HashedWheelTimer timer, long idleMs, long frameMs, long writeMs,
+                              MeterRegistry registry) {
+        this.timer = timer;
+        this.idleMs = idleMs;
+        this.frameMs = frameMs;
+        this.writeMs = writeMs;
+        this.idleTimeouts = counter(registry, "idle");
+        this.frameTimeouts = counter(registry, "frame");
+        this.writeTimeouts = counter(registry, "write");
+    }
+
+    private static Counter counter(MeterRegistry registry, String kind) {
+        return Counter.builder("atm.server.timeouts")
+                .description("Connections closed by an expired deadline")
+                .tag("kind", kind)
+                .register(registry);
+    }
+
+    public Deadlines open(IsoConnection connection) {
+        return new Deadlines(connection);
+    }
+
+    /**
+     * Deadlines of one connection. The I/O side reports frame boundaries and writes; the
+     * dispatcher side reports requests, which hold off the idle deadline while outstanding.
+     * The idle deadline is also re-armed from the timer thread, so it is only ever swapped by
+     * compare-and-set: a check that has been replaced or cancelled neither re-arms nor closes.
+     */
+    public final class Deadlines {
+
+        private final IsoConnection connection;
+        private final AtomicInteger outstanding = new AtomicInteger();
+        private final AtomicReference<IdleCheck> idle = new AtomicReference<>();
+        private volatile HashedWheelTimer.Timeout frame;
+        private volatile HashedWheelTimer.Timeout write;
+        private volatile boolean closed;
+
+        private Deadlines(IsoConnection connection) {
+            this.connection = connection;
+        }
+
+        /** Between frames: (re)starts the idle deadline. */
+        public void awaitFrame() {
+            cancel(frame);
+            frame = null;
+            cancel(idle.getAndSet(idleCheck()));
+        }
+
+        /** First bytes of a frame arrived; later bytes of the same frame do not extend it. */
+        public void frameStarted() {
+            if (frame == null) {
+                cancel(idle.getAndSet(null));
+                frame = schedule(frameMs, () -> expired("frame", frameTimeouts));
+            }
+        }
+
+        public void frameCompleted() {
+            cancel(frame);
+            frame = null;
+        }
+
+        public void writeStarted() {
+            if (write == null) {
+                write = schedule(writeMs, () -> expired("write", writeTimeouts));
+            }
+        }
+
+        public void writeCompleted() {
+            cancel(write);
+            write = null;
+        }
+
+        public void requestStarted() {
+            outstanding.incrementAndGet();
+        }
+
+        public void requestFinished() {
+            outstanding.decrementAndGet();
+        }
+
+        public void cancel() {
+            closed = true;
+            cancel(idle.getAndSet(null));
+            cancel(frame);
+            cancel(write);
+        }
+
+        private HashedWheelTimer.Timeout schedule(long delayMs, Runnable task) {
+            return (delayMs > 0 && !closed) ? timer.schedule(task, delayMs) : null;
+        }
+
+        private IdleCheck idleCheck() {
+            if (idleMs <= 0 || closed) {
+                return null;
+            }
+            IdleCheck check = new IdleCheck();
+            check.timeout = timer.schedule(check, idleMs);
+            return check;
+        }
+
+        private void expired(String kind, Counter counter) {
+            if (closed) {
+                return;
+            }
+            counter.increment();
+            log.info("Closing {}: {} timeout", connection, kind);
+            cancel();
+            connection.close();
+        }
+
+        private void cancel(HashedWheelTimer.Timeout timeout) {
+            if (timeout != null) timeout.cancel();
+        }
+
+        private void cancel(IdleCheck check) {
+            if (check != null) cancel(check.timeout);
+        }
+
+        /** One arming of the idle deadline; it acts only while it is still the armed one. */
+        private final class IdleCheck implements Runnable {
+
+            private volatile HashedWheelTimer.Timeout timeout;
+
+            @Override
+            public void run() {
+                if (outstanding.get() > 0) {
+                    // A slow transaction is not an idle link
+                    IdleCheck next = idleCheck();
+                    if (!idle.compareAndSet(this, next)) {
+                        cancel(next); // a frame started or the deadline was restarted meanwhile
+                    }
+                    return;
+                }
+                if (idle.compareAndSet(this, null)) {
+                    expired("idle", idleTimeouts);
+                }
+            }
+        }
+    }
+}
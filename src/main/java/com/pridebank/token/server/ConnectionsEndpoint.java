@@ -0,0 +1,61 @@
+package com.pridebank.token.server;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.actuate.endpoint.annotation.DeleteOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Selector;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.boot.actuate.endpoint.web.WebEndpointResponse;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@code /actuator/isoconnections}: the open ISO connections of every listener.
+ * <ul>
+ *     <li>{@code GET /actuator/isoconnections[?listener=pos]} lists them</li>
+ *     <li>{@code GET /actuator/isoconnections/{id}} shows one</li>
+ *     <li>{@code POST /actuator/isoconnections/{id}} drains one: it stops reading and closes once
+ *     its in-flight replies are written</li>
+ *     <li>{@code DELETE /actuator/isoconnections/{id}} closes one at once</li>
+ * </ul>
+ * Unknown IDs answer 404.
+ */
+@Component
+@Endpoint(id = "isoconnections")
+@RequiredArgsConstructor
+public class ConnectionsEndpoint {
+
+    private final ConnectionRegistry registry;
+
+    @ReadOperation
+    public List<ConnectionRegistry.ConnectionInfo> connections(@Nullable String listener) {
+        return registry.list(listener);
+    }
+
+    @ReadOperation
+    public ConnectionRegistry.ConnectionInfo connection(@Selector long id) {
+        return registry.get(id);
+    }
+
+    @WriteOperation
+    public WebEndpointResponse<Map<String, Object>> drain(@Selector long id) {
+        return registry.drain(id) ? done(id, "drain") : notFound();
+    }
+
+    @DeleteOperation
+    public WebEndpointResponse<Map<String, Object>> close(@Selector long id) {
+        return registry.close(id) ? done(id, "close") : notFound();
+    }
+
+    private static WebEndpointResponse<Map<String, Object>> done(long id, String action) {
+        return new WebEndpointResponse<>(Map.of("id", id, "action", action));
+    }
+
+    private static WebEndpointResponse<Map<String, Object>> notFound() {
+        return new WebEndpointResponse<>(WebEndpointResponse.STATUS_NOT_FOUND);
+    }
+}
@@ -0,0 +1,93 @@
+package com.pridebank.token.server;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Decodes 2-byte length-prefixed frames into pooled buffers and enforces the maximum frame
+ * length before anything is allocated. Shared by all connections of a listener.
+ * <p>
+ * Pooling only saves allocation for the compiled and lazy codecs, which read a payload in place.
+ * j8583 parses whole arrays, so a pooled buffer would be copied down to the payload anyway; its
+ * listeners run the decoder without a pool and every frame gets an exact-length array.
+ */
+public class FrameDecoder {
+
+    private final BufferPool pool;
+    private final int maxFrameLength;
+
+    /**
+     * @param pool null to read every frame into an exact-length array of its own
+     */
+    public FrameDecoder(BufferPool pool, int maxFrameLength) {
+        this.pool = pool;
+        this.maxFrameLength = maxFrameLength;
+    }
+
+    public int getMaxFrameLength() {
+        return maxFrameLength;
+    }
+
+    /**
+     * Reads the next frame from a blocking stream. The stream should be buffered: the two
+     * header bytes are read one at a time.
+     *
+     * @return the frame, or null when the peer closed the connection between frames
+     */
+    public IsoFrame read(InputStream in) throws IOException {
+        return read(in, () -> { });
+    }
+
+    /**
+     * As {@link #read(InputStream)}, calling {@code frameStarted} once the first header byte has
+     * arrived, so the caller can tell a connection idle between frames from one stalled inside
+     * a frame.
+     */
+    public IsoFrame read(InputStream in, Runnable frameStarted) throws IOException {
+        int hi = in.read();
+        if (hi >= 0) {
+            frameStarted.run();
+        }
+        int lo = (hi < 0) ? -1 : in.read();
+        if (lo < 0) {
+            return null;
+        }
+        int msgLen = checkLength((hi << 8) | lo);
+
+        byte[] buffer = acquire(msgLen);
+        int read = in.readNBytes(buffer, 0, msgLen);
+        if (read != msgLen) {
+            if (pool != null) pool.release(buffer);
+            throw new EOFException("Incomplete message: expected " + msgLen + ", got " + read);
+        }
+        return new IsoFrame(pool, buffer, msgLen);
+    }
+
+    /**
+     * Copies the next {@code msgLen} bytes of {@code src} into a pooled frame.
+     */
+    public IsoFrame copy(ByteBuffer src, int msgLen) {
+        byte[] buffer = acquire(msgLen);
+        src.get(buffer, 0, msgLen);
+        return new IsoFrame(pool, buffer, msgLen);
+    }
+
+    private byte[] acquire(int msgLen) {
+        return pool != null ? pool.acquire(msgLen) : new byte[msgLen];
+    }
+
+    public int checkLength(int msgLen) throws FrameTooLongException {
+        if (msgLen > maxFrameLength) {
+            throw new FrameTooLongException(msgLen, maxFrameLength);
+        }
+        return msgLen;
+    }
+
+    public static class FrameTooLongException extends IOException {
+        public FrameTooLongException(int length, int max) {
+            super("Frame length " + length + " exceeds maximum " + max);
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package com.pridebank.token.server;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+
+/**
+ * Encodes responses as 2-byte length-prefixed frames, header and body in one buffer so each
+ * reply goes to the socket in a single write instead of one per header byte plus the body.
+ */
+final class FrameEncoder {
+
+    private FrameEncoder() {
+    }
+
+    static ByteBuffer encode(byte[] body) {
+        ByteBuffer frame = ByteBuffer.allocate(2 + body.length);
+        frame.put((byte) ((body.length >> 8) & 0xFF));
+        frame.put((byte) (body.length & 0xFF));
+        frame.put(body);
+        frame.flip();
+        return frame;
+    }
+
+    /**
+     * Takes every frame queued so far and joins them into one buffer for a single write.
+     *
+     * @return null when nothing is queued
+     */
+    static ByteBuffer drain(Queue<ByteBuffer> frames) {
+        ByteBuffer first = frames.poll();
+        if (first == null || frames.isEmpty()) {
+            return first;
+        }
+        int size = first.remaining();
+        for (ByteBuffer frame : frames) {
+            size += frame.remaining();
+        }
+        ByteBuffer batch = ByteBuffer.allocate(size);
+        batch.put(first);
+        ByteBuffer frame;
+        // Frames queued after the size was taken wait for the next batch
+        while ((frame = frames.peek()) != null && frame.remaining() <= batch.remaining()) {
+            batch.put(frames.poll());
+        }
+        batch.flip();
+        return batch;
+    }
+}
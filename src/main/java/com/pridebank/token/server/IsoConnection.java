@@ -0,0 +1,171 @@
+package com.pridebank.token.server;
+
+import com.pridebank.token.iso.IsoMessagePool;
+
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * One accepted ATM / switch connection, independent of the I/O engine serving it.
+ * <p>
+ * Requests may be processed concurrently, so replies are written through {@link #send(byte[])},
+ * the single writer of the connection, in completion order. The peer matches them to its
+ * requests by STAN (field 11) and terminal (field 41); the connection keeps the keys of the
+ * requests still in flight so a retransmission of one of them can be recognised.
+ * <p>
+ * The connection also keeps the traffic statistics shown by the connection registry. They are
+ * updated on every frame, so they are plain adders and volatile fields, read without locking.
+ */
+public abstract class IsoConnection {
+
+    private static final AtomicLong SEQUENCE = new AtomicLong();
+
+    private final long id = SEQUENCE.incrementAndGet();
+    private final String remote;
+    private final Set<String> inFlightKeys = ConcurrentHashMap.newKeySet();
+    private final long openedAt = System.currentTimeMillis();
+    private final LongAdder framesIn = new LongAdder();
+    private final LongAdder bytesIn = new LongAdder();
+    private final LongAdder framesOut = new LongAdder();
+    private final LongAdder bytesOut = new LongAdder();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final IsoMessagePool messages = new IsoMessagePool(16);
+    private volatile long lastActivity = openedAt;
+    private volatile long writeBlockedSince;
+    private volatile String terminalId;
+
+    protected IsoConnection(String remote) {
+        this.remote = remote;
+    }
+
+    /**
+     * @return the connection's recycled requests and replies, used when the listener has
+     * {@code recycle-messages} on; releasing a message it did not hand out does nothing
+     */
+    public IsoMessagePool messages() {
+        return messages;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public String getRemote() {
+        return remote;
+    }
+
+    /**
+     * @return false when a request with the same terminal / STAN key is already in flight
+     */
+    public boolean beginRequest(String key) {
+        return inFlightKeys.add(key);
+    }
+
+    public void endRequest(String key) {
+        inFlightKeys.remove(key);
+    }
+
+    /**
+     * Counts an inbound request frame as in flight until {@link #requestCompleted(int)}.
+     *
+     * @param bytes frame size including its length header
+     */
+    public void frameReceived(int bytes) {
+        framesIn.increment();
+        bytesIn.add(bytes);
+        inFlight.incrementAndGet();
+        lastActivity = System.currentTimeMillis();
+    }
+
+    /**
+     * @param replyBytes reply frame size including its length header, or 0 when the request
+     *                   ended without a reply
+     */
+    public void requestCompleted(int replyBytes) {
+        inFlight.decrementAndGet();
+        if (replyBytes > 0) {
+            framesOut.increment();
+            bytesOut.add(replyBytes);
+        }
+        lastActivity = System.currentTimeMillis();
+    }
+
+    public void terminalSeen(String terminalId) {
+        if (terminalId != null && !terminalId.equals(this.terminalId)) {
+            this.terminalId = terminalId;
+        }
+    }
+
+    /**
+     * Called by the engine when a reply cannot be written because the peer is not reading, and
+     * again with {@code false} once the write completes.
+     */
+    protected void writeBlocked(boolean blocked) {
+        if (!blocked) {
+            writeBlockedSince = 0;
+        } else if (writeBlockedSince == 0) {
+            writeBlockedSince = System.currentTimeMillis();
+        }
+    }
+
+    public long getOpenedAt() {
+        return openedAt;
+    }
+
+    public long getLastActivity() {
+        return lastActivity;
+    }
+
+    public String getTerminalId() {
+        return terminalId;
+    }
+
+    public long getFramesIn() {
+        return framesIn.sum();
+    }
+
+    public long getBytesIn() {
+        return bytesIn.sum();
+    }
+
+    public long getFramesOut() {
+        return framesOut.sum();
+    }
+
+    public long getBytesOut() {
+        return bytesOut.sum();
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    /**
+     * @return when the current write started waiting for the peer, or 0 when none is
+     */
+    public long getWriteBlockedSince() {
+        return writeBlockedSince;
+    }
+
+    /**
+     * Writes one response payload with its 2-byte length header. Safe to call from any thread.
+     */
+    public abstract void send(byte[] body) throws IOException;
+
+    /**
+     * Stops reading new frames; the connection closes itself once its in-flight replies are
+     * written.
+     */
+    public abstract void drain();
+
+    public abstract void close();
+
+    @Override
+    public String toString() {
+        return "#" + id + " " + remote;
+    }
+}
@@ -0,0 +1,54 @@
+package com.pridebank.token.server;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * One inbound frame payload held in a pooled buffer.
+ * <p>
+ * The payload occupies {@code array()[0, length())}; the buffer is usually larger and the bytes
+ * past the payload are left from earlier frames. Readers must stop at {@link #length()}; j8583,
+ * which parses a whole array, is handed a copy of the payload by {@code IsoCodec.parse} unless
+ * the frame was read without a pool into an array of exactly its length.
+ * <p>
+ * The buffer goes back to the pool on {@link #release()}, which the handler calls as soon as
+ * the payload has been parsed.
+ */
+public final class IsoFrame {
+
+    private final BufferPool pool;
+    private final int length;
+    private byte[] buffer;
+
+    IsoFrame(BufferPool pool, byte[] buffer, int length) {
+        this.pool = pool;
+        this.buffer = buffer;
+        this.length = length;
+    }
+
+    public byte[] array() {
+        return buffer;
+    }
+
+    public int length() {
+        return length;
+    }
+
+    /**
+     * Read-only view of the payload, without copying.
+     */
+    public ByteBuffer slice() {
+        return ByteBuffer.wrap(buffer, 0, length).slice().asReadOnlyBuffer();
+    }
+
+    public byte[] toByteArray() {
+        return Arrays.copyOf(buffer, length);
+    }
+
+    public void release() {
+        if (buffer != null) {
+            if (pool != null) pool.release(buffer);
+            buffer = null;
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package com.pridebank.token.server;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Turns one complete ISO-8583 frame (payload only, without the 2-byte length header)
+ * into the response payload that is written back on the same connection.
+ * <p>
+ * Dispatch never blocks the calling I/O thread: the frame is processed elsewhere and the
+ * returned future completes with the encoded reply. The dispatcher owns the frame and must
+ * {@link IsoFrame#release() release} it once parsed.
+ */
+@FunctionalInterface
+public interface IsoFrameDispatcher {
+
+    CompletableFuture<byte[]> dispatch(IsoFrame frame, IsoConnection connection);
+}
@@ -0,0 +1,35 @@
+package com.pridebank.token.server;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Priority lanes of the ATM listener, bound from {@code atm.server.lanes}. A transaction whose
+ * processing code (field 3) starts with none of the configured prefixes runs in the unbounded
+ * default lane.
+ */
+@Getter
+@Setter
+@Component
+@ConfigurationProperties(prefix = "atm.server")
+public class IsoLaneProperties {
+
+    private List<LaneConfig> lanes = new ArrayList<>();
+
+    @Getter
+    @Setter
+    public static class LaneConfig {
+        private String name;
+        /** Processing code prefixes, e.g. {@code 31} for every balance inquiry. */
+        private List<String> processingCodes = new ArrayList<>();
+        /** Transactions of the lane running at once. */
+        private int concurrency = 10;
+        /** Transactions allowed to wait for the lane; beyond that they are answered with 91. */
+        private int queueDepth = 100;
+    }
+}
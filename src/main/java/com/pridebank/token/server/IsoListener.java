@@ -0,0 +1,552 @@
+package com.pridebank.token.server;
+
+import com.pridebank.token.iso.IsoCodec;
+import com.pridebank.token.iso.IsoMac;
+import com.pridebank.token.iso.ResponseTemplates;
+import com.pridebank.token.service.AtmTransactionProcessor;
+import com.solab.iso8583.IsoMessage;
+import com.solab.iso8583.MessageFactory;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * One ISO-8583 listener: a port with its own acceptors, connection engine, worker pool,
+ * admission queue, terminal sequencing, priority lanes, deadlines and message factory.
+ * <p>
+ * Listeners share nothing but the transaction processor and the timer wheel, so each network
+ * gets exactly the worker budget it was configured with. Every meter the listener registers is
+ * tagged with its name, and {@code atm.listener.requests} times each frame from dispatch to
+ * reply as the listener's throughput and latency.
+ */
+@Slf4j
+public class IsoListener {
+
+    private final IsoListenerProperties.ListenerConfig config;
+    private final String name;
+    private final MessageFactory<IsoMessage> messageFactory;
+    private final IsoCodec codec;
+    private final boolean recycle;
+    private final ResponseTemplates responses;
+    /** Field 64 MACs; null when MACing is off. */
+    private final IsoMac mac;
+    private final AtmTransactionProcessor processor;
+    private final List<IsoLaneProperties.LaneConfig> laneConfigs;
+    private final HashedWheelTimer timer;
+    private final boolean virtualThreads;
+    private final ConnectionRegistry.Scope registered;
+    private final MeterRegistry meterRegistry;
+    private final Timer requests;
+
+    private AcceptorGroup acceptorGroup;
+    private ExecutorService pool;
+    private ExecutorService connectionPool;
+    private AdmissionController admission;
+    private AdaptivePoolSizer poolSizer;
+    private KeyedExecutor terminals;
+    private LaneRouter lanes;
+    private NioIsoServer nioServer;
+    private FrameDecoder frameDecoder;
+    private ConnectionTimeouts timeouts;
+    private NetworkManagementResponder networkManagement;
+    private TrafficCapture capture;
+    private TransactionPipeline pipeline;
+    private final Set<BlockingIsoConnection> connections = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger inFlightTotal = new AtomicInteger();
+    private volatile boolean draining;
+
+    public IsoListener(IsoListenerProperties.ListenerConfig config, MessageFactory<IsoMessage> messageFactory,
+                       AtmTransactionProcessor processor, List<IsoLaneProperties.LaneConfig> lanes,
+                       HashedWheelTimer timer, boolean virtualThreads, ConnectionRegistry connectionRegistry,
+                       MeterRegistry registry) {
+        this.config = config;
+        this.name = config.getName();
+        this.messageFactory = messageFactory;
+        this.codec = IsoCodec.of(config.getCodec(), messageFactory);
+        this.recycle = config.isRecycleMessages();
+        this.responses = new ResponseTemplates(messageFactory);
+        IsoListenerProperties.Mac macConfig = config.getMac();
+        this.mac = macConfig.isEnabled()
+                ? IsoMac.of(messageFactory, macConfig.getAlgorithm(), macConfig.getKey())
+                : null;
+        this.processor = processor;
+        this.laneConfigs = lanes;
+        this.timer = timer;
+        this.virtualThreads = virtualThreads;
+        // Everything the listener's components register carries the listener tag
+        CompositeMeterRegistry tagged = new CompositeMeterRegistry();
+        tagged.config().commonTags("listener", name);
+        tagged.add(registry);
+        this.meterRegistry = tagged;
+        this.registered = connectionRegistry.scope(name, meterRegistry);
+        this.requests = Timer.builder("atm.listener.requests")
+                .description("Frames answered by the listener, from dispatch to reply")
+                .register(meterRegistry);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void start() throws Exception {
+        int port = config.getPort();
+        int maxFrameLength = config.getFrame().getMaxLength();
+        if (port <= 0 || port > 65535) {
+            throw new IllegalArgumentException("Invalid port for ISO listener " + name + ": " + port);
+        }
+        if (maxFrameLength <= 0 || maxFrameLength > 65535) {
+            throw new IllegalArgumentException(
+                    "Invalid frame max-length for ISO listener " + name + ": " + maxFrameLength);
+        }
+        BufferPool framePool = codec.needsExactFrames()
+                ? null : new BufferPool(maxFrameLength, config.getFrame().getPooledBuffers());
+        frameDecoder = new FrameDecoder(framePool, maxFrameLength);
+        IsoListenerProperties.Timeouts deadlines = config.getTimeouts();
+        timeouts = new ConnectionTimeouts(timer, deadlines.getIdleMs(), deadlines.getFrameMs(),
+                deadlines.getWriteMs(), meterRegistry);
+        IsoListenerProperties.Connections limits = config.getConnections();
+        ConnectionGate gate = new ConnectionGate(limits.getMax(), limits.getMaxPerIp(), limits.getAcceptRate(),
+                limits.getAcceptBurst(), meterRegistry);
+        acceptorGroup = new AcceptorGroup(port, config.getAcceptors(), config.getBacklog(), config.isTcpNoDelay(),
+                gate, meterRegistry);
+        networkManagement = new NetworkManagementResponder(messageFactory, meterRegistry);
+        if (config.getCapture().isEnabled()) {
+            String file = config.getCapture().getFile();
+            capture = new TrafficCapture(Path.of(file != null ? file : "capture/" + name + ".isocap"),
+                    config.getCapture().getQueueSize(), meterRegistry);
+        }
+        if (isStaged()) {
+            pipeline = new TransactionPipeline(config.getStaged(), codec, recycle, responses, mac, processor,
+                    meterRegistry);
+            pipeline.start();
+        }
+        pool = createWorkerPool(config.getThreads());
+        if (config.getAdaptive().isEnabled()) {
+            startPoolSizer();
+        }
+        // Admission, terminal hand-offs and lanes all queue on the pool; the sizer has to see all three
+        Executor workers = poolSizer != null ? new TimedExecutor(pool, poolSizer) : pool;
+        Duration maxQueueWait = Duration.ofMillis(config.getAdmission().getMaxQueueWaitMs());
+        admission = new AdmissionController(workers, config.getAdmission().getQueueDepth(),
+                maxQueueWait, meterRegistry);
+        terminals = new KeyedExecutor(workers, config.getTerminalMaxQueued(), maxQueueWait, meterRegistry);
+        lanes = new LaneRouter(laneConfigs, maxQueueWait, workers, meterRegistry);
+
+        if ("nio".equalsIgnoreCase(config.getMode())) {
+            nioServer = new NioIsoServer(config.getEventLoops(), config.getMaxInFlight(), frameDecoder,
+                    this::dispatch, timeouts, registered);
+            nioServer.start();
+            acceptorGroup.start(nioServer::register);
+            log.info("ISO-8583 NIO listener {} on port {} with {} acceptors and {} event loops",
+                    name, port, acceptorGroup.getAcceptors(), config.getEventLoops());
+            return;
+        }
+
+        // Connection threads only read frames; transactions run on the admission-controlled pool
+        connectionPool = virtualThreads && VirtualThreadSupport.isAvailable()
+                ? VirtualThreadSupport.newPerTaskExecutor()
+                : Executors.newCachedThreadPool();
+        acceptorGroup.start((channel, onClosed) ->
+                connectionPool.execute(() -> handleClient(channel.socket(), onClosed)));
+        log.info("ISO-8583 TCP listener {} on port {} with {} acceptors", name, port, acceptorGroup.getAcceptors());
+    }
+
+    private boolean isStaged() {
+        return "staged".equalsIgnoreCase(config.getEngine());
+    }
+
+    /**
+     * Transaction worker pool behind the admission stage. In virtual-thread mode every task,
+     * including the blocking ESB call it makes, runs on its own virtual thread, so concurrency is
+     * no longer capped by the configured size. With adaptive sizing the size is only a start.
+     */
+    private ExecutorService createWorkerPool(int size) {
+        IsoListenerProperties.Adaptive adaptive = config.getAdaptive();
+        if (adaptive.isEnabled()) {
+            size = Math.max(adaptive.getMinThreads(), Math.min(adaptive.getMaxThreads(), size));
+        }
+        if (!virtualThreads) {
+            return Executors.newFixedThreadPool(size);
+        }
+        if (!VirtualThreadSupport.isAvailable()) {
+            log.warn("atm.server.virtual-threads.enabled is set but Java {} has no virtual threads; "
+                    + "falling back to {} platform threads", Runtime.version().feature(), size);
+            return Executors.newFixedThreadPool(size);
+        }
+        log.info("ISO-8583 workers of listener {} running on virtual threads", name);
+        return VirtualThreadSupport.newPerTaskExecutor();
+    }
+
+    private void startPoolSizer() {
+        if (!(pool instanceof ThreadPoolExecutor workers)) {
+            log.warn("Adaptive sizing of listener {} is ignored: virtual-thread workers are not pooled", name);
+            return;
+        }
+        IsoListenerProperties.Adaptive adaptive = config.getAdaptive();
+        poolSizer = new AdaptivePoolSizer(workers, adaptive.getMinThreads(), adaptive.getMaxThreads(),
+                Duration.ofMillis(adaptive.getIntervalMs()), adaptive.getTargetUtilization(),
+                Duration.ofMillis(adaptive.getQueueWaitThresholdMs()), meterRegistry);
+        poolSizer.start();
+    }
+
+    private void handleClient(Socket client, Runnable onClosed) {
+        String remote = String.valueOf(client.getRemoteSocketAddress());
+        try (Socket c = client;
+             InputStream in = new BufferedInputStream(c.getInputStream())) {
+
+            BlockingIsoConnection connection = new BlockingIsoConnection(c, timeouts);
+            connections.add(connection);
+            registered.add(connection);
+            try {
+                if (draining) {
+                    connection.drain();
+                }
+                readFrames(in, connection);
+            } finally {
+                connection.deadlines().cancel();
+                connections.remove(connection);
+                registered.remove(connection);
+            }
+        } catch (Exception e) {
+            log.error("Client {} handler error", remote, e);
+        } finally {
+            onClosed.run();
+        }
+    }
+
+    private void readFrames(InputStream in, BlockingIsoConnection connection) throws Exception {
+        String remote = connection.getRemote();
+        int maxInFlight = Math.max(1, config.getMaxInFlight());
+        Semaphore inFlight = new Semaphore(maxInFlight);
+        ConnectionTimeouts.Deadlines deadlines = connection.deadlines();
+        while (true) {
+            IsoFrame frame;
+            deadlines.awaitFrame();
+            try {
+                frame = frameDecoder.read(in, deadlines::frameStarted);
+            } catch (EOFException | FrameDecoder.FrameTooLongException e) {
+                log.warn("Dropping connection {}: {}", remote, e.getMessage());
+                break;
+            } catch (IOException e) {
+                if (connection.isClosed()) {
+                    break; // closed by a deadline or by stop()
+                }
+                throw e;
+            }
+            if (frame == null) {
+                log.info("Connection closed by {}", remote);
+                break;
+            }
+            deadlines.frameCompleted();
+
+            // Blocks the reader once this connection has maxInFlight requests outstanding
+            inFlight.acquire();
+            deadlines.requestStarted();
+            dispatch(frame, connection).whenComplete((response, error) -> {
+                try {
+                    if (error != null) {
+                        log.error("Client {} handler error", remote, error);
+                        connection.close();
+                    } else {
+                        connection.send(response);
+                    }
+                } catch (Exception e) {
+                    log.error("Client {} write error", remote, e);
+                    connection.close();
+                } finally {
+                    deadlines.requestFinished();
+                    inFlight.release();
+                }
+            });
+        }
+        // Let in-flight requests write their replies before the socket is closed
+        inFlight.acquire(maxInFlight);
+    }
+
+    /**
+     * Hands a frame to the admission stage. Shared by the blocking handler and the NIO engine.
+     * A frame that cannot start within its queue budget is answered with 91 (issuer unavailable)
+     * without reaching the transaction processor. Admitted frames are sequenced per terminal
+     * (field 41) and then run in the priority lane of their processing code. Network management
+     * (0800) is answered on the calling I/O thread and never queues behind transactions.
+     * <p>
+     * With the staged engine, frames go to the {@link TransactionPipeline} instead and a full
+     * decode ring is answered with 91.
+     */
+    CompletableFuture<byte[]> dispatch(IsoFrame frame, IsoConnection connection) {
+        long started = System.nanoTime();
+        connection.frameReceived(frame.length() + 2);
+        if (capture != null) {
+            capture.inbound(connection, frame);
+        }
+        if (networkManagement.accepts(frame)) {
+            byte[] response = networkManagement.respond(frame, connection);
+            replied(connection, response, started);
+            return CompletableFuture.completedFuture(response);
+        }
+        CompletableFuture<byte[]> result = new CompletableFuture<>();
+        inFlightTotal.incrementAndGet();
+        // The caller writes the reply from the returned stage, so it is accounted for first
+        CompletableFuture<byte[]> accounted = result.whenComplete((response, error) -> {
+            inFlightTotal.decrementAndGet();
+            replied(connection, response, started);
+        });
+        if (pipeline != null) {
+            if (!pipeline.submit(frame, connection, result)) {
+                complete(result, () -> rejectFrame(frame, connection));
+            }
+            return accounted;
+        }
+        admission.execute(
+                () -> handleFrame(frame, connection, result),
+                () -> complete(result, () -> rejectFrame(frame, connection)));
+        return accounted;
+    }
+
+    private void replied(IsoConnection connection, byte[] response, long started) {
+        requests.record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+        connection.requestCompleted(response != null ? response.length + 2 : 0);
+        if (capture != null && response != null) {
+            capture.outbound(connection, response);
+        }
+    }
+
+    /**
+     * Completes {@code result} with the reply {@code work} returns, its MAC set when MACing is on.
+     */
+    private void complete(CompletableFuture<byte[]> result, Callable<byte[]> work) {
+        try {
+            result.complete(signed(mac, work.call()));
+        } catch (Exception e) {
+            result.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * Parses one frame and queues it behind the transactions of the same terminal still running,
+     * then in its lane; the reply completes {@code result}.
+     */
+    private void handleFrame(IsoFrame frame, IsoConnection connection, CompletableFuture<byte[]> result) {
+        IsoMessage request;
+        boolean authentic;
+        try {
+            // Checked before parsing, which hands the frame buffer back
+            authentic = mac == null || mac.verifyRequest(frame.array(), frame.length());
+            request = parseFrame(codec, frame, connection, recycle);
+        } catch (Exception e) {
+            result.completeExceptionally(e);
+            return;
+        }
+        if (request == null) {
+            complete(result, responses::formatError);
+            return;
+        }
+        if (!authentic) {
+            complete(result, () -> macFailure(request, connection));
+            return;
+        }
+        connection.terminalSeen(terminalId(request));
+        terminals.execute(terminalId(request), () -> {
+            Lane lane = lanes.select(processingCode(request));
+            lane.execute(
+                    () -> complete(result, () -> process(request, connection)),
+                    () -> complete(result, () -> rejectInLane(request, connection, lane)));
+            return result;
+        }, () -> complete(result, () -> shed(request, connection)));
+    }
+
+    /**
+     * Runs a parsed request through the transaction processor and returns the encoded reply.
+     * The request and the reply go back to the connection's messages once it is encoded.
+     */
+    byte[] process(IsoMessage request, IsoConnection connection) throws Exception {
+        // Pipelined replies are matched by terminal + STAN, so the pair must be unique in flight
+        String key = requestKey(request);
+        if (key != null && !connection.beginRequest(key)) {
+            log.warn("Duplicate request {} from {} while the original is in flight", key, connection.getRemote());
+            try {
+                return errorResponse(request, "94", "Duplicate transmission");
+            } finally {
+                connection.messages().release(request);
+            }
+        }
+        try {
+            String rejection = processor.rejection(request);
+            if (rejection != null) {
+                return errorResponse(request, "30", rejection);
+            }
+            IsoMessage response;
+            try {
+                response = processor.exchange(request);
+            } catch (Exception e) {
+                processor.failed(request, e);
+                return errorResponse(request, "96", "System error");
+            }
+            try {
+                return codec.encode(response);
+            } finally {
+                connection.messages().release(response);
+            }
+        } finally {
+            if (key != null) connection.endRequest(key);
+            connection.messages().release(request);
+        }
+    }
+
+    private byte[] shed(IsoMessage request, IsoConnection connection) {
+        log.warn("Terminal {} has too many transactions queued or waiting too long, shedding STAN {} from {}",
+                terminalId(request), request.getObjectValue(11), connection.getRemote());
+        try {
+            return errorResponse(request, "91", "Issuer unavailable");
+        } finally {
+            connection.messages().release(request);
+        }
+    }
+
+    private byte[] rejectInLane(IsoMessage request, IsoConnection connection, Lane lane) {
+        log.warn("Lane {} is full or backed up, rejecting STAN {} from {}",
+                lane.getName(), request.getObjectValue(11), connection.getRemote());
+        try {
+            return errorResponse(request, "91", "Issuer unavailable");
+        } finally {
+            connection.messages().release(request);
+        }
+    }
+
+    private byte[] macFailure(IsoMessage request, IsoConnection connection) {
+        try {
+            return macFailure(request, connection, responses, codec, processor);
+        } finally {
+            connection.messages().release(request);
+        }
+    }
+
+    /**
+     * Answers a 0200 whose field 64 does not match with 63.
+     */
+    static byte[] macFailure(IsoMessage request, IsoConnection connection, ResponseTemplates responses,
+                             IsoCodec codec, AtmTransactionProcessor processor) {
+        log.warn("MAC verification failed for STAN {} from {}",
+                request.hasField(11) ? request.getObjectValue(11) : "unknown", connection.getRemote());
+        return errorResponse(responses, codec, processor, request, "63", "MAC verification failed");
+    }
+
+    /**
+     * @param mac null when MACing is off
+     * @return {@code reply}, with its field 64 MAC set when it is an 0210 or 0231
+     */
+    static byte[] signed(IsoMac mac, byte[] reply) {
+        return mac == null || reply == null ? reply : mac.signReply(reply);
+    }
+
+    private byte[] rejectFrame(IsoFrame frame, IsoConnection connection) throws Exception {
+        IsoMessage request = parseFrame(codec, frame, connection, recycle);
+        if (request == null) {
+            return responses.formatError();
+        }
+        log.warn("Listener {} overloaded, rejecting STAN {} from {}", name,
+                request.hasField(11) ? request.getObjectValue(11) : "unknown", connection.getRemote());
+        return errorResponse(request, "91", "Issuer unavailable");
+    }
+
+    /**
+     * @param recycle decode into one of the connection's {@link IsoConnection#messages() messages},
+     *                which the caller releases once the reply is encoded
+     * @return the parsed request, or null when the frame is not a valid message
+     */
+    static IsoMessage parseFrame(IsoCodec codec, IsoFrame frame, IsoConnection connection, boolean recycle)
+            throws Exception {
+        try {
+            // Parsed straight from the pooled buffer; the codec copies field values out
+            return codec.decode(frame.array(), frame.length(), recycle ? connection.messages() : null);
+        } catch (java.text.ParseException pe) {
+            log.error("Parse error from {}: {}", connection.getRemote(), pe.getMessage(), pe);
+            return null;
+        } finally {
+            frame.release();
+        }
+    }
+
+    private byte[] errorResponse(IsoMessage request, String responseCode, String message) {
+        return errorResponse(responses, codec, processor, request, responseCode, message);
+    }
+
+    /**
+     * The encoded {@link AtmTransactionProcessor#createErrorResponse}: written from the response
+     * templates, or built and encoded when they cannot write it.
+     */
+    static byte[] errorResponse(ResponseTemplates responses, IsoCodec codec, AtmTransactionProcessor processor,
+                                IsoMessage request, String responseCode, String message) {
+        byte[] reply = responses.error(request, responseCode, message);
+        return reply != null ? reply : codec.encode(processor.createErrorResponse(request, responseCode, message));
+    }
+
+    static String requestKey(IsoMessage request) {
+        if (!request.hasField(11) || !request.hasField(41)) {
+            return null;
+        }
+        return terminalId(request) + "/" + request.getObjectValue(11);
+    }
+
+    private static String processingCode(IsoMessage request) {
+        return request.hasField(3) ? request.getObjectValue(3).toString() : null;
+    }
+
+    static String terminalId(IsoMessage request) {
+        return request.hasField(41) ? request.getObjectValue(41).toString().trim() : null;
+    }
+
+    /**
+     * Stops accepting and reading new frames. Transactions in flight carry on; connections close
+     * themselves as they go idle.
+     */
+    void drain() {
+        draining = true;
+        if (nioServer != null) {
+            nioServer.drain();
+        }
+        if (acceptorGroup != null) acceptorGroup.close();
+        connections.forEach(BlockingIsoConnection::drain);
+    }
+
+    int getInFlight() {
+        return inFlightTotal.get();
+    }
+
+    int getOpenConnections() {
+        return nioServer != null ? nioServer.getOpenConnections() : connections.size();
+    }
+
+    void stop() {
+        if (acceptorGroup != null) acceptorGroup.close();
+        connections.forEach(BlockingIsoConnection::close);
+        if (nioServer != null) nioServer.stop();
+        if (connectionPool != null) connectionPool.shutdownNow();
+        if (pool != null) pool.shutdownNow();
+        if (pipeline != null) pipeline.stop();
+        if (admission != null) admission.shutdown();
+        if (poolSizer != null) poolSizer.close();
+        if (capture != null) capture.close();
+    }
+}
@@ -0,0 +1,177 @@
+package com.pridebank.token.server;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Additional ISO-8583 listeners, bound from {@code atm.server.listeners}. The settings directly
+ * under {@code atm.server} describe the default listener; every entry here is a separate
+ * listener with its own port, workers, admission queue, timeouts and message factory, so a
+ * flood on one network cannot take workers or queue slots from another.
+ */
+@Getter
+@Setter
+@Component
+@ConfigurationProperties(prefix = "atm.server")
+public class IsoListenerProperties {
+
+    private List<ListenerConfig> listeners = new ArrayList<>();
+    /** Stages of the default listener when its engine is staged. */
+    private Staged staged = new Staged();
+
+    /**
+     * One listener. Defaults match those of the default listener.
+     */
+    @Getter
+    @Setter
+    public static class ListenerConfig {
+        /** Tags the listener's metrics and threads. */
+        private String name;
+        private int port;
+        /** blocking = one thread per connection, nio = selector event loops. */
+        private String mode = "blocking";
+        /**
+         * pooled = admission queue, terminal sequencing and lanes on a worker pool;
+         * staged = the {@link TransactionPipeline}.
+         */
+        private String engine = "pooled";
+        /** Transaction workers; the starting size when adaptive sizing is on. */
+        private int threads = 20;
+        private int acceptors = 1;
+        private int backlog = 1024;
+        private int eventLoops = 2;
+        /** Concurrent requests per connection; 1 = strict request/response. */
+        private int maxInFlight = 1;
+        /** Transactions one terminal may have waiting; 0 = no limit. */
+        private int terminalMaxQueued;
+        private boolean tcpNoDelay = true;
+        /**
+         * j8583 = parse and write through the MessageFactory; compiled = the precompiled codec
+         * for 0200/0210/0231, falling back to the factory for anything else; lazy = the compiled
+         * codec decoding each field on first access.
+         */
+        private String codec = "j8583";
+        /**
+         * With the lazy codec, reuse each connection's request and reply messages instead of
+         * allocating them per transaction.
+         */
+        private boolean recycleMessages;
+        /** Bean name of the listener's MessageFactory; the primary factory when unset. */
+        private String messageFactory;
+        /** Priority lanes of the listener; the default listener's lanes when unset. */
+        private List<IsoLaneProperties.LaneConfig> lanes;
+        private Timeouts timeouts = new Timeouts();
+        private Admission admission = new Admission();
+        private Connections connections = new Connections();
+        private Frame frame = new Frame();
+        private Adaptive adaptive = new Adaptive();
+        private Capture capture = new Capture();
+        private Staged staged = new Staged();
+        private Mac mac = new Mac();
+    }
+
+    @Getter
+    @Setter
+    public static class Timeouts {
+        /** Time allowed between frames while no transaction is outstanding. */
+        private long idleMs = 300000;
+        private long frameMs = 5000;
+        private long writeMs = 10000;
+    }
+
+    @Getter
+    @Setter
+    public static class Admission {
+        private int queueDepth = 200;
+        private long maxQueueWaitMs = 5000;
+    }
+
+    @Getter
+    @Setter
+    public static class Connections {
+        private int max;
+        private int maxPerIp;
+        private double acceptRate;
+        private int acceptBurst = 50;
+    }
+
+    @Getter
+    @Setter
+    public static class Frame {
+        private int maxLength = 65535;
+        private int pooledBuffers = 64;
+    }
+
+    @Getter
+    @Setter
+    public static class Adaptive {
+        private boolean enabled;
+        private int minThreads = 10;
+        private int maxThreads = 200;
+        private long intervalMs = 5000;
+        private double targetUtilization = 0.75;
+        private long queueWaitThresholdMs = 50;
+    }
+
+    @Getter
+    @Setter
+    public static class Capture {
+        private boolean enabled;
+        /** Capture file; {@code capture/<listener>.isocap} when unset. */
+        private String file;
+        /** Frames waiting for the capture writer; beyond that they are dropped. */
+        private int queueSize = 10000;
+    }
+
+    /**
+     * Field 64 MAC: verified on inbound 0200s, which are answered with 63 when it does not match,
+     * and written on outbound 0210 / 0231 replies.
+     */
+    @Getter
+    @Setter
+    public static class Mac {
+        private boolean enabled;
+        /** retail = ISO 9797-1 algorithm 3 (ANSI X9.19); hmac-sha256 = HMAC truncated to 8 bytes. */
+        private String algorithm = "retail";
+        /** Hex; 16 bytes for retail. */
+        private String key;
+    }
+
+    /**
+     * Stages of the staged engine. The ESB stage blocks on the network and needs the threads;
+     * the others are CPU-bound and need about one per core between them.
+     */
+    @Getter
+    @Setter
+    public static class Staged {
+        private Stage decode = new Stage(2, 1024, 32);
+        private Stage validate = new Stage(1, 1024, 32);
+        private Stage convert = new Stage(2, 1024, 32);
+        private Stage esb = new Stage(64, 1024, 1);
+        private Stage encode = new Stage(2, 1024, 32);
+    }
+
+    @Getter
+    @Setter
+    public static class Stage {
+        private int threads;
+        /** Ring slots, rounded up to a power of two. */
+        private int capacity;
+        /** Items a worker takes per pass. */
+        private int batchSize;
+
+        public Stage() {
+        }
+
+        Stage(int threads, int capacity, int batchSize) {
+            this.threads = threads;
+            this.capacity = capacity;
+            this.batchSize = batchSize;
+        }
+    }
+}
@@ -3,28 +3,50 @@ package com.pridebank.token.server;
 import com.solab.iso8583.IsoMessage;
 import com.solab.iso8583.MessageFactory;
 import com.pridebank.token.service.AtmTransactionProcessor;
-import jakarta.annotation.PostConstruct;
+import io.micrometer.core.instrument.MeterRegistry;
 import jakarta.annotation.PreDestroy;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.availability.AvailabilityChangeEvent;
+import org.springframework.boot.availability.ReadinessState;
+import org.springframework.boot.web.context.WebServerGracefulShutdownLifecycle;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.SmartLifecycle;
 import org.springframework.stereotype.Component;
 
-import java.io.InputStream;
-import java.io.OutputStream;
-import java.net.InetSocketAddress;
-import java.net.ServerSocket;
-import java.net.Socket;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * Runs the ISO-8583 listeners: the default one configured directly under {@code atm.server}
+ * and any listed under {@code atm.server.listeners}, each an isolated {@link IsoListener}.
+ * Readiness and the drain on shutdown cover all of them together.
+ * <p>
+ * The listeners bind when the context starts and drain when it stops, in a lifecycle phase
+ * stopped ahead of the web server's graceful shutdown: the readiness probe still answers while
+ * ATMs are told to go elsewhere. The timers are released when the bean is destroyed.
+ */
 @Slf4j
 @Component
 @RequiredArgsConstructor
-public class IsoTcpServer {
+public class IsoTcpServer implements SmartLifecycle {
 
     private final MessageFactory<IsoMessage> messageFactory;
     private final AtmTransactionProcessor processor;
+    private final MeterRegistry meterRegistry;
+    private final ApplicationEventPublisher eventPublisher;
+    private final IsoLaneProperties laneProperties;
+    private final IsoListenerProperties listenerProperties;
+    private final Map<String, MessageFactory<IsoMessage>> messageFactories;
+    private final ConnectionRegistry connectionRegistry;
+
+    static final String DEFAULT_LISTENER = "default";
+    private static final int TIMER_WHEEL_SIZE = 512;
 
     @Value("${atm.server.port:7790}")
     private int port;
@@ -35,89 +57,303 @@ public class IsoTcpServer {
     @Value("${atm.server.socket.timeout:300000}")
     private int socketTimeoutMs;
 
-    private ServerSocket serverSocket;
-    private ExecutorService pool;
-    private ExecutorService acceptLoop;
+    @Value("${atm.server.socket.tcp-no-delay:true}")
+    private boolean tcpNoDelay;
+
+    @Value("${atm.server.timeouts.frame-ms:5000}")
+    private long frameTimeoutMs;
+
+    @Value("${atm.server.timeouts.write-ms:10000}")
+    private long writeTimeoutMs;
+
+    @Value("${atm.server.timeouts.tick-ms:100}")
+    private long timerTickMs;
+
+    @Value("${atm.server.adaptive.enabled:false}")
+    private boolean adaptive;
+
+    @Value("${atm.server.adaptive.min-threads:10}")
+    private int adaptiveMinThreads;
+
+    @Value("${atm.server.adaptive.max-threads:200}")
+    private int adaptiveMaxThreads;
+
+    @Value("${atm.server.adaptive.interval-ms:5000}")
+    private long adaptiveIntervalMs;
+
+    @Value("${atm.server.adaptive.target-utilization:0.75}")
+    private double adaptiveTargetUtilization;
+
+    @Value("${atm.server.adaptive.queue-wait-threshold-ms:50}")
+    private long adaptiveQueueWaitThresholdMs;
+
+    @Value("${atm.server.acceptors:1}")
+    private int acceptors;
+
+    @Value("${atm.server.backlog:1024}")
+    private int backlog;
+
+    @Value("${atm.server.connections.max:0}")
+    private int maxConnections;
+
+    @Value("${atm.server.connections.max-per-ip:0}")
+    private int maxConnectionsPerIp;
+
+    @Value("${atm.server.connections.accept-rate:0}")
+    private double acceptRate;
+
+    @Value("${atm.server.connections.accept-burst:50}")
+    private int acceptBurst;
+
+    @Value("${atm.server.mode:blocking}")
+    private String mode;
+
+    @Value("${atm.server.codec:j8583}")
+    private String codec;
+
+    @Value("${atm.server.recycle-messages:false}")
+    private boolean recycleMessages;
+
+    @Value("${atm.server.engine:pooled}")
+    private String engine;
+
+    @Value("${atm.server.nio.event-loops:2}")
+    private int eventLoops;
+
+    @Value("${atm.server.virtual-threads.enabled:false}")
+    private boolean virtualThreads;
+
+    @Value("${atm.server.virtual-threads.pinned-threshold-ms:20}")
+    private long pinnedThresholdMs;
+
+    @Value("${atm.server.pipeline.max-in-flight:1}")
+    private int maxInFlight;
+
+    @Value("${atm.server.admission.queue-depth:200}")
+    private int admissionQueueDepth;
+
+    @Value("${atm.server.admission.max-queue-wait-ms:5000}")
+    private long admissionMaxQueueWaitMs;
+
+    @Value("${atm.server.terminal.max-queued:0}")
+    private int terminalMaxQueued;
+
+    @Value("${atm.server.capture.enabled:false}")
+    private boolean capture;
+
+    @Value("${atm.server.capture.file:}")
+    private String captureFile;
+
+    @Value("${atm.server.capture.queue-size:10000}")
+    private int captureQueueSize;
+
+    @Value("${atm.server.mac.enabled:false}")
+    private boolean mac;
+
+    @Value("${atm.server.mac.algorithm:retail}")
+    private String macAlgorithm;
+
+    @Value("${atm.server.mac.key:}")
+    private String macKey;
+
+    @Value("${atm.server.drain.timeout-ms:30000}")
+    private long drainTimeoutMs;
+
+    @Value("${atm.server.frame.max-length:65535}")
+    private int maxFrameLength;
+
+    @Value("${atm.server.frame.pooled-buffers:64}")
+    private int pooledBuffers;
+
+    private final List<IsoListener> listeners = new ArrayList<>();
+    private HashedWheelTimer timer;
+    private PinnedThreadMonitor pinnedThreadMonitor;
+    private volatile boolean running;
 
-    @PostConstruct
-    public void start() throws Exception {
-        if (port <= 0 || port > 65535) {
-            throw new IllegalArgumentException("Invalid ATM server port: " + port);
+    @Override
+    public void start() {
+        try {
+            bind();
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IllegalStateException("Unable to start the ISO-8583 listeners", e);
         }
-        serverSocket = new ServerSocket();
-        serverSocket.setReuseAddress(true);
-        serverSocket.bind(new InetSocketAddress(port));
-        pool = Executors.newFixedThreadPool(threads);
-        acceptLoop = Executors.newSingleThreadExecutor();
-        log.info("ISO-8583 TCP server listening on port {}", port);
-
-        acceptLoop.submit(() -> {
-            while (!serverSocket.isClosed()) {
-                try {
-                    Socket client = serverSocket.accept();
-                    client.setSoTimeout(socketTimeoutMs);
-                    pool.submit(() -> handleClient(client));
-                } catch (Exception e) {
-                    if (!serverSocket.isClosed()) {
-                        log.error("Accept error", e);
-                    }
-                }
-            }
-        });
+        running = true;
     }
 
-    private void handleClient(Socket client) {
-        String remote = client.getRemoteSocketAddress().toString();
-        try (Socket c = client;
-             InputStream in = c.getInputStream();
-             OutputStream out = c.getOutputStream()) {
-
-            while (true) {
-                byte[] lenBytes = in.readNBytes(2);
-                if (lenBytes.length < 2) {
-                    log.info("Connection closed by {}", remote);
-                    break;
-                }
-                int msgLen = ((lenBytes[0] & 0xFF) << 8) | (lenBytes[1] & 0xFF);
-                byte[] payload = in.readNBytes(msgLen);
-                if (payload.length != msgLen) {
-                    log.warn("Incomplete message from {}: expected {}, got {}", remote, msgLen, payload.length);
-                    break;
-                }
-
-                try {
-                    IsoMessage request = messageFactory.parseMessage(payload, 0);
-                    IsoMessage response = processor.processTransaction(request);
-                    byte[] respBytes = response.writeData();
-                    out.write((respBytes.length >> 8) & 0xFF);
-                    out.write(respBytes.length & 0xFF);
-                    out.write(respBytes);
-                    out.flush();
-                } catch (java.text.ParseException pe) {
-                    // Build minimal 0210 with 39=30 (format error) so client gets a response
-                    IsoMessage errorResp = messageFactory.newMessage(0x210);
-                    errorResp.setValue(39, "30", com.solab.iso8583.IsoType.ALPHA, 2);
-                    byte[] respBytes = errorResp.writeData();
-                    out.write((respBytes.length >> 8) & 0xFF);
-                    out.write(respBytes.length & 0xFF);
-                    out.write(respBytes);
-                    out.flush();
-                    log.error("Parse error from {}: {}", remote, pe.getMessage(), pe);
-                }
+    private void bind() throws Exception {
+        List<IsoListenerProperties.ListenerConfig> configs = new ArrayList<>();
+        configs.add(defaultListener());
+        configs.addAll(listenerProperties.getListeners());
+
+        Set<String> names = new HashSet<>();
+        Set<Integer> ports = new HashSet<>();
+        for (IsoListenerProperties.ListenerConfig config : configs) {
+            if (config.getName() == null || !names.add(config.getName())) {
+                throw new IllegalArgumentException("ISO listener names must be set and unique: " + config.getName());
+            }
+            if (!ports.add(config.getPort())) {
+                throw new IllegalArgumentException("ISO listener " + config.getName()
+                        + " uses port " + config.getPort() + " of another listener");
+            }
+        }
+        timer = new HashedWheelTimer("iso-timeouts", timerTickMs, TIMER_WHEEL_SIZE);
+        if (virtualThreads) {
+            startPinnedThreadMonitor();
+        }
+        try {
+            for (IsoListenerProperties.ListenerConfig config : configs) {
+                IsoListener listener = new IsoListener(config, messageFactory(config), processor,
+                        config.getLanes() != null ? config.getLanes() : laneProperties.getLanes(),
+                        timer, virtualThreads, connectionRegistry, meterRegistry);
+                listeners.add(listener);
+                listener.start();
             }
         } catch (Exception e) {
-            log.error("Client {} handler error", remote, e);
+            listeners.forEach(IsoListener::stop);
+            timer.close();
+            throw e;
         }
     }
 
-    @PreDestroy
-    public void stop() throws Exception {
+    /**
+     * The listener described by the settings directly under {@code atm.server}.
+     */
+    private IsoListenerProperties.ListenerConfig defaultListener() {
+        IsoListenerProperties.ListenerConfig config = new IsoListenerProperties.ListenerConfig();
+        config.setName(DEFAULT_LISTENER);
+        config.setPort(port);
+        config.setMode(mode);
+        config.setEngine(engine);
+        config.setCodec(codec);
+        config.setRecycleMessages(recycleMessages);
+        config.setThreads(threads);
+        config.setAcceptors(acceptors);
+        config.setBacklog(backlog);
+        config.setEventLoops(eventLoops);
+        config.setMaxInFlight(maxInFlight);
+        config.setTerminalMaxQueued(terminalMaxQueued);
+        config.setTcpNoDelay(tcpNoDelay);
+        // socket.timeout is the idle deadline: time allowed between frames
+        config.getTimeouts().setIdleMs(socketTimeoutMs);
+        config.getTimeouts().setFrameMs(frameTimeoutMs);
+        config.getTimeouts().setWriteMs(writeTimeoutMs);
+        config.getAdmission().setQueueDepth(admissionQueueDepth);
+        config.getAdmission().setMaxQueueWaitMs(admissionMaxQueueWaitMs);
+        config.getConnections().setMax(maxConnections);
+        config.getConnections().setMaxPerIp(maxConnectionsPerIp);
+        config.getConnections().setAcceptRate(acceptRate);
+        config.getConnections().setAcceptBurst(acceptBurst);
+        config.getFrame().setMaxLength(maxFrameLength);
+        config.getFrame().setPooledBuffers(pooledBuffers);
+        config.getAdaptive().setEnabled(adaptive);
+        config.getAdaptive().setMinThreads(adaptiveMinThreads);
+        config.getAdaptive().setMaxThreads(adaptiveMaxThreads);
+        config.getAdaptive().setIntervalMs(adaptiveIntervalMs);
+        config.getAdaptive().setTargetUtilization(adaptiveTargetUtilization);
+        config.getAdaptive().setQueueWaitThresholdMs(adaptiveQueueWaitThresholdMs);
+        config.getCapture().setEnabled(capture);
+        config.getCapture().setFile(captureFile == null || captureFile.isBlank() ? null : captureFile);
+        config.getCapture().setQueueSize(captureQueueSize);
+        config.getMac().setEnabled(mac);
+        config.getMac().setAlgorithm(macAlgorithm);
+        config.getMac().setKey(macKey);
+        config.setStaged(listenerProperties.getStaged());
+        return config;
+    }
+
+    private MessageFactory<IsoMessage> messageFactory(IsoListenerProperties.ListenerConfig config) {
+        if (config.getMessageFactory() == null) {
+            return messageFactory;
+        }
+        MessageFactory<IsoMessage> factory = messageFactories.get(config.getMessageFactory());
+        if (factory == null) {
+            throw new IllegalArgumentException("ISO listener " + config.getName()
+                    + " refers to unknown MessageFactory bean " + config.getMessageFactory());
+        }
+        return factory;
+    }
+
+    private void startPinnedThreadMonitor() {
+        if (VirtualThreadSupport.isAvailable()) {
+            pinnedThreadMonitor = new PinnedThreadMonitor(java.time.Duration.ofMillis(pinnedThresholdMs));
+            pinnedThreadMonitor.start();
+        }
+    }
+
+    /**
+     * Drain phase of shutdown: the readiness state flips so the load balancer stops sending
+     * traffic, no new connections are accepted and no new frames are read, and transactions
+     * already in flight (possibly mid-debit at the ESB) get until the drain deadline to finish
+     * and write their replies. Connections close themselves as they go idle.
+     */
+    void drain() throws InterruptedException {
+        try {
+            AvailabilityChangeEvent.publish(eventPublisher, this, ReadinessState.REFUSING_TRAFFIC);
+        } catch (Exception e) {
+            log.debug("Unable to publish readiness change", e);
+        }
+        listeners.forEach(IsoListener::drain);
+
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(drainTimeoutMs);
+        log.info("Draining ISO-8583 server: {} transactions in flight, {} connections open",
+                inFlight(), openConnections());
+        while ((inFlight() > 0 || openConnections() > 0) && System.nanoTime() < deadline) {
+            Thread.sleep(50);
+        }
+        if (inFlight() > 0 || openConnections() > 0) {
+            log.warn("Drain deadline reached with {} transactions in flight, {} connections open",
+                    inFlight(), openConnections());
+        } else {
+            log.info("ISO-8583 server drained");
+        }
+    }
+
+    private int inFlight() {
+        return listeners.stream().mapToInt(IsoListener::getInFlight).sum();
+    }
+
+    private int openConnections() {
+        return listeners.stream().mapToInt(IsoListener::getOpenConnections).sum();
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Stopped before the web server begins its graceful shutdown.
+     */
+    @Override
+    public int getPhase() {
+        return WebServerGracefulShutdownLifecycle.SMART_LIFECYCLE_PHASE + 1;
+    }
+
+    /**
+     * Drains the listeners, then closes them.
+     */
+    @Override
+    public void stop() {
+        if (!running) {
+            return;
+        }
+        running = false;
         log.info("Stopping ISO-8583 TCP server...");
-        if (serverSocket != null && !serverSocket.isClosed()) {
-            serverSocket.close();
+        try {
+            drain();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
-        if (acceptLoop != null) acceptLoop.shutdownNow();
-        if (pool != null) pool.shutdownNow();
+        listeners.forEach(IsoListener::stop);
         log.info("ISO-8583 TCP server stopped");
     }
-}
\ No newline at end of file
+
+    @PreDestroy
+    public void close() {
+        listeners.forEach(IsoListener::stop);
+        if (pinnedThreadMonitor != null) pinnedThreadMonitor.close();
+        if (timer != null) timer.close();
+    }
+}
@@ -0,0 +1,162 @@
+package com.pridebank.token.server;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+/**
+ * Runs tasks one key at a time, in submission order per key.
+ * <p>
+ * Keyed on the terminal ID, this keeps one ATM's messages in order and lets a terminal occupy
+ * at most one worker, however fast it sends. The first task of an idle key runs on the calling
+ * worker; later tasks of a busy key wait in that key's queue, and each one that finishes hands
+ * the next to the back of the worker queue, so busy terminals take turns with everyone else
+ * instead of holding a worker for their whole backlog.
+ * <p>
+ * A key with {@code maxQueuedPerKey} tasks already waiting (0 for no limit) sheds new ones: a
+ * noisy or retransmitting terminal is answered with an error without slowing down the rest of
+ * the fleet.
+ * A queued task that has waited longer than {@code maxQueueWait} by the time a worker picks it up
+ * is rejected the same way instead of run: waiting behind its own terminal counts against the
+ * same budget as waiting for admission.
+ * <p>
+ * A task counts as finished when the stage it returns completes, so it may hand its work on to
+ * a later stage (a priority lane) without letting the key's next task overtake it.
+ */
+@Slf4j
+public class KeyedExecutor {
+
+    private final Executor workers;
+    private final int maxQueuedPerKey;
+    private final long maxQueueWaitNanos;
+    private final Map<String, KeyQueue> queues = new ConcurrentHashMap<>();
+    private final Counter shed;
+    private final Counter expired;
+
+    public KeyedExecutor(Executor workers, int maxQueuedPerKey, MeterRegistry registry) {
+        this(workers, maxQueuedPerKey, null, registry);
+    }
+
+    /**
+     * @param maxQueueWait null to let queued tasks wait as long as their key is busy
+     */
+    public KeyedExecutor(Executor workers, int maxQueuedPerKey, Duration maxQueueWait, MeterRegistry registry) {
+        this.workers = workers;
+        this.maxQueuedPerKey = maxQueuedPerKey > 0 ? maxQueuedPerKey : Integer.MAX_VALUE;
+        this.maxQueueWaitNanos = maxQueueWait != null ? maxQueueWait.toNanos() : Long.MAX_VALUE;
+        Gauge.builder("atm.terminal.active", queues, Map::size)
+                .description("Terminals with a transaction running or queued")
+                .register(registry);
+        this.shed = Counter.builder("atm.terminal.shed")
+                .description("Transactions shed because their terminal's queue was full")
+                .register(registry);
+        this.expired = Counter.builder("atm.terminal.expired")
+                .description("Transactions rejected because they waited too long behind their terminal")
+                .register(registry);
+    }
+
+    /**
+     * Runs {@code task} once every earlier task of {@code key} has finished, or {@code onShed}
+     * right away when the key's queue is full, or when its turn comes after {@code maxQueueWait}.
+     * A null key is not sequenced.
+     */
+    public void execute(String key, Supplier<? extends CompletionStage<?>> task, Runnable onShed) {
+        if (key == null) {
+            task.get();
+            return;
+        }
+        Admission admission = new Admission();
+        queues.compute(key, (k, queue) -> {
+            if (queue == null) {
+                admission.runNow = true;
+                return new KeyQueue();
+            }
+            if (queue.waiting.size() >= maxQueuedPerKey) {
+                admission.shed = true;
+            } else {
+                queue.waiting.add(new Queued(task, onShed, System.nanoTime()));
+            }
+            return queue;
+        });
+
+        if (admission.shed) {
+            shed.increment();
+            onShed.run();
+        } else if (admission.runNow) {
+            run(key, task);
+        }
+    }
+
+    public int getActiveKeys() {
+        return queues.size();
+    }
+
+    private void run(String key, Supplier<? extends CompletionStage<?>> task) {
+        CompletionStage<?> stage;
+        try {
+            stage = task.get();
+        } catch (Exception e) {
+            log.error("Task for {} failed", key, e);
+            stage = CompletableFuture.completedFuture(null);
+        }
+        stage.whenComplete((result, error) -> {
+            Queued next = next(key);
+            if (next != null) {
+                try {
+                    workers.execute(() -> run(key, next));
+                } catch (RejectedExecutionException e) {
+                    run(key, next);
+                }
+            }
+        });
+    }
+
+    private void run(String key, Queued queued) {
+        if (System.nanoTime() - queued.enqueuedAt <= maxQueueWaitNanos) {
+            run(key, queued.task);
+            return;
+        }
+        expired.increment();
+        run(key, () -> {
+            queued.onExpired.run();
+            return CompletableFuture.completedFuture(null);
+        });
+    }
+
+    /**
+     * @return the key's next task, or null after removing the now idle key
+     */
+    private Queued next(String key) {
+        AtomicReference<Queued> next = new AtomicReference<>();
+        queues.computeIfPresent(key, (k, queue) -> {
+            next.set(queue.waiting.poll());
+            return next.get() == null ? null : queue;
+        });
+        return next.get();
+    }
+
+    private record Queued(Supplier<? extends CompletionStage<?>> task, Runnable onExpired, long enqueuedAt) {
+    }
+
+    private static final class KeyQueue {
+        // Only touched inside ConcurrentHashMap.compute for the key
+        private final ArrayDeque<Queued> waiting = new ArrayDeque<>();
+    }
+
+    private static final class Admission {
+        private boolean runNow;
+        private boolean shed;
+    }
+}
@@ -0,0 +1,170 @@
+package com.pridebank.token.server;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * One priority lane: a concurrency budget with its own bounded queue.
+ * <p>
+ * A task that finds a free slot runs on the calling worker. Otherwise it waits in the lane's
+ * queue without holding a worker, and each finishing task hands the next one to the worker
+ * pool, so a backlog of slow withdrawals never ties up the workers cheap inquiries need. A task
+ * that finds the queue full is rejected at once, and one that reaches a worker after waiting
+ * longer than {@code maxQueueWait} is rejected then instead of run.
+ */
+@Slf4j
+public class Lane {
+
+    private final String name;
+    private final int concurrency;
+    private final int queueDepth;
+    private final long maxQueueWaitNanos;
+    private final Executor workers;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final ArrayDeque<Waiting> waiting = new ArrayDeque<>();
+    private volatile int running;
+
+    private final Timer latency;
+    private final Timer queueWait;
+    private final Counter rejected;
+    private final Counter expired;
+
+    public Lane(String name, int concurrency, int queueDepth, Executor workers, MeterRegistry registry) {
+        this(name, concurrency, queueDepth, null, workers, registry);
+    }
+
+    /**
+     * @param maxQueueWait null to let queued tasks wait as long as the lane is busy
+     */
+    public Lane(String name, int concurrency, int queueDepth, Duration maxQueueWait, Executor workers,
+                MeterRegistry registry) {
+        this.name = name;
+        this.concurrency = Math.max(1, concurrency);
+        this.queueDepth = Math.max(0, queueDepth);
+        this.maxQueueWaitNanos = maxQueueWait != null ? maxQueueWait.toNanos() : Long.MAX_VALUE;
+        this.workers = workers;
+
+        Gauge.builder("atm.lane.active", this, l -> l.running)
+                .tag("lane", name)
+                .description("Transactions of the lane running")
+                .register(registry);
+        Gauge.builder("atm.lane.queue.depth", this, Lane::getQueued)
+                .tag("lane", name)
+                .description("Transactions waiting for the lane")
+                .register(registry);
+        this.latency = Timer.builder("atm.lane.latency")
+                .tag("lane", name)
+                .description("Time from entering the lane to the reply being ready")
+                .register(registry);
+        this.queueWait = Timer.builder("atm.lane.queue.wait")
+                .tag("lane", name)
+                .register(registry);
+        this.rejected = Counter.builder("atm.lane.rejected")
+                .tag("lane", name)
+                .register(registry);
+        this.expired = Counter.builder("atm.lane.expired")
+                .tag("lane", name)
+                .description("Transactions rejected because they waited too long for the lane")
+                .register(registry);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getQueued() {
+        lock.lock();
+        try {
+            return waiting.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Runs {@code task} within the lane's budget, or {@code onReject} when its queue is full or
+     * its turn comes after {@code maxQueueWait}.
+     */
+    public void execute(Runnable task, Runnable onReject) {
+        Waiting item = new Waiting(task, onReject);
+        boolean runNow = false;
+        lock.lock();
+        try {
+            if (running < concurrency) {
+                running++;
+                runNow = true;
+            } else if (waiting.size() < queueDepth) {
+                waiting.add(item);
+                return;
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        if (runNow) {
+            run(item);
+        } else {
+            rejected.increment();
+            onReject.run();
+        }
+    }
+
+    private void run(Waiting item) {
+        long started = System.nanoTime();
+        boolean late = started - item.enqueuedAt > maxQueueWaitNanos;
+        try {
+            if (late) {
+                expired.increment();
+                item.onReject.run();
+            } else {
+                queueWait.record(started - item.enqueuedAt, TimeUnit.NANOSECONDS);
+                item.task.run();
+            }
+        } catch (Exception e) {
+            log.error("Lane {} task failed", name, e);
+        } finally {
+            if (!late) {
+                latency.record(System.nanoTime() - item.enqueuedAt, TimeUnit.NANOSECONDS);
+            }
+            Waiting next;
+            lock.lock();
+            try {
+                next = waiting.poll();
+                if (next == null) {
+                    running--;
+                }
+            } finally {
+                lock.unlock();
+            }
+            if (next != null) {
+                // The slot passes to the next waiting task, at the back of the worker queue
+                try {
+                    workers.execute(() -> run(next));
+                } catch (RejectedExecutionException e) {
+                    run(next);
+                }
+            }
+        }
+    }
+
+    private static final class Waiting {
+        private final long enqueuedAt = System.nanoTime();
+        private final Runnable task;
+        private final Runnable onReject;
+
+        private Waiting(Runnable task, Runnable onReject) {
+            this.task = task;
+            this.onReject = onReject;
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package com.pridebank.token.server;
+
+import io.micrometer.core.instrument.MeterRegistry;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+/**
+ * Chooses the priority lane of a transaction from its processing code (field 3). The longest
+ * matching prefix wins, so {@code 3100} can be split off from the rest of {@code 31}.
+ */
+public class LaneRouter {
+
+    static final String DEFAULT_LANE = "default";
+
+    private final List<Map.Entry<String, Lane>> routes = new ArrayList<>();
+    private final Lane defaultLane;
+
+    public LaneRouter(List<IsoLaneProperties.LaneConfig> lanes, Executor workers, MeterRegistry registry) {
+        this(lanes, null, workers, registry);
+    }
+
+    /**
+     * @param maxQueueWait how long a transaction may wait for its lane; null for as long as it is busy
+     */
+    public LaneRouter(List<IsoLaneProperties.LaneConfig> lanes, Duration maxQueueWait, Executor workers,
+                      MeterRegistry registry) {
+        Lane configuredDefault = null;
+        for (IsoLaneProperties.LaneConfig config : lanes) {
+            Lane lane = new Lane(config.getName(), config.getConcurrency(), config.getQueueDepth(),
+                    maxQueueWait, workers, registry);
+            if (DEFAULT_LANE.equals(config.getName())) {
+                configuredDefault = lane;
+            }
+            for (String prefix : config.getProcessingCodes()) {
+                routes.add(Map.entry(prefix, lane));
+            }
+        }
+        routes.sort(Comparator.comparingInt((Map.Entry<String, Lane> e) -> e.getKey().length()).reversed());
+        // Unless configured, everything else runs without a lane budget of its own
+        this.defaultLane = configuredDefault != null ? configuredDefault
+                : new Lane(DEFAULT_LANE, Integer.MAX_VALUE, 0, maxQueueWait, workers, registry);
+    }
+
+    public Lane select(String processingCode) {
+        if (processingCode != null) {
+            for (Map.Entry<String, Lane> route : routes) {
+                if (processingCode.startsWith(route.getKey())) {
+                    return route.getValue();
+                }
+            }
+        }
+        return defaultLane;
+    }
+}
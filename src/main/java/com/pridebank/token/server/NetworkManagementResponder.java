@@ -0,0 +1,193 @@
+package com.pridebank.token.server;
+
+import com.pridebank.token.iso.IsoCodec;
+import com.solab.iso8583.IsoMessage;
+import com.solab.iso8583.IsoType;
+import com.solab.iso8583.IsoValue;
+import com.solab.iso8583.MessageFactory;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.Calendar;
+
+/**
+ * Answers 0800 network-management requests on the I/O thread.
+ * <p>
+ * Echo tests (field 70 = 301) are the switch's keep-alives and sign-on / sign-off (001 / 002)
+ * need no account data, so none of them go near the admission queue, JSON conversion or the
+ * ESB: a keep-alive stays fast however loaded the ESB is. The 0810, fields 7, 11, 39 and 70
+ * only, is encoded once at startup, where a factory that cannot write them in fixed-length ASCII
+ * slots is refused; each reply is a copy of that template with the request's fields 11 and 70 and the response
+ * code written over their fixed-length slots. Field 7 echoes the request's transmission time, or
+ * carries the reply's own when the request has none; the template's date is never sent.
+ */
+@Slf4j
+public class NetworkManagementResponder {
+
+    private static final byte[] APPROVED = "00".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] FORMAT_ERROR = "30".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] NOT_SUPPORTED = "40".getBytes(StandardCharsets.US_ASCII);
+
+    private final MessageFactory<IsoMessage> messageFactory;
+    private final byte[] template;
+    // Slots of the 0810's only fields, one after the other: 7 (n10), 11 (n6), 39 (an2), 70 (n3)
+    private final int field70;
+    private final int field39;
+    private final int field11;
+    private final int field7;
+
+    private final Counter echo;
+    private final Counter signOn;
+    private final Counter signOff;
+    private final Counter rejected;
+
+    public NetworkManagementResponder(MessageFactory<IsoMessage> messageFactory, MeterRegistry registry) {
+        this.messageFactory = messageFactory;
+        this.template = probe(messageFactory);
+        this.field7 = slots(template);
+        this.field11 = field7 + 10;
+        this.field39 = field11 + 6;
+        this.field70 = field39 + 2;
+        System.arraycopy("000000".getBytes(StandardCharsets.US_ASCII), 0, template, field11, 6);
+        System.arraycopy(APPROVED, 0, template, field39, 2);
+        System.arraycopy("000".getBytes(StandardCharsets.US_ASCII), 0, template, field70, 3);
+
+        this.echo = counter(registry, "echo");
+        this.signOn = counter(registry, "sign_on");
+        this.signOff = counter(registry, "sign_off");
+        this.rejected = counter(registry, "rejected");
+    }
+
+    /**
+     * The 0810 with fields 7, 11, 39 and 70 only, whatever the factory's own 0810 template holds,
+     * set to values that can be found in its encoding. The factory contributes its header,
+     * bitmap and character settings.
+     */
+    private static byte[] probe(MessageFactory<IsoMessage> messageFactory) {
+        IsoMessage response = messageFactory.newMessage(0x810);
+        for (int i = 2; i <= 128; i++) {
+            if (response.hasField(i)) {
+                response.removeFields(i);
+            }
+        }
+        Calendar probeTime = Calendar.getInstance();
+        probeTime.set(2000, Calendar.JANUARY, 2, 3, 4, 5);
+        response.setValue(7, probeTime.getTime(), IsoType.DATE10, 10);
+        response.setValue(11, "123456", IsoType.NUMERIC, 6);
+        response.setValue(39, "AB", IsoType.ALPHA, 2);
+        response.setValue(70, "789", IsoType.NUMERIC, 3);
+        return response.writeData();
+    }
+
+    /**
+     * @return where field 7 starts; fields 11, 39 and 70 follow it directly
+     * @throws IllegalArgumentException when the factory does not write them as ASCII digits and
+     *                                  letters, so their slots cannot be patched in place
+     */
+    private static int slots(byte[] probe) {
+        byte[] fields = "0102030405123456AB789".getBytes(StandardCharsets.US_ASCII);
+        int found = -1;
+        for (int i = 0; i + fields.length <= probe.length; i++) {
+            if (Arrays.equals(probe, i, i + fields.length, fields, 0, fields.length)) {
+                if (found >= 0) {
+                    found = -1;
+                    break;
+                }
+                found = i;
+            }
+        }
+        if (found < 0) {
+            throw new IllegalArgumentException("The MessageFactory does not write 0810 fields 7, 11, 39 and 70"
+                    + " as fixed-length ASCII; network management needs them patched in place");
+        }
+        return found;
+    }
+
+    private static Counter counter(MeterRegistry registry, String function) {
+        return Counter.builder("atm.network.requests")
+                .description("0800 network-management requests answered on the I/O thread")
+                .tag("function", function)
+                .register(registry);
+    }
+
+    /**
+     * @return true for an 0800 frame; checked on the raw ASCII MTI without parsing
+     */
+    public boolean accepts(IsoFrame frame) {
+        byte[] b = frame.array();
+        return frame.length() >= 4 && b[0] == '0' && b[1] == '8' && b[2] == '0' && b[3] == '0';
+    }
+
+    /**
+     * Builds the 0810 for an 0800 frame and releases the frame.
+     */
+    public byte[] respond(IsoFrame frame, IsoConnection connection) {
+        IsoMessage request;
+        try {
+            request = IsoCodec.parse(messageFactory, frame.array(), frame.length());
+        } catch (java.text.ParseException e) {
+            log.warn("Unparseable 0800 from {}: {}", connection.getRemote(), e.getMessage());
+            rejected.increment();
+            byte[] response = template.clone();
+            transmissionTime(response, field7, LocalDateTime.now());
+            System.arraycopy(FORMAT_ERROR, 0, response, field39, 2);
+            return response;
+        } finally {
+            frame.release();
+        }
+
+        String code = request.hasField(70) ? request.getField(70).toString() : "000";
+        Counter counter = switch (code) {
+            case "301" -> echo;
+            case "001" -> signOn;
+            case "002" -> signOff;
+            default -> rejected;
+        };
+        counter.increment();
+        byte[] responseCode = APPROVED;
+        if (counter == rejected) {
+            log.warn("Unsupported network management code {} from {}", code, connection.getRemote());
+            responseCode = NOT_SUPPORTED;
+        }
+
+        byte[] response = template.clone();
+        if (!patch(response, field7, request.getField(7), 10)) {
+            transmissionTime(response, field7, LocalDateTime.now());
+        }
+        patch(response, field11, request.getField(11), 6);
+        System.arraycopy(responseCode, 0, response, field39, 2);
+        patch(response, field70, request.getField(70), 3);
+        return response;
+    }
+
+    /**
+     * @return false when the request has no usable value and the template's is left in place
+     */
+    private static boolean patch(byte[] response, int offset, IsoValue<?> value, int length) {
+        if (value == null) {
+            return false;
+        }
+        byte[] encoded = value.toString().getBytes(StandardCharsets.US_ASCII);
+        if (encoded.length != length) {
+            return false;
+        }
+        System.arraycopy(encoded, 0, response, offset, length);
+        return true;
+    }
+
+    /**
+     * Writes {@code time} as DATE10, MMddHHmmss, in the default time zone like j8583.
+     */
+    private static void transmissionTime(byte[] response, int offset, LocalDateTime time) {
+        int[] parts = {time.getMonthValue(), time.getDayOfMonth(), time.getHour(), time.getMinute(),
+                time.getSecond()};
+        for (int part : parts) {
+            response[offset++] = (byte) ('0' + part / 10);
+            response[offset++] = (byte) ('0' + part % 10);
+        }
+    }
+}
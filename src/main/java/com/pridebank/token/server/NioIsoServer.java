@@ -0,0 +1,424 @@
+package com.pridebank.token.server;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * NioIsoServer
+ * ------------
+ * Selector-based variant of the ATM listener.
+ * <p>
+ * The listener's {@link AcceptorGroup} hands admitted sockets to a small set of event loops,
+ * round-robin. Each event loop owns a Selector and decodes the 2-byte length-prefixed frames of all its connections, so an
+ * idle ATM costs a registered key instead of a blocked thread.
+ * <p>
+ * Only complete frames are handed to the dispatcher. Up to {@code maxInFlight} frames of one
+ * connection are processed concurrently and answered in completion order; with a cap of 1 the
+ * connection behaves exactly like the blocking handler. Reading stops while a connection has a
+ * full backlog of undispatched frames. All connection state is touched by its event loop thread
+ * only; completed replies are handed back through the loop's task queue.
+ * <p>
+ * Complete frames are copied into pooled buffers; a length header above the listener's maximum
+ * closes the connection before the read buffer is grown. Idle, partial-frame and write deadlines
+ * are kept on the listener's timer wheel rather than swept by the loops.
+ * <p>
+ * Replies are not written as they complete: they are queued and every connection with queued
+ * replies is flushed once per loop iteration with a gathering write, so replies completing
+ * close together share a syscall and, usually, a segment.
+ */
+@Slf4j
+public class NioIsoServer {
+
+    private static final int INITIAL_READ_BUFFER = 4096;
+    private static final long SELECT_TIMEOUT_MS = 1000;
+
+    private final int maxInFlight;
+    private final FrameDecoder decoder;
+    private final IsoFrameDispatcher dispatcher;
+    private final ConnectionTimeouts timeouts;
+    private final ConnectionRegistry.Scope registered;
+    private final EventLoop[] loops;
+    private final AtomicInteger openConnections = new AtomicInteger();
+    private final AtomicInteger nextLoop = new AtomicInteger();
+
+    private volatile boolean running;
+
+    public NioIsoServer(int eventLoops, int maxInFlight, FrameDecoder decoder, IsoFrameDispatcher dispatcher,
+                        ConnectionTimeouts timeouts, ConnectionRegistry.Scope registered) {
+        this.maxInFlight = Math.max(1, maxInFlight);
+        this.decoder = decoder;
+        this.dispatcher = dispatcher;
+        this.timeouts = timeouts;
+        this.registered = registered;
+        this.loops = new EventLoop[Math.max(1, eventLoops)];
+    }
+
+    public void start() throws IOException {
+        running = true;
+
+        for (int i = 0; i < loops.length; i++) {
+            loops[i] = new EventLoop(Selector.open());
+            Thread t = new Thread(loops[i], "iso-nio-loop-" + i);
+            t.setDaemon(true);
+            loops[i].thread = t;
+            t.start();
+        }
+    }
+
+    /**
+     * Takes over an accepted connection; an {@link AcceptorGroup.Handler}.
+     */
+    public void register(SocketChannel channel, Runnable onClosed) throws IOException {
+        channel.configureBlocking(false);
+        EventLoop loop = loops[Math.floorMod(nextLoop.getAndIncrement(), loops.length)];
+        loop.register(channel, onClosed);
+    }
+
+    /**
+     * Stops reading new frames. Connections close themselves once their
+     * in-flight replies are written; {@link #getOpenConnections()} reaches zero when done.
+     */
+    public void drain() {
+        for (EventLoop loop : loops) {
+            if (loop != null) loop.execute(loop::drainAll);
+        }
+    }
+
+    public int getOpenConnections() {
+        return openConnections.get();
+    }
+
+    public void stop() {
+        running = false;
+        for (EventLoop loop : loops) {
+            if (loop != null) loop.selector.wakeup();
+        }
+    }
+
+    private final class EventLoop implements Runnable {
+
+        private final Selector selector;
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        private final Deque<Connection> unflushed = new ArrayDeque<>();
+        private Thread thread;
+
+        private EventLoop(Selector selector) {
+            this.selector = selector;
+        }
+
+        void register(SocketChannel channel, Runnable onClosed) {
+            execute(() -> {
+                try {
+                    Connection c = new Connection(channel, this, onClosed);
+                    c.key = channel.register(selector, SelectionKey.OP_READ, c);
+                    openConnections.incrementAndGet();
+                    registered.add(c);
+                    c.deadlines.awaitFrame();
+                } catch (IOException e) {
+                    log.error("Unable to register connection", e);
+                    closeQuietly(channel);
+                    onClosed.run();
+                }
+            });
+        }
+
+        void execute(Runnable task) {
+            tasks.add(task);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            while (running) {
+                try {
+                    selector.select(SELECT_TIMEOUT_MS);
+
+                    Runnable task;
+                    while ((task = tasks.poll()) != null) {
+                        task.run();
+                    }
+
+                    Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                    while (it.hasNext()) {
+                        SelectionKey key = it.next();
+                        it.remove();
+                        Connection c = (Connection) key.attachment();
+                        try {
+                            if (key.isValid() && key.isReadable()) c.onReadable();
+                            if (key.isValid() && key.isWritable()) c.onWritable();
+                        } catch (FrameDecoder.FrameTooLongException e) {
+                            log.warn("Closing {}: {}", c.getRemote(), e.getMessage());
+                            c.close();
+                        } catch (IOException e) {
+                            log.error("Client {} handler error", c.getRemote(), e);
+                            c.close();
+                        }
+                    }
+
+                    Connection c;
+                    while ((c = unflushed.poll()) != null) {
+                        c.flush();
+                    }
+                } catch (Exception e) {
+                    log.error("Event loop error", e);
+                }
+            }
+            closeAll();
+        }
+
+        private void drainAll() {
+            for (SelectionKey key : selector.keys()) {
+                Connection c = (Connection) key.attachment();
+                if (c != null) c.drainNow();
+            }
+        }
+
+        private void closeAll() {
+            for (SelectionKey key : selector.keys()) {
+                Connection c = (Connection) key.attachment();
+                if (c != null) c.close();
+            }
+            try {
+                selector.close();
+            } catch (IOException e) {
+                log.debug("Error closing selector", e);
+            }
+        }
+    }
+
+    private final class Connection extends IsoConnection {
+
+        private final SocketChannel channel;
+        private final EventLoop loop;
+        private final Deque<IsoFrame> pending = new ArrayDeque<>();
+        private final Deque<ByteBuffer> writeQueue = new ArrayDeque<>();
+        private ByteBuffer[] gather = new ByteBuffer[4];
+        private boolean flushScheduled;
+        private final ConnectionTimeouts.Deadlines deadlines;
+        private final Runnable onClosed;
+
+        private SelectionKey key;
+        private ByteBuffer readBuffer = ByteBuffer.allocate(INITIAL_READ_BUFFER);
+        private int inFlight;
+        private boolean inputClosed;
+
+        private Connection(SocketChannel channel, EventLoop loop, Runnable onClosed) throws IOException {
+            super(String.valueOf(channel.getRemoteAddress()));
+            this.channel = channel;
+            this.loop = loop;
+            this.onClosed = onClosed;
+            this.deadlines = timeouts.open(this);
+        }
+
+        boolean isIdle() {
+            return inFlight == 0 && pending.isEmpty() && writeQueue.isEmpty();
+        }
+
+        void onReadable() throws IOException {
+            int n = channel.read(readBuffer);
+            if (n < 0) {
+                log.info("Connection closed by {}", getRemote());
+                inputClosed = true;
+                key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+                closeIfDone();
+                return;
+            }
+            decodeFrames();
+            dispatchNext();
+        }
+
+        private void decodeFrames() throws FrameDecoder.FrameTooLongException {
+            readBuffer.flip();
+            boolean decoded = false;
+            while (readBuffer.remaining() >= 2) {
+                int pos = readBuffer.position();
+                int msgLen = decoder.checkLength(
+                        ((readBuffer.get(pos) & 0xFF) << 8) | (readBuffer.get(pos + 1) & 0xFF));
+                if (readBuffer.remaining() < 2 + msgLen) {
+                    break;
+                }
+                readBuffer.position(pos + 2);
+                pending.add(decoder.copy(readBuffer, msgLen));
+                decoded = true;
+            }
+            readBuffer.compact();
+
+            if (decoded) {
+                deadlines.frameCompleted();
+            }
+            if (readBuffer.position() > 0) {
+                deadlines.frameStarted();
+            } else {
+                deadlines.awaitFrame();
+            }
+
+            if (readBuffer.position() >= 2) {
+                // Partial frame: make sure the whole frame fits before the next read
+                int needed = 2 + (((readBuffer.get(0) & 0xFF) << 8) | (readBuffer.get(1) & 0xFF));
+                if (needed > readBuffer.capacity()) {
+                    readBuffer = resize(needed);
+                }
+            } else if (readBuffer.capacity() > INITIAL_READ_BUFFER) {
+                readBuffer = resize(INITIAL_READ_BUFFER);
+            }
+        }
+
+        private ByteBuffer resize(int capacity) {
+            ByteBuffer resized = ByteBuffer.allocate(capacity);
+            readBuffer.flip();
+            resized.put(readBuffer);
+            return resized;
+        }
+
+        private void dispatchNext() {
+            while (inFlight < maxInFlight && !pending.isEmpty() && channel.isOpen()) {
+                IsoFrame frame = pending.poll();
+                inFlight++;
+                deadlines.requestStarted();
+                dispatcher.dispatch(frame, this).whenComplete((response, error) -> {
+                    if (error != null) {
+                        log.error("Client {} handler error", getRemote(), error);
+                        loop.execute(this::closeNow);
+                    } else {
+                        loop.execute(() -> onResponse(response));
+                    }
+                });
+            }
+            updateReadInterest();
+        }
+
+        private void updateReadInterest() {
+            if (inputClosed || !key.isValid()) {
+                return;
+            }
+            if (pending.size() < maxInFlight) {
+                key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+            } else {
+                key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+            }
+        }
+
+        private void onResponse(byte[] body) {
+            inFlight--;
+            deadlines.requestFinished();
+            write(body);
+            dispatchNext();
+        }
+
+        @Override
+        public void send(byte[] body) {
+            loop.execute(() -> write(body));
+        }
+
+        private void write(byte[] body) {
+            if (!channel.isOpen()) {
+                return;
+            }
+            writeQueue.add(FrameEncoder.encode(body));
+            // Waiting for OP_WRITE already: the selector flushes when the peer catches up
+            if (!flushScheduled && (key.interestOps() & SelectionKey.OP_WRITE) == 0) {
+                flushScheduled = true;
+                loop.unflushed.add(this);
+            }
+        }
+
+        void flush() {
+            flushScheduled = false;
+            if (!channel.isOpen()) {
+                return;
+            }
+            try {
+                onWritable();
+            } catch (IOException e) {
+                log.error("Client {} write error", getRemote(), e);
+                close();
+            }
+        }
+
+        void onWritable() throws IOException {
+            while (!writeQueue.isEmpty()) {
+                gather = writeQueue.toArray(gather);
+                channel.write(gather, 0, writeQueue.size());
+                while (!writeQueue.isEmpty() && !writeQueue.peek().hasRemaining()) {
+                    writeQueue.poll();
+                }
+                if (!writeQueue.isEmpty()) {
+                    // Peer is not reading; it has until the write deadline to catch up
+                    deadlines.writeStarted();
+                    writeBlocked(true);
+                    key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                    return;
+                }
+            }
+            deadlines.writeCompleted();
+            writeBlocked(false);
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+            closeIfDone();
+        }
+
+        private void closeIfDone() {
+            if (inputClosed && isIdle()) {
+                close();
+            }
+        }
+
+        @Override
+        public void drain() {
+            loop.execute(this::drainNow);
+        }
+
+        private void drainNow() {
+            if (inputClosed || !channel.isOpen()) {
+                return;
+            }
+            inputClosed = true;
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+            // Frames already received but not yet dispatched are still answered
+            dispatchNext();
+            closeIfDone();
+        }
+
+        @Override
+        public void close() {
+            if (Thread.currentThread() == loop.thread) {
+                closeNow();
+            } else {
+                loop.execute(this::closeNow);
+            }
+        }
+
+        private void closeNow() {
+            deadlines.cancel();
+            if (key != null) key.cancel();
+            if (channel.isOpen()) {
+                openConnections.decrementAndGet();
+                registered.remove(this);
+                onClosed.run();
+            }
+            closeQuietly(channel);
+            IsoFrame frame;
+            while ((frame = pending.poll()) != null) {
+                frame.release();
+            }
+        }
+    }
+
+    private static void closeQuietly(SocketChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            log.debug("Error closing channel", e);
+        }
+    }
+}
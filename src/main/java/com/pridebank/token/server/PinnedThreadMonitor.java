@@ -0,0 +1,84 @@
+package com.pridebank.token.server;
+
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordingStream;
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Reports virtual threads that stay pinned to their carrier (for example while blocking inside
+ * a {@code synchronized} block) for longer than the configured threshold.
+ * <p>
+ * Uses an in-process JFR stream on the {@code jdk.VirtualThreadPinned} event, logging the top
+ * application frames of each occurrence so the offending lock can be found.
+ */
+@Slf4j
+public class PinnedThreadMonitor implements AutoCloseable {
+
+    private static final String PINNED_EVENT = "jdk.VirtualThreadPinned";
+    private static final int FRAMES_TO_LOG = 8;
+
+    private final Duration threshold;
+    private final AtomicLong pinnedEvents = new AtomicLong();
+    private RecordingStream stream;
+
+    public PinnedThreadMonitor(Duration threshold) {
+        this.threshold = threshold;
+    }
+
+    public void start() {
+        try {
+            stream = new RecordingStream();
+            stream.enable(PINNED_EVENT).withThreshold(threshold).withStackTrace();
+            stream.onEvent(PINNED_EVENT, this::onPinned);
+            stream.startAsync();
+            log.info("Virtual thread pinning monitor started (threshold {} ms)", threshold.toMillis());
+        } catch (Exception e) {
+            log.warn("Virtual thread pinning monitor unavailable: {}", e.getMessage());
+            stream = null;
+        }
+    }
+
+    public long getPinnedEvents() {
+        return pinnedEvents.get();
+    }
+
+    private void onPinned(RecordedEvent event) {
+        pinnedEvents.incrementAndGet();
+        if (log.isWarnEnabled()) {
+            log.warn("Virtual thread pinned for {} ms on {}{}",
+                    event.getDuration().toMillis(),
+                    event.getThread() != null ? event.getThread().getJavaName() : "unknown",
+                    formatStack(event));
+        }
+    }
+
+    private static String formatStack(RecordedEvent event) {
+        if (event.getStackTrace() == null) {
+            return "";
+        }
+        List<RecordedFrame> frames = event.getStackTrace().getFrames();
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < Math.min(FRAMES_TO_LOG, frames.size()); i++) {
+            RecordedFrame f = frames.get(i);
+            sb.append("\n\tat ")
+                    .append(f.getMethod().getType().getName())
+                    .append('.')
+                    .append(f.getMethod().getName())
+                    .append(':')
+                    .append(f.getLineNumber());
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public void close() {
+        if (stream != null) {
+            stream.close();
+        }
+    }
+}
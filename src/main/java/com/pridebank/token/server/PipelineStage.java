@@ -0,0 +1,173 @@
+package com.pridebank.token.server;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * One stage of the {@link TransactionPipeline}: a {@link RingBuffer} drained by its own worker
+ * threads.
+ * <p>
+ * A worker takes up to {@code batchSize} items per pass and runs the handler on each, so a busy
+ * stage pays for a wake-up once per batch instead of once per item. Idle workers spin briefly,
+ * then park until a producer publishes. Metrics are tagged with {@code stage}:
+ * {@code atm.pipeline.occupancy} (fraction of the ring in use) and {@code atm.pipeline.busy}
+ * (workers running the handler) show which stage is the bottleneck.
+ */
+@Slf4j
+final class PipelineStage<T> {
+
+    private static final int SPINS = 100;
+    private static final long PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final long BACKOFF_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+    private final String name;
+    private final RingBuffer<T> ring;
+    private final int batchSize;
+    private final Consumer<T> handler;
+    private final Thread[] workers;
+    private final Queue<Thread> parked = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger busy = new AtomicInteger();
+    private final DistributionSummary batches;
+    private final Timer service;
+    private volatile boolean running = true;
+
+    /**
+     * @param handler runs on a stage worker for every item; it must not throw
+     */
+    PipelineStage(String name, int threads, int capacity, int batchSize, Consumer<T> handler,
+                  MeterRegistry registry) {
+        if (threads <= 0 || capacity <= 0 || batchSize <= 0) {
+            throw new IllegalArgumentException("Pipeline stage " + name
+                    + " needs positive threads, capacity and batch-size");
+        }
+        this.name = name;
+        this.ring = new RingBuffer<>(capacity);
+        this.batchSize = batchSize;
+        this.handler = handler;
+        this.workers = new Thread[threads];
+        Gauge.builder("atm.pipeline.queued", ring, RingBuffer::size)
+                .description("Items waiting in the stage's ring")
+                .tag("stage", name)
+                .register(registry);
+        Gauge.builder("atm.pipeline.occupancy", ring, r -> (double) r.size() / r.capacity())
+                .description("Fraction of the stage's ring in use")
+                .tag("stage", name)
+                .register(registry);
+        Gauge.builder("atm.pipeline.busy", busy, AtomicInteger::get)
+                .description("Stage workers running the handler")
+                .tag("stage", name)
+                .register(registry);
+        this.batches = DistributionSummary.builder("atm.pipeline.batch")
+                .description("Items taken per worker pass")
+                .tag("stage", name)
+                .register(registry);
+        this.service = Timer.builder("atm.pipeline.service")
+                .description("Time the stage spends on one item")
+                .tag("stage", name)
+                .register(registry);
+    }
+
+    void start() {
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = new Thread(this::work, "iso-" + name + "-" + i);
+            workers[i].setDaemon(true);
+            workers[i].start();
+        }
+    }
+
+    /**
+     * @return false when the ring is full
+     */
+    boolean offer(T item) {
+        if (!running || !ring.offer(item)) {
+            return false;
+        }
+        Thread sleeper = parked.poll();
+        if (sleeper != null) {
+            LockSupport.unpark(sleeper);
+        }
+        return true;
+    }
+
+    /**
+     * Publishes from an upstream stage, waiting while the ring is full so a slow stage pushes back
+     * on the ones before it instead of dropping work.
+     *
+     * @throws RejectedExecutionException once the stage is stopped
+     */
+    void put(T item) {
+        while (!offer(item)) {
+            if (!running) {
+                throw new RejectedExecutionException("Pipeline stage " + name + " is stopped");
+            }
+            LockSupport.parkNanos(BACKOFF_NANOS);
+        }
+    }
+
+    private void work() {
+        @SuppressWarnings("unchecked")
+        T[] batch = (T[]) new Object[batchSize];
+        int idle = 0;
+        while (running) {
+            int n = ring.drainTo(batch, batchSize);
+            if (n == 0) {
+                if (++idle < SPINS) {
+                    Thread.onSpinWait();
+                } else {
+                    park();
+                    idle = 0;
+                }
+                continue;
+            }
+            idle = 0;
+            batches.record(n);
+            busy.incrementAndGet();
+            try {
+                for (int i = 0; i < n; i++) {
+                    long started = System.nanoTime();
+                    try {
+                        handler.accept(batch[i]);
+                    } catch (RuntimeException e) {
+                        log.error("Pipeline stage {} handler failed", name, e);
+                    }
+                    batch[i] = null;
+                    service.record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+                }
+            } finally {
+                busy.decrementAndGet();
+            }
+        }
+    }
+
+    private void park() {
+        Thread self = Thread.currentThread();
+        parked.add(self);
+        // Re-check after announcing: a producer that published before seeing us has left an item
+        if (ring.isEmpty() && running) {
+            LockSupport.parkNanos(this, PARK_NANOS);
+        }
+        parked.remove(self);
+    }
+
+    int size() {
+        return ring.size();
+    }
+
+    void stop() {
+        running = false;
+        for (Thread worker : workers) {
+            if (worker != null) LockSupport.unpark(worker);
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package com.pridebank.token.server;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bounded lock-free multi-producer / multi-consumer ring.
+ * <p>
+ * Slots and their sequence numbers are allocated once. Each slot's sequence says whose turn it
+ * is: equal to a producer's claimed position when the slot is free for it, one past that once
+ * the element is published, and a lap further on once a consumer has taken it. Producers and
+ * consumers claim positions with a CAS on their own counter and never wait for each other, so
+ * a full ring fails {@link #offer(Object)} and an empty one returns null from {@link #poll()}.
+ */
+final class RingBuffer<E> {
+
+    private final Object[] slots;
+    private final AtomicLongArray sequences;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong head = new AtomicLong();
+
+    /**
+     * @param capacity rounded up to a power of two
+     */
+    RingBuffer(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        this.slots = new Object[size];
+        this.sequences = new AtomicLongArray(size);
+        this.mask = size - 1;
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    boolean offer(E element) {
+        long position = tail.get();
+        while (true) {
+            int index = (int) (position & mask);
+            long difference = sequences.get(index) - position;
+            if (difference == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    slots[index] = element;
+                    sequences.lazySet(index, position + 1);
+                    return true;
+                }
+                position = tail.get();
+            } else if (difference < 0) {
+                return false; // a lap behind: full
+            } else {
+                position = tail.get();
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    E poll() {
+        long position = head.get();
+        while (true) {
+            int index = (int) (position & mask);
+            long difference = sequences.get(index) - (position + 1);
+            if (difference == 0) {
+                if (head.compareAndSet(position, position + 1)) {
+                    E element = (E) slots[index];
+                    slots[index] = null;
+                    sequences.lazySet(index, position + mask + 1);
+                    return element;
+                }
+                position = head.get();
+            } else if (difference < 0) {
+                return null; // not published yet: empty
+            } else {
+                position = head.get();
+            }
+        }
+    }
+
+    /**
+     * Moves up to {@code max} elements into {@code batch}.
+     *
+     * @return the number moved
+     */
+    int drainTo(Object[] batch, int max) {
+        int n = 0;
+        E element;
+        while (n < max && (element = poll()) != null) {
+            batch[n++] = element;
+        }
+        return n;
+    }
+
+    int size() {
+        long size = tail.get() - head.get();
+        return (int) Math.max(0, Math.min(size, slots.length));
+    }
+
+    boolean isEmpty() {
+        return tail.get() == head.get();
+    }
+
+    int capacity() {
+        return slots.length;
+    }
+}
@@ -0,0 +1,47 @@
+package com.pridebank.token.server;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Reports every task handed to the transaction worker pool to a {@link Listener}.
+ * <p>
+ * Admission is only the first hand-off: a busy terminal's next frame and a lane's next task are
+ * queued on the same pool by {@link KeyedExecutor} and {@link Lane}. Timing at the pool, not at
+ * admission, is what lets the adaptive sizer see every task that occupies a worker.
+ */
+public class TimedExecutor implements Executor {
+
+    private final Executor delegate;
+    private final Listener listener;
+
+    public TimedExecutor(Executor delegate, Listener listener) {
+        this.delegate = delegate;
+        this.listener = listener;
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        long enqueuedAt = System.nanoTime();
+        listener.arrived();
+        delegate.execute(() -> {
+            long started = System.nanoTime();
+            try {
+                task.run();
+            } finally {
+                listener.completed(started - enqueuedAt, System.nanoTime() - started);
+            }
+        });
+    }
+
+    /**
+     * Observes the worker pool. Called on submitting and worker threads, so it must be cheap.
+     */
+    public interface Listener {
+
+        default void arrived() {
+        }
+
+        default void completed(long queueWaitNanos, long serviceNanos) {
+        }
+    }
+}
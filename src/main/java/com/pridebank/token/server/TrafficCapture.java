@@ -0,0 +1,240 @@
+package com.pridebank.token.server;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records a listener's raw traffic to a compact binary file for offline replay.
+ * <p>
+ * The I/O path only copies the frame and offers it to a bounded queue; a background thread
+ * masks and writes. When the writer falls behind, frames are dropped and counted rather than
+ * slowing the listener down. The PAN in field 2 is masked before anything reaches the disk,
+ * keeping the first six and last four digits; the hidden digits become zeros so replayed
+ * requests still pass validation. A frame whose field 2 cannot be located is dropped.
+ * <p>
+ * File layout, big-endian: the magic {@code "ISOC"} and a version byte, then one record per
+ * frame: nanoseconds since the capture started (8), connection ID (8), direction (1, 0 = in,
+ * 1 = out) and the frame exactly as on the wire, 2-byte length header and payload.
+ */
+@Slf4j
+public class TrafficCapture implements AutoCloseable {
+
+    static final int MAGIC = 0x49534F43;
+    static final int VERSION = 1;
+    private static final int BATCH = 256;
+
+    public static final byte INBOUND = 0;
+    public static final byte OUTBOUND = 1;
+
+    private final Path file;
+    private final BlockingQueue<Record> queue;
+    private final long startNanos = System.nanoTime();
+    private final Counter written;
+    private final Counter droppedQueueFull;
+    private final Counter droppedUnmaskable;
+    private final DataOutputStream out;
+    private final Thread writer;
+    private volatile boolean running = true;
+
+    public TrafficCapture(Path file, int queueSize, MeterRegistry registry) throws IOException {
+        this.file = file;
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, queueSize));
+        if (file.getParent() != null) {
+            Files.createDirectories(file.getParent());
+        }
+        this.out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), 64 * 1024));
+        out.writeInt(MAGIC);
+        out.writeByte(VERSION);
+
+        this.written = Counter.builder("atm.capture.frames")
+                .description("Frames written to the capture file")
+                .register(registry);
+        this.droppedQueueFull = Counter.builder("atm.capture.dropped")
+                .tag("reason", "queue_full")
+                .register(registry);
+        this.droppedUnmaskable = Counter.builder("atm.capture.dropped")
+                .tag("reason", "unmaskable")
+                .register(registry);
+
+        this.writer = new Thread(this::writeLoop, "iso-capture");
+        writer.setDaemon(true);
+        writer.start();
+        log.info("Capturing ISO-8583 traffic to {}", file);
+    }
+
+    public void inbound(IsoConnection connection, IsoFrame frame) {
+        offer(connection, INBOUND, frame.toByteArray());
+    }
+
+    /**
+     * @param payload not modified; the reply is still being written while it is captured
+     */
+    public void outbound(IsoConnection connection, byte[] payload) {
+        offer(connection, OUTBOUND, payload.clone());
+    }
+
+    private void offer(IsoConnection connection, byte direction, byte[] payload) {
+        Record record = new Record(System.nanoTime() - startNanos, connection.getId(), direction, payload);
+        if (!running || !queue.offer(record)) {
+            droppedQueueFull.increment();
+        }
+    }
+
+    private void writeLoop() {
+        List<Record> batch = new ArrayList<>(BATCH);
+        try {
+            while (running || !queue.isEmpty()) {
+                Record first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, BATCH - 1);
+                for (Record record : batch) {
+                    write(record);
+                }
+                batch.clear();
+                if (queue.isEmpty()) {
+                    out.flush();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            log.error("Traffic capture to {} failed; capture stopped", file, e);
+            running = false;
+        }
+    }
+
+    private void write(Record record) throws IOException {
+        if (!maskPan(record.payload)) {
+            droppedUnmaskable.increment();
+            return;
+        }
+        out.writeLong(record.nanos);
+        out.writeLong(record.connectionId);
+        out.writeByte(record.direction);
+        out.writeShort(record.payload.length);
+        out.write(record.payload);
+        written.increment();
+    }
+
+    /**
+     * Masks field 2 in place: ASCII MTI, binary bitmap, LLVAR PAN.
+     *
+     * @return false when the payload does not have that layout, so the PAN cannot be found
+     */
+    static boolean maskPan(byte[] payload) {
+        if (payload.length < 12) {
+            return false;
+        }
+        int bitmap = 4;
+        if ((payload[bitmap] & 0x40) == 0) {
+            return true; // no field 2
+        }
+        int offset = bitmap + ((payload[bitmap] & 0x80) != 0 ? 16 : 8);
+        if (payload.length < offset + 2 || !isDigit(payload[offset]) || !isDigit(payload[offset + 1])) {
+            return false;
+        }
+        int length = (payload[offset] - '0') * 10 + (payload[offset + 1] - '0');
+        int pan = offset + 2;
+        if (payload.length < pan + length) {
+            return false;
+        }
+        for (int i = pan + Math.min(6, length); i < pan + length - 4; i++) {
+            payload[i] = '0';
+        }
+        return true;
+    }
+
+    private static boolean isDigit(byte b) {
+        return b >= '0' && b <= '9';
+    }
+
+    /**
+     * Stops accepting frames and waits for the queued ones to be written.
+     */
+    @Override
+    public void close() {
+        running = false;
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            out.close();
+        } catch (IOException e) {
+            log.debug("Error closing capture file {}", file, e);
+        }
+    }
+
+    /**
+     * One captured frame; {@code payload} excludes the length header.
+     */
+    public record Record(long nanos, long connectionId, byte direction, byte[] payload) {
+
+        public boolean isInbound() {
+            return direction == INBOUND;
+        }
+    }
+
+    /**
+     * Reads a capture file record by record.
+     */
+    public static class Reader implements Closeable {
+
+        private final DataInputStream in;
+
+        public Reader(Path file) throws IOException {
+            this.in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 64 * 1024));
+            if (in.readInt() != MAGIC) {
+                in.close();
+                throw new IOException(file + " is not an ISO capture file");
+            }
+            int version = in.readUnsignedByte();
+            if (version != VERSION) {
+                in.close();
+                throw new IOException("Unsupported ISO capture version " + version + " in " + file);
+            }
+        }
+
+        /**
+         * @return the next record, or null at the end of the file
+         */
+        public Record next() throws IOException {
+            long nanos;
+            try {
+                nanos = in.readLong();
+            } catch (EOFException e) {
+                return null;
+            }
+            long connectionId = in.readLong();
+            byte direction = in.readByte();
+            byte[] payload = new byte[in.readUnsignedShort()];
+            in.readFully(payload);
+            return new Record(nanos, connectionId, direction, payload);
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,213 @@
+package com.pridebank.token.server;
+
+import com.pridebank.token.iso.IsoCodec;
+import com.pridebank.token.iso.IsoMac;
+import com.pridebank.token.iso.ResponseTemplates;
+import com.pridebank.token.service.AtmTransactionProcessor;
+import com.solab.iso8583.IsoMessage;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+/**
+ * The staged transaction engine: decode, validate, convert, ESB and encode each run on their own
+ * threads, connected by {@link PipelineStage} rings.
+ * <p>
+ * The pooled engine runs all of them on one worker for the whole transaction, so a worker
+ * waiting seconds on the ESB holds a thread that could have been parsing. Here the CPU-bound
+ * stages keep a few threads busy and the ESB stage alone holds the many that wait on the
+ * network. A full downstream ring makes the stage before it wait, so overload backs up to the
+ * decode ring, where {@link #submit} fails and the listener answers 91.
+ */
+@Slf4j
+final class TransactionPipeline {
+
+    private final IsoCodec codec;
+    private final boolean recycle;
+    private final ResponseTemplates responses;
+    private final IsoMac mac;
+    private final AtmTransactionProcessor processor;
+    private final PipelineStage<Transaction> decode;
+    private final PipelineStage<Transaction> validate;
+    private final PipelineStage<Transaction> convert;
+    private final PipelineStage<Transaction> esb;
+    private final PipelineStage<Transaction> encode;
+
+    /**
+     * @param recycle decode into the connections' recycled messages and release each request and
+     *                reply once the reply is encoded
+     * @param mac     verifies requests and signs replies; null when MACing is off
+     */
+    TransactionPipeline(IsoListenerProperties.Staged config, IsoCodec codec, boolean recycle,
+                        ResponseTemplates responses, IsoMac mac, AtmTransactionProcessor processor,
+                        MeterRegistry registry) {
+        this.codec = codec;
+        this.recycle = recycle;
+        this.responses = responses;
+        this.mac = mac;
+        this.processor = processor;
+        this.encode = stage("encode", config.getEncode(), this::encode, registry);
+        this.esb = stage("esb", config.getEsb(), this::callEsb, registry);
+        this.convert = stage("convert", config.getConvert(), this::convert, registry);
+        this.validate = stage("validate", config.getValidate(), this::validate, registry);
+        this.decode = stage("decode", config.getDecode(), this::decode, registry);
+    }
+
+    private PipelineStage<Transaction> stage(String name, IsoListenerProperties.Stage config,
+                                             Consumer<Transaction> step, MeterRegistry registry) {
+        Consumer<Transaction> handler = tx -> {
+            try {
+                step.accept(tx);
+            } catch (RuntimeException e) {
+                fail(tx, e);
+            }
+        };
+        return new PipelineStage<>(name, config.getThreads(), config.getCapacity(), config.getBatchSize(),
+                handler, registry);
+    }
+
+    void start() {
+        encode.start();
+        esb.start();
+        convert.start();
+        validate.start();
+        decode.start();
+    }
+
+    /**
+     * @return false when the decode ring is full; {@code result} is then left to the caller
+     */
+    boolean submit(IsoFrame frame, IsoConnection connection, CompletableFuture<byte[]> result) {
+        return decode.offer(new Transaction(frame, connection, result));
+    }
+
+    private void decode(Transaction tx) {
+        boolean authentic;
+        try {
+            authentic = mac == null || mac.verifyRequest(tx.frame.array(), tx.frame.length());
+            tx.request = IsoListener.parseFrame(codec, tx.frame, tx.connection, recycle);
+        } catch (Exception e) {
+            tx.result.completeExceptionally(e);
+            return;
+        }
+        if (tx.request == null) {
+            tx.result.complete(IsoListener.signed(mac, responses.formatError()));
+            return;
+        }
+        if (!authentic) {
+            finish(tx, IsoListener.macFailure(tx.request, tx.connection, responses, codec, processor));
+            return;
+        }
+        tx.connection.terminalSeen(IsoListener.terminalId(tx.request));
+        // Pipelined replies are matched by terminal + STAN, so the pair must be unique in flight
+        String key = IsoListener.requestKey(tx.request);
+        if (key != null && !tx.connection.beginRequest(key)) {
+            log.warn("Duplicate request {} from {} while the original is in flight", key, tx.connection.getRemote());
+            byte[] reply = errorResponse(tx.request, "94", "Duplicate transmission");
+            tx.connection.messages().release(tx.request);
+            tx.result.complete(IsoListener.signed(mac, reply));
+            return;
+        }
+        tx.key = key;
+        validate.put(tx);
+    }
+
+    private void validate(Transaction tx) {
+        String rejection = processor.rejection(tx.request);
+        if (rejection != null) {
+            // Written from the response templates here; there is nothing left for the encoders
+            finish(tx, errorResponse(tx.request, "30", rejection));
+            return;
+        }
+        convert.put(tx);
+    }
+
+    private void convert(Transaction tx) {
+        try {
+            tx.json = processor.toJson(tx.request);
+        } catch (Exception e) {
+            fail(tx, e);
+            return;
+        }
+        esb.put(tx);
+    }
+
+    private void callEsb(Transaction tx) {
+        tx.json = processor.callEsb(tx.json, tx.request);
+        encode.put(tx);
+    }
+
+    private void encode(Transaction tx) {
+        byte[] reply;
+        try {
+            IsoMessage response = processor.toIso(tx.json, tx.request);
+            reply = codec.encode(response);
+            tx.connection.messages().release(response);
+        } catch (Exception e) {
+            fail(tx, e);
+            return;
+        }
+        finish(tx, reply);
+    }
+
+    private void fail(Transaction tx, Exception e) {
+        if (tx.request == null) {
+            tx.result.completeExceptionally(e);
+            return;
+        }
+        try {
+            processor.failed(tx.request, e);
+            finish(tx, errorResponse(tx.request, "96", "System error"));
+        } catch (RuntimeException encodingFailed) {
+            if (tx.key != null) tx.connection.endRequest(tx.key);
+            tx.connection.messages().release(tx.request);
+            tx.result.completeExceptionally(encodingFailed);
+        }
+    }
+
+    private byte[] errorResponse(IsoMessage request, String responseCode, String message) {
+        return IsoListener.errorResponse(responses, codec, processor, request, responseCode, message);
+    }
+
+    /**
+     * Completes the transaction with its encoded reply, signed when MACing is on; the request is
+     * released before the result is completed, as nothing reads it afterwards.
+     */
+    private void finish(Transaction tx, byte[] reply) {
+        if (tx.key != null) {
+            tx.connection.endRequest(tx.key);
+        }
+        tx.connection.messages().release(tx.request);
+        tx.result.complete(IsoListener.signed(mac, reply));
+    }
+
+    void stop() {
+        decode.stop();
+        validate.stop();
+        convert.stop();
+        esb.stop();
+        encode.stop();
+    }
+
+    /**
+     * One frame on its way through the stages; each stage hands it on with its own result
+     * filled in.
+     */
+    private static final class Transaction {
+
+        private final IsoFrame frame;
+        private final IsoConnection connection;
+        private final CompletableFuture<byte[]> result;
+        private IsoMessage request;
+        private String key;
+        private String json;
+
+        private Transaction(IsoFrame frame, IsoConnection connection, CompletableFuture<byte[]> result) {
+            this.frame = frame;
+            this.connection = connection;
+            this.result = result;
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package com.pridebank.token.server;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Access to virtual-thread executors without raising the compile target.
+ * <p>
+ * The project builds on Java 17, so {@code Executors.newVirtualThreadPerTaskExecutor()} is
+ * looked up reflectively. On a Java 21+ runtime every task gets its own virtual thread; on
+ * older runtimes {@link #isAvailable()} returns false and callers keep their platform pools.
+ */
+@Slf4j
+public final class VirtualThreadSupport {
+
+    private static final Method NEW_PER_TASK_EXECUTOR = lookup();
+
+    private VirtualThreadSupport() {
+    }
+
+    public static boolean isAvailable() {
+        return NEW_PER_TASK_EXECUTOR != null;
+    }
+
+    public static ExecutorService newPerTaskExecutor() {
+        if (NEW_PER_TASK_EXECUTOR == null) {
+            throw new IllegalStateException("Virtual threads require Java 21 or newer, running on "
+                    + Runtime.version());
+        }
+        try {
+            return (ExecutorService) NEW_PER_TASK_EXECUTOR.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Unable to create virtual thread executor", e);
+        }
+    }
+
+    private static Method lookup() {
+        try {
+            return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+}
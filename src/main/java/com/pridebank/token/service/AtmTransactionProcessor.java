@@ -31,27 +31,84 @@ public class AtmTransactionProcessor {
     private IsoValidator isoValidator;
 
     public IsoMessage processTransaction(IsoMessage isoRequest) {
-        String stan = (isoRequest != null && isoRequest.hasField(11)) ?
-                isoRequest.getObjectValue(11).toString() : "unknown";
-
         // Validate request first
-        IsoValidator.ValidationResult vr = isoValidator.validate0200(isoRequest);
-        if (!vr.isValid()) {
-            log.warn("Validation failed - STAN: {} - {}", stan, vr.summary());
-            // 30 = Format error
-            return createErrorResponse(isoRequest, "30", truncate(vr.summary()));
+        IsoMessage rejected = validate(isoRequest);
+        if (rejected != null) {
+            return rejected;
         }
 
         try {
-            assert isoRequest != null;
-            String jsonRequest = isoToJsonConverter.convert(isoRequest);
-            String jsonResponse = esbGatewayService.sendToEsb(jsonRequest, isoRequest);
-            return jsonToIsoConverter.convert(jsonResponse, isoRequest);
+            return exchange(isoRequest);
 
         } catch (Exception e) {
-            log.error("Transaction failed - STAN: {}", stan, e);
-            return createErrorResponse(isoRequest, "96", "System error");
+            return systemError(isoRequest, e);
+        }
+    }
+
+    /*
+     * The steps of processTransaction, for engines that run them as separate stages.
+     */
+
+    /**
+     * @return the 30 (format error) response for an invalid request, or null when it is valid
+     */
+    public IsoMessage validate(IsoMessage isoRequest) {
+        String rejection = rejection(isoRequest);
+        // 30 = Format error
+        return rejection != null ? createErrorResponse(isoRequest, "30", rejection) : null;
+    }
+
+    /**
+     * @return the field 44 text of the 30 response for an invalid request, or null when it is valid
+     */
+    public String rejection(IsoMessage isoRequest) {
+        IsoValidator.ValidationResult vr = isoValidator.validate0200(isoRequest);
+        if (vr.isValid()) {
+            return null;
         }
+        log.warn("Validation failed - STAN: {} - {}", stan(isoRequest), vr.summary());
+        return truncate(vr.summary());
+    }
+
+    /**
+     * Converts a valid request, sends it to the ESB and converts the answer.
+     */
+    public IsoMessage exchange(IsoMessage isoRequest) throws Exception {
+        String jsonRequest = toJson(isoRequest);
+        String jsonResponse = callEsb(jsonRequest, isoRequest);
+        return toIso(jsonResponse, isoRequest);
+    }
+
+    public String toJson(IsoMessage isoRequest) throws Exception {
+        return isoToJsonConverter.convert(isoRequest);
+    }
+
+    public String callEsb(String jsonRequest, IsoMessage isoRequest) {
+        return esbGatewayService.sendToEsb(jsonRequest, isoRequest);
+    }
+
+    public IsoMessage toIso(String jsonResponse, IsoMessage isoRequest) throws Exception {
+        return jsonToIsoConverter.convert(jsonResponse, isoRequest);
+    }
+
+    /**
+     * The 96 response for a transaction that failed after validation.
+     */
+    public IsoMessage systemError(IsoMessage isoRequest, Exception e) {
+        failed(isoRequest, e);
+        return createErrorResponse(isoRequest, "96", "System error");
+    }
+
+    /**
+     * Logs a transaction that failed after validation; the caller answers 96.
+     */
+    public void failed(IsoMessage isoRequest, Exception e) {
+        log.error("Transaction failed - STAN: {}", stan(isoRequest), e);
+    }
+
+    private static String stan(IsoMessage isoRequest) {
+        return (isoRequest != null && isoRequest.hasField(11)) ?
+                isoRequest.getObjectValue(11).toString() : "unknown";
     }
 
     public IsoMessage createErrorResponse(IsoMessage request, String responseCode, String message) {
@@ -4,6 +4,7 @@ import com.solab.iso8583.IsoMessage;
 import com.solab.iso8583.IsoType;
 import com.solab.iso8583.IsoValue;
 import com.solab.iso8583.MessageFactory;
+import com.pridebank.token.iso.LazyIsoMessage;
 import com.pridebank.token.util.StanGenerator;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -89,16 +90,34 @@ public class IsoMessageBuilder {
     }
 
     public IsoMessage createResponseFromRequest(IsoMessage request, int responseMti) {
+        if (request instanceof LazyIsoMessage view) {
+            // Fields still as received are echoed as their bytes, without a decode / clone / encode
+            LazyIsoMessage reply = view.reply(messageFactory, responseMti, IsoMessageBuilder::echoed);
+            if (reply != null) {
+                copyFields(request, reply);
+                return reply;
+            }
+        }
+
         // If request is null, return an empty message for the MTI to avoid NPEs
         IsoMessage response = messageFactory.newMessage(responseMti);
         if (request == null) {
             return response;
         }
+        copyFields(request, response);
+        return response;
+    }
 
+    private static boolean echoed(int field) {
+        // skip response-only fields
+        return field <= 64 && field != 38 && field != 39 && field != 44 && field != 54;
+    }
+
+    private static void copyFields(IsoMessage request, IsoMessage response) {
         // Copy relevant fields from request
         for (int i = 2; i <= 64; i++) {
-            // skip response-only fields
-            if (i == 38 || i == 39 || i == 44 || i == 54) {
+            // A pending field of a reply view is already echoed
+            if (!echoed(i) || response instanceof LazyIsoMessage reply && reply.isPending(i)) {
                 continue;
             }
 
@@ -107,7 +126,5 @@ public class IsoMessageBuilder {
                 response.setField(i, field.clone());
             }
         }
-
-        return response;
     }
-}
\ No newline at end of file
+}
@@ -25,7 +25,7 @@ public class JsonToIsoConverter {
 
     public IsoMessage convert(String jsonResponse, IsoMessage originalRequest) throws Exception {
         JsonNode json = objectMapper.readTree(jsonResponse);
-        int responseMti = originalRequest.getType() + 10;
+        int responseMti = originalRequest.getType() + 0x10;
         IsoMessage response = isoMessageBuilder.createResponseFromRequest(originalRequest, responseMti);
 
         if (json.hasNonNull("authorizationCode")) {
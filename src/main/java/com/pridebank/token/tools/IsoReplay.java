@@ -0,0 +1,255 @@
+package com.pridebank.token.tools;
+
+import com.pridebank.token.config.IsoConfig;
+import com.pridebank.token.server.TrafficCapture;
+import com.solab.iso8583.IsoMessage;
+import com.solab.iso8583.MessageFactory;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Drives the inbound frames of a {@link TrafficCapture} file back at a gateway.
+ * <p>
+ * Every captured connection gets a connection of its own, opened when its first frame is due.
+ * Frames go out in capture order at their recorded offsets divided by the speed factor, or back
+ * to back at maximum speed. Replies are matched to requests by STAN (field 11), falling back to
+ * the oldest request outstanding on the connection, and the report gives throughput and latency
+ * percentiles. Latency runs from when a frame was due, not from when it actually went out, so a
+ * gateway that stalls the replay is charged for the frames that queued up behind the stall.
+ * Outbound frames in the capture are ignored: the gateway under test answers.
+ * <p>
+ * Runs from the packaged jar:
+ * <pre>
+ * java -cp token-gateway.jar -Dloader.main=com.pridebank.token.tools.IsoReplay \
+ *     org.springframework.boot.loader.PropertiesLauncher capture/default.isocap localhost 7790 10
+ * </pre>
+ * The last argument is the speed: {@code 1} replays in real time, {@code N} N times faster and
+ * {@code max} without pauses.
+ */
+@Slf4j
+public class IsoReplay {
+
+    private static final long REPLY_GRACE_MS = 10_000;
+
+    private final Path file;
+    private final String host;
+    private final int port;
+    private final double speed;
+    private final MessageFactory<IsoMessage> messageFactory;
+
+    /**
+     * @param speed playback factor; zero or less replays at maximum speed
+     */
+    public IsoReplay(Path file, String host, int port, double speed, MessageFactory<IsoMessage> messageFactory) {
+        this.file = file;
+        this.host = host;
+        this.port = port;
+        this.speed = speed;
+        this.messageFactory = messageFactory;
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 3) {
+            System.err.println("Usage: IsoReplay <capture file> <host> <port> [speed | max]");
+            System.exit(2);
+        }
+        String speedArg = args.length > 3 ? args[3] : "1";
+        double speed = "max".equalsIgnoreCase(speedArg) ? 0 : Double.parseDouble(speedArg);
+        Report report = new IsoReplay(Path.of(args[0]), args[1], Integer.parseInt(args[2]), speed,
+                new IsoConfig().messageFactory()).run();
+        System.out.println(report);
+    }
+
+    public Report run() throws IOException, InterruptedException {
+        Map<Long, ReplayConnection> connections = new HashMap<>();
+        Recorder recorder = new Recorder();
+        long firstNanos = -1;
+        long start = System.nanoTime();
+
+        try (TrafficCapture.Reader reader = new TrafficCapture.Reader(file)) {
+            TrafficCapture.Record record;
+            while ((record = reader.next()) != null) {
+                if (!record.isInbound()) {
+                    continue;
+                }
+                if (firstNanos < 0) {
+                    firstNanos = record.nanos();
+                    start = System.nanoTime();
+                }
+                long due = System.nanoTime();
+                if (speed > 0) {
+                    due = start + (long) ((record.nanos() - firstNanos) / speed);
+                    long wait;
+                    while ((wait = due - System.nanoTime()) > 0) {
+                        LockSupport.parkNanos(wait);
+                    }
+                }
+                ReplayConnection connection = connections.get(record.connectionId());
+                if (connection == null) {
+                    connection = new ReplayConnection(new Socket(host, port), recorder);
+                    connections.put(record.connectionId(), connection);
+                }
+                connection.send(record.payload(), due);
+            }
+        }
+        long sentAt = System.nanoTime();
+        long graceDeadline = sentAt + TimeUnit.MILLISECONDS.toNanos(REPLY_GRACE_MS);
+        while (recorder.replies.get() < recorder.sent.get() && System.nanoTime() < graceDeadline) {
+            Thread.sleep(10);
+        }
+        long end = System.nanoTime();
+        connections.values().forEach(ReplayConnection::close);
+        return recorder.report(end - start);
+    }
+
+    private final class ReplayConnection {
+
+        private final Socket socket;
+        private final OutputStream out;
+        private final Recorder recorder;
+        private final Map<String, Long> byStan = new HashMap<>();
+        private final Deque<Long> outstanding = new ArrayDeque<>();
+
+        private ReplayConnection(Socket socket, Recorder recorder) throws IOException {
+            this.socket = socket;
+            this.socket.setTcpNoDelay(true);
+            this.out = socket.getOutputStream();
+            this.recorder = recorder;
+            Thread reader = new Thread(this::readReplies, "iso-replay-" + socket.getLocalPort());
+            reader.setDaemon(true);
+            reader.start();
+        }
+
+        /**
+         * @param due when the frame should have gone out; its latency is measured from then
+         */
+        void send(byte[] payload, long due) throws IOException {
+            byte[] frame = new byte[payload.length + 2];
+            frame[0] = (byte) (payload.length >> 8);
+            frame[1] = (byte) payload.length;
+            System.arraycopy(payload, 0, frame, 2, payload.length);
+            String stan = stan(payload);
+            synchronized (this) {
+                if (stan != null) {
+                    byStan.put(stan, due);
+                }
+                outstanding.add(due);
+            }
+            recorder.sent.incrementAndGet();
+            out.write(frame);
+        }
+
+        private void readReplies() {
+            try {
+                DataInputStream in = new DataInputStream(socket.getInputStream());
+                while (true) {
+                    byte[] payload = new byte[in.readUnsignedShort()];
+                    in.readFully(payload);
+                    long now = System.nanoTime();
+                    String stan = stan(payload);
+                    Long sent;
+                    synchronized (this) {
+                        sent = stan != null ? byStan.remove(stan) : null;
+                        if (sent != null) {
+                            outstanding.remove(sent);
+                        } else {
+                            sent = outstanding.poll();
+                        }
+                    }
+                    if (sent != null) {
+                        recorder.record(now - sent);
+                    }
+                }
+            } catch (EOFException e) {
+                // Gateway closed the connection
+            } catch (IOException e) {
+                if (!socket.isClosed()) {
+                    log.warn("Replay connection {} failed: {}", socket.getLocalPort(), e.getMessage());
+                }
+            }
+        }
+
+        private String stan(byte[] payload) {
+            try {
+                IsoMessage message = messageFactory.parseMessage(payload, 0);
+                return message.hasField(11) ? message.getObjectValue(11).toString() : null;
+            } catch (Exception e) {
+                return null;
+            }
+        }
+
+        void close() {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                log.debug("Error closing replay connection", e);
+            }
+        }
+    }
+
+    private static final class Recorder {
+
+        private final AtomicLong sent = new AtomicLong();
+        private final AtomicLong replies = new AtomicLong();
+        private long[] latencies = new long[1024];
+
+        synchronized void record(long nanos) {
+            int n = (int) replies.get();
+            if (n == latencies.length) {
+                latencies = Arrays.copyOf(latencies, n * 2);
+            }
+            latencies[n] = nanos;
+            replies.incrementAndGet();
+        }
+
+        synchronized Report report(long elapsedNanos) {
+            long[] sorted = Arrays.copyOf(latencies, (int) replies.get());
+            Arrays.sort(sorted);
+            return new Report(sent.get(), sorted.length, elapsedNanos, sorted);
+        }
+    }
+
+    /**
+     * Outcome of one replay; latencies in nanoseconds, sorted.
+     */
+    public record Report(long sent, long answered, long elapsedNanos, long[] latencies) {
+
+        public double throughput() {
+            return elapsedNanos > 0 ? answered * 1e9 / elapsedNanos : 0;
+        }
+
+        /**
+         * @param percentile between 0 and 100
+         */
+        public long percentile(double percentile) {
+            if (latencies.length == 0) {
+                return 0;
+            }
+            int index = (int) Math.ceil(percentile / 100 * latencies.length) - 1;
+            return latencies[Math.max(0, Math.min(latencies.length - 1, index))];
+        }
+
+        @Override
+        public String toString() {
+            return String.format("sent %d, answered %d in %.1f s (%.1f/s); latency ms p50 %.2f, p90 %.2f, "
+                            + "p99 %.2f, p99.9 %.2f, max %.2f",
+                    sent, answered, elapsedNanos / 1e9, throughput(),
+                    percentile(50) / 1e6, percentile(90) / 1e6, percentile(99) / 1e6,
+                    percentile(99.9) / 1e6, percentile(100) / 1e6);
+        }
+    }
+}
@@ -8,6 +8,7 @@ import java.time.Clock;
 import java.time.LocalDate;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
 
 @Slf4j
 @Component
@@ -21,6 +22,9 @@ public class StanGenerator {
 
     private volatile LocalDate lastResetDate;
 
+    // ReentrantLock rather than synchronized so callers on virtual threads do not pin their carrier
+    private final ReentrantLock lock = new ReentrantLock();
+
     public StanGenerator() {
         // lastResetDate will be set on first use via clock to avoid NPE before injection
         this.lastResetDate = LocalDate.now();
@@ -29,26 +33,36 @@ public class StanGenerator {
     private static final int MAX_STAN = 999999;
     private static final int MIN_STAN = 1;
 
-    public synchronized String generateStan() {
-        checkDailyReset();
-        int stan = globalCounter.getAndIncrement();
-        if (stan > MAX_STAN) {
-            globalCounter.set(MIN_STAN);
-            stan = MIN_STAN;
+    public String generateStan() {
+        lock.lock();
+        try {
+            checkDailyReset();
+            int stan = globalCounter.getAndIncrement();
+            if (stan > MAX_STAN) {
+                globalCounter.set(MIN_STAN);
+                stan = MIN_STAN;
+            }
+            return String.format("%06d", stan);
+        } finally {
+            lock.unlock();
         }
-        return String.format("%06d", stan);
     }
 
-    public synchronized String generateStanForTerminal(String terminalId) {
-        checkDailyReset();
-        AtomicInteger counter = terminalCounters.computeIfAbsent(
-                terminalId, k -> new AtomicInteger(MIN_STAN));
-        int stan = counter.getAndIncrement();
-        if (stan > MAX_STAN) {
-            counter.set(MIN_STAN);
-            stan = MIN_STAN;
+    public String generateStanForTerminal(String terminalId) {
+        lock.lock();
+        try {
+            checkDailyReset();
+            AtomicInteger counter = terminalCounters.computeIfAbsent(
+                    terminalId, k -> new AtomicInteger(MIN_STAN));
+            int stan = counter.getAndIncrement();
+            if (stan > MAX_STAN) {
+                counter.set(MIN_STAN);
+                stan = MIN_STAN;
+            }
+            return String.format("%06d", stan);
+        } finally {
+            lock.unlock();
         }
-        return String.format("%06d", stan);
     }
 
     private void checkDailyReset() {
@@ -62,9 +76,14 @@ public class StanGenerator {
         }
     }
 
-    public synchronized void resetAllCounters() {
-        globalCounter.set(MIN_STAN);
-        terminalCounters.clear();
-        log.info("All STAN counters reset");
+    public void resetAllCounters() {
+        lock.lock();
+        try {
+            globalCounter.set(MIN_STAN);
+            terminalCounters.clear();
+            log.info("All STAN counters reset");
+        } finally {
+            lock.unlock();
+        }
     }
 }
\ No newline at end of file
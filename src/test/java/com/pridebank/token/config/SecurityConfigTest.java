@@ -0,0 +1,53 @@
+package com.pridebank.token.config;
+
+import com.pridebank.token.security.JwtTokenProvider;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.web.servlet.MockMvc;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@SpringBootTest(properties = {
+        "jwt.secret=test-secret-that-is-long-enough-for-hs512-signing-0123456789abcdef",
+        "jwt.operators=ops",
+        "atm.server.port=${random.int[20000,60000]}"
+})
+@AutoConfigureMockMvc
+class SecurityConfigTest {
+
+    @Autowired
+    private MockMvc mvc;
+
+    @Autowired
+    private JwtTokenProvider tokens;
+
+    @Test
+    void ordinaryTokenCannotDrainOrCloseConnections() throws Exception {
+        String client = "Bearer " + tokens.generateToken("atm-client", "secret");
+
+        mvc.perform(post("/actuator/isoconnections/1").header("Authorization", client))
+                .andExpect(status().isForbidden());
+        mvc.perform(delete("/actuator/isoconnections/1").header("Authorization", client))
+                .andExpect(status().isForbidden());
+        mvc.perform(get("/actuator/isoconnections").header("Authorization", client))
+                .andExpect(status().isForbidden());
+    }
+
+    @Test
+    void operatorTokenReachesTheEndpoint() throws Exception {
+        String operator = "Bearer " + tokens.generateToken("ops", "secret");
+
+        // Past security: the unknown connection is the endpoint's own 404
+        mvc.perform(post("/actuator/isoconnections/1").header("Authorization", operator))
+                .andExpect(status().isNotFound());
+        mvc.perform(delete("/actuator/isoconnections/1").header("Authorization", operator))
+                .andExpect(status().isNotFound());
+        mvc.perform(get("/actuator/isoconnections").header("Authorization", operator))
+                .andExpect(status().isOk());
+    }
+}
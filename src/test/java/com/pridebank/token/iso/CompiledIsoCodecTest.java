@@ -0,0 +1,196 @@
+package com.pridebank.token.iso;
+
+import com.pridebank.token.config.IsoConfig;
+import com.solab.iso8583.IsoMessage;
+import com.solab.iso8583.IsoType;
+import com.solab.iso8583.IsoValue;
+import com.solab.iso8583.MessageFactory;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
+
+/**
+ * Differential tests: the compiled codec must agree with j8583 byte for byte and field for field.
+ */
+class CompiledIsoCodecTest {
+
+    private static final int[] TYPES = {0x200, 0x210, 0x231};
+
+    private final MessageFactory<IsoMessage> mf = new IsoConfig().messageFactory();
+    private final CompiledIsoCodec codec = new CompiledIsoCodec(mf);
+    private final CompiledIsoCodec lazy = new CompiledIsoCodec(mf, true);
+    private final Random random = new Random(8583);
+
+    @Test
+    void encodesRandomMessagesLikeJ8583() {
+        for (int n = 0; n < 2000; n++) {
+            IsoMessage message = randomMessage();
+            assertThat(codec.encode(message)).as("message %d", n).isEqualTo(message.writeData());
+        }
+    }
+
+    @Test
+    void decodesRandomMessagesLikeJ8583() throws Exception {
+        for (int n = 0; n < 2000; n++) {
+            byte[] data = randomMessage().writeData();
+            assertSameMessage(codec.decode(data, data.length), mf.parseMessage(data, 0));
+            assertSameMessage(lazy.decode(data, data.length), mf.parseMessage(data, 0));
+        }
+    }
+
+    @Test
+    void wellFormedTransactionsNeverReachTheMessageFactory() throws Exception {
+        MessageFactory<IsoMessage> spy = Mockito.spy(mf);
+        CompiledIsoCodec compiled = new CompiledIsoCodec(spy);
+        for (int n = 0; n < 100; n++) {
+            byte[] data = randomMessage().writeData();
+            compiled.decode(data, data.length);
+        }
+        Mockito.verify(spy, Mockito.never()).parseMessage(Mockito.any(), Mockito.anyInt());
+    }
+
+    @Test
+    void encodesOddValuesTheWayJ8583Does() {
+        IsoMessage message = mf.newMessage(0x210);
+        // Declared length shorter than the value: j8583 writes the declared length
+        message.setValue(44, "Insufficient funds available", IsoType.LLVAR, 25);
+        message.setValue(41, "TERMINAL-0001", IsoType.ALPHA, 8);
+        message.setValue(4, 500L, IsoType.NUMERIC, 12);
+        message.setValue(3, 11, IsoType.NUMERIC, 6);
+        message.setValue(64, new byte[]{1, 2, 3}, IsoType.BINARY, 8);
+        message.setValue(70, "1", IsoType.NUMERIC, 3);
+
+        assertThat(codec.encode(message)).isEqualTo(message.writeData());
+    }
+
+    @Test
+    void leavesNonAsciiAndUnsupportedValuesToJ8583() throws Exception {
+        IsoMessage message = mf.newMessage(0x210);
+        message.setValue(44, "Café closed", IsoType.LLVAR, 0);
+        message.setValue(4, new java.math.BigDecimal("12.50"), IsoType.NUMERIC, 12);
+        assertThat(codec.encode(message)).isEqualTo(message.writeData());
+
+        IsoMessage tooLong = mf.newMessage(0x200);
+        tooLong.setValue(3, "1234567", IsoType.NUMERIC, 6);
+        assertThat(catchThrowable(() -> codec.encode(tooLong)))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage(catchThrowable(tooLong::writeData).getMessage());
+
+        byte[] echo = mf.newMessage(0x800).writeData();
+        assertSameMessage(codec.decode(echo, echo.length), mf.parseMessage(echo, 0));
+    }
+
+    @Test
+    void truncatedAndCorruptPayloadsFailOrParseExactlyLikeJ8583() throws Exception {
+        for (int n = 0; n < 50; n++) {
+            byte[] data = randomMessage().writeData();
+            for (int length = 0; length <= data.length; length += 1 + random.nextInt(7)) {
+                byte[] cut = Arrays.copyOf(data, length);
+                compareDecoding(cut);
+            }
+            byte[] corrupt = data.clone();
+            corrupt[12 + random.nextInt(data.length - 12)] = (byte) random.nextInt(256);
+            compareDecoding(corrupt);
+        }
+    }
+
+    private void compareDecoding(byte[] data) throws Exception {
+        IsoMessage expected;
+        try {
+            expected = mf.parseMessage(data, 0);
+        } catch (Exception e) {
+            Throwable actual = catchThrowable(() -> codec.decode(data, data.length));
+            assertThat(actual).isInstanceOf(e.getClass()).hasMessage(e.getMessage());
+            return;
+        }
+        assertSameMessage(codec.decode(data, data.length), expected);
+    }
+
+    private static void assertSameMessage(IsoMessage actual, IsoMessage expected) {
+        if (expected == null) {
+            assertThat(actual).isNull();
+            return;
+        }
+        assertThat(actual.getType()).isEqualTo(expected.getType());
+        assertThat(actual.getCharacterEncoding()).isEqualTo(expected.getCharacterEncoding());
+        assertThat(actual.isBinaryBitmap()).isEqualTo(expected.isBinaryBitmap());
+        for (int i = 2; i <= 128; i++) {
+            assertThat(actual.hasField(i)).as("field %d present", i).isEqualTo(expected.hasField(i));
+            if (!expected.hasField(i)) {
+                continue;
+            }
+            IsoValue<Object> a = actual.getField(i);
+            IsoValue<Object> e = expected.getField(i);
+            assertThat(a.getType()).as("field %d type", i).isEqualTo(e.getType());
+            assertThat(a.getLength()).as("field %d length", i).isEqualTo(e.getLength());
+            assertThat(a.getCharacterEncoding()).as("field %d encoding", i).isEqualTo(e.getCharacterEncoding());
+            assertThat(a.getTimeZone()).as("field %d time zone", i).isEqualTo(e.getTimeZone());
+            if (e.getValue() instanceof byte[] bytes) {
+                assertThat((byte[]) a.getValue()).as("field %d", i).isEqualTo(bytes);
+            } else {
+                assertThat(a.getValue()).as("field %d", i).isEqualTo(e.getValue());
+            }
+        }
+        assertThat(actual.writeData()).isEqualTo(expected.writeData());
+    }
+
+    private IsoMessage randomMessage() {
+        IsoMessage m = mf.newMessage(TYPES[random.nextInt(TYPES.length)]);
+        m.setValue(2, digits(12 + random.nextInt(8)), IsoType.LLVAR, 0);
+        m.setValue(3, digits(6), IsoType.NUMERIC, 6);
+        if (random.nextBoolean()) {
+            m.setValue(4, (long) random.nextInt(10_000_000), IsoType.NUMERIC, 12);
+        } else {
+            m.setValue(4, digits(1 + random.nextInt(12)), IsoType.NUMERIC, 12);
+        }
+        // Whole seconds within the past year, as DATE10 carries no year or milliseconds
+        long now = System.currentTimeMillis() / 1000 * 1000;
+        m.setValue(7, new Date(now - random.nextInt(300 * 24 * 3600) * 1000L), IsoType.DATE10, 10);
+        m.setValue(11, digits(6), IsoType.NUMERIC, 6);
+        m.setValue(41, text(random.nextInt(9)), IsoType.ALPHA, 8);
+        m.setValue(39, text(2), IsoType.ALPHA, 2);
+        m.setValue(44, text(random.nextInt(26)), IsoType.LLVAR, 0);
+        m.setValue(54, text(random.nextInt(120)), IsoType.LLLVAR, 0);
+        m.setValue(55, hex(random.nextInt(200)), IsoType.LLLVAR, 0);
+        byte[] mac = new byte[8];
+        random.nextBytes(mac);
+        m.setValue(64, mac, IsoType.BINARY, 8);
+        // Drop a random selection so every field is exercised absent as well as present
+        for (int i = 2; i <= 70; i++) {
+            if (m.hasField(i) && random.nextInt(4) == 0) {
+                m.removeFields(i);
+            }
+        }
+        return m;
+    }
+
+    private String digits(int n) {
+        StringBuilder sb = new StringBuilder(n);
+        for (int i = 0; i < n; i++) {
+            sb.append((char) ('0' + random.nextInt(10)));
+        }
+        return sb.toString();
+    }
+
+    private String text(int n) {
+        StringBuilder sb = new StringBuilder(n);
+        for (int i = 0; i < n; i++) {
+            sb.append((char) (' ' + random.nextInt(95)));
+        }
+        return sb.toString();
+    }
+
+    private String hex(int n) {
+        StringBuilder sb = new StringBuilder(n);
+        for (int i = 0; i < n; i++) {
+            sb.append("0123456789ABCDEF".charAt(random.nextInt(16)));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,148 @@
+package com.pridebank.token.iso;
+
+import com.pridebank.token.config.IsoConfig;
+import com.solab.iso8583.IsoMessage;
+import com.solab.iso8583.IsoType;
+import com.solab.iso8583.MessageFactory;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class EmvTlvTest {
+
+    private static final String EMV = "9F2608C2C12B098F3DA6E3" + "9F270180" + "9F10120110A0000F040000000000000000000000FF"
+            + "95050000008000" + "9F36020011" + "5F2A020566" + "70038A0130";
+
+    private final MessageFactory<IsoMessage> mf = new IsoConfig().messageFactory();
+    private final EmvTlv tlv = new EmvTlv();
+
+    private EmvTlv wrap(String hex) {
+        byte[] chars = hex.getBytes(StandardCharsets.US_ASCII);
+        return tlv.wrap(chars, 0, chars.length);
+    }
+
+    @Test
+    void iteratesTheTopLevelElements() {
+        wrap(EMV);
+        List<String> tags = new ArrayList<>();
+        while (tlv.next()) {
+            tags.add(Integer.toHexString(tlv.tag()).toUpperCase() + ":" + tlv.length());
+        }
+
+        assertThat(tags).containsExactly("9F26:8", "9F27:1", "9F10:18", "95:5", "9F36:2", "5F2A:2", "70:3");
+        assertThat(tlv.malformed()).isFalse();
+    }
+
+    @Test
+    void looksUpTagsAndReadsTheirValues() {
+        wrap(EMV);
+
+        assertThat(tlv.find(0x9F26)).isTrue();
+        assertThat(tlv.valueLong()).isEqualTo(0xC2C12B098F3DA6E3L);
+        assertThat(tlv.valueHex()).isEqualTo("C2C12B098F3DA6E3");
+        assertThat(tlv.find(0x9F27)).isTrue();
+        assertThat(tlv.valueByte(0)).isEqualTo(0x80);
+        assertThat(tlv.find(0x95)).isTrue();
+        assertThat(tlv.valueLong()).isEqualTo(0x0000008000L);
+        assertThat(tlv.find(0x70)).isTrue();
+        assertThat(tlv.constructed()).isTrue();
+        assertThat(tlv.find(0x8A)).as("nested, not top level").isFalse();
+        assertThat(tlv.find(0x9F37)).isFalse();
+    }
+
+    @Test
+    void readsLongFormLengthsAndLowerCaseHex() {
+        String value = "ab".repeat(200);
+        wrap("9f1081C8" + value.substring(0, 400) + "DF8101820100" + "00".repeat(256));
+
+        assertThat(tlv.next()).isTrue();
+        assertThat(tlv.tag()).isEqualTo(0x9F10);
+        assertThat(tlv.length()).isEqualTo(200);
+        assertThat(tlv.valueByte(199)).isEqualTo(0xAB);
+        assertThat(tlv.next()).isTrue();
+        assertThat(tlv.tag()).isEqualTo(0xDF8101);
+        assertThat(tlv.length()).isEqualTo(256);
+        assertThat(tlv.next()).isFalse();
+        assertThat(tlv.malformed()).isFalse();
+    }
+
+    @Test
+    void stopsAtDataThatIsNotTlv() {
+        for (String bad : new String[]{"9F2608C2C1", "9F2", "9G2601AA", "9F26", "9F2683000001AA", "DF818181010100"}) {
+            wrap(bad);
+            while (tlv.next()) {
+                // skip to the bad element
+            }
+            assertThat(tlv.malformed()).as(bad).isTrue();
+            assertThat(tlv.rewrittenLength(new int[0], new byte[0][])).as(bad).isEqualTo(-1);
+        }
+    }
+
+    @Test
+    void rewritesSelectedTagsAndCopiesTheRest() {
+        wrap(EMV);
+        int[] tags = {0x9F27, 0x95, 0x91};
+        byte[][] values = {{0x40}, null, {0x11, 0x22, (byte) 0xAB}};
+
+        byte[] out = new byte[tlv.rewrittenLength(tags, values)];
+        assertThat(tlv.rewrite(tags, values, out, 0)).isEqualTo(out.length);
+
+        assertThat(new String(out, StandardCharsets.US_ASCII)).isEqualTo("9F2608C2C12B098F3DA6E3" + "9F270140"
+                + "9F10120110A0000F040000000000000000000000FF" + "9F36020011" + "5F2A020566" + "70038A0130"
+                + "91031122AB");
+    }
+
+    @Test
+    void rewritesLongValuesWithLongFormLengths() {
+        wrap("");
+        byte[] value = new byte[300];
+        int[] tags = {0x9F10};
+        byte[][] values = {value};
+
+        byte[] out = new byte[tlv.rewrittenLength(tags, values)];
+        tlv.rewrite(tags, values, out, 0);
+
+        tlv.wrap(out, 0, out.length);
+        assertThat(new String(out, 0, 10, StandardCharsets.US_ASCII)).isEqualTo("9F1082012C");
+        assertThat(tlv.find(0x9F10)).isTrue();
+        assertThat(tlv.length()).isEqualTo(300);
+    }
+
+    @Test
+    void readsAnUnchangedLazyFieldInPlace() throws Exception {
+        IsoMessage m = mf.newMessage(0x200);
+        m.setValue(55, EMV, IsoType.LLLVAR, 0);
+        byte[] frame = m.writeData();
+        LazyIsoMessage view = (LazyIsoMessage) new CompiledIsoCodec(mf, true).decode(frame, frame.length);
+
+        assertThat(tlv.wrap(view)).isTrue();
+        assertThat(tlv.find(0x9F27)).isTrue();
+        assertThat(tlv.valueByte(0)).isEqualTo(0x80);
+        assertThat(view.isPending(55)).isTrue();
+
+        assertThat(tlv.rewrite(view, new int[]{0x9F27}, new byte[][]{{0x00}})).isTrue();
+        assertThat(view.getObjectValue(55).toString()).isEqualTo(EMV.replace("9F270180", "9F270100"));
+        assertThat(tlv.wrap(view)).isTrue();
+        assertThat(tlv.find(0x9F27)).isTrue();
+        assertThat(tlv.valueByte(0)).isEqualTo(0x00);
+    }
+
+    @Test
+    void readsParsedMessagesThroughTheirValue() throws Exception {
+        IsoMessage m = mf.newMessage(0x200);
+        m.setValue(55, EMV, IsoType.LLLVAR, 0);
+        IsoMessage parsed = mf.parseMessage(m.writeData(), 0);
+
+        assertThat(tlv.wrap(parsed)).isTrue();
+        assertThat(tlv.find(0x95)).isTrue();
+        assertThat(tlv.length()).isEqualTo(5);
+
+        parsed.removeFields(55);
+        assertThat(tlv.wrap(parsed)).isFalse();
+        assertThat(tlv.next()).isFalse();
+    }
+}
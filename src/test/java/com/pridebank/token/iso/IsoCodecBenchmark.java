@@ -0,0 +1,201 @@
+package com.pridebank.token.iso;
+
+import com.pridebank.token.TestInjection;
+import com.pridebank.token.config.IsoConfig;
+import com.pridebank.token.service.AtmTransactionProcessor;
+import com.pridebank.token.service.IsoMessageBuilder;
+import com.solab.iso8583.IsoMessage;
+import com.solab.iso8583.IsoType;
+import com.solab.iso8583.MessageFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * j8583 against the compiled codec on an EMV-bearing 0200 and its 0210 reply. The {@code read}
+ * benchmarks decode the request and read the fields validation and conversion use; the
+ * {@code error} ones answer it with a 96, built and encoded or written from the templates, and
+ * the {@code round trip} ones decode it, read those fields and encode a built 0210, the recycled
+ * one with the request and reply taken from and released to an {@link IsoMessagePool}. The
+ * {@code emv} ones decode it and look up 9F26, 9F27 and 95 in field 55 with an {@link EmvTlv}.
+ * <pre>
+ * mvn -q test-compile dependency:build-classpath -Dmdep.outputFile=target/cp.txt
+ * java -cp target/test-classes:target/classes:$(cat target/cp.txt) org.openjdk.jmh.Main IsoCodecBenchmark -prof gc
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IsoCodecBenchmark {
+
+    private MessageFactory<IsoMessage> messageFactory;
+    private IsoCodec j8583;
+    private IsoCodec compiled;
+    private IsoCodec lazy;
+    private IsoMessagePool pool;
+    private final EmvTlv tlv = new EmvTlv();
+    private byte[] request;
+    private IsoMessage reply;
+    private IsoMessage parsed;
+    private IsoMessage view;
+    private AtmTransactionProcessor processor;
+    private ResponseTemplates templates;
+    private IsoMessageBuilder builder;
+
+    @Setup
+    public void setUp() throws Exception {
+        messageFactory = new IsoConfig().messageFactory();
+        j8583 = IsoCodec.j8583(messageFactory);
+        compiled = new CompiledIsoCodec(messageFactory);
+        lazy = new CompiledIsoCodec(messageFactory, true);
+        pool = new IsoMessagePool(4);
+
+        IsoMessage m = new IsoMessage();
+        m.setType(0x200);
+        m.setBinaryBitmap(true);
+        m.setCharacterEncoding("UTF-8");
+        m.setValue(2, "5399831234567890", IsoType.LLVAR, 0);
+        m.setValue(3, "011000", IsoType.NUMERIC, 6);
+        m.setValue(4, "000000050000", IsoType.NUMERIC, 12);
+        m.setValue(7, new Date(), IsoType.DATE10, 10);
+        m.setValue(11, "123456", IsoType.NUMERIC, 6);
+        m.setValue(12, "101500", IsoType.NUMERIC, 6);
+        m.setValue(13, "1017", IsoType.NUMERIC, 4);
+        m.setValue(41, "TERM0001", IsoType.ALPHA, 8);
+        m.setValue(49, "566", IsoType.NUMERIC, 3);
+        m.setValue(55, "9F2608C2C12B098F3DA6E39F2701809F10120110A0000F040000000000000000000000FF"
+                + "9F3704A1B2C3D49F36020011950500000080009A032510179C01009F02060000000500005F2A020566"
+                + "82025C009F1A0205669F03060000000000009F3303E0F8C8", IsoType.LLLVAR, 0);
+        m.setValue(64, new byte[8], IsoType.BINARY, 8);
+        request = m.writeData();
+
+        parsed = compiled.decode(request, request.length);
+        view = lazy.decode(request, request.length);
+        builder = new IsoMessageBuilder();
+        TestInjection.set(builder, "messageFactory", messageFactory);
+        processor = new AtmTransactionProcessor();
+        TestInjection.set(processor, "messageFactory", messageFactory);
+        TestInjection.set(processor, "isoMessageBuilder", builder);
+        templates = new ResponseTemplates(messageFactory);
+
+        reply = messageFactory.newMessage(0x210);
+        reply.setValue(11, "123456", IsoType.NUMERIC, 6);
+        reply.setValue(38, "A1B2C3", IsoType.ALPHA, 6);
+        reply.setValue(39, "00", IsoType.ALPHA, 2);
+        reply.setValue(41, "TERM0001", IsoType.ALPHA, 8);
+        reply.setValue(44, "Approved", IsoType.LLVAR, 0);
+        reply.setValue(54, "1001566C000000120000", IsoType.LLLVAR, 0);
+    }
+
+    @Benchmark
+    public IsoMessage decodeJ8583() throws Exception {
+        return j8583.decode(request, request.length);
+    }
+
+    @Benchmark
+    public IsoMessage decodeCompiled() throws Exception {
+        return compiled.decode(request, request.length);
+    }
+
+    @Benchmark
+    public IsoMessage decodeLazy() throws Exception {
+        return lazy.decode(request, request.length);
+    }
+
+    @Benchmark
+    public void readCompiled(Blackhole bh) throws Exception {
+        read(compiled.decode(request, request.length), bh);
+    }
+
+    @Benchmark
+    public void readLazy(Blackhole bh) throws Exception {
+        read(lazy.decode(request, request.length), bh);
+    }
+
+    private static void read(IsoMessage message, Blackhole bh) {
+        for (int field : new int[]{2, 3, 4, 7, 11, 41, 49}) {
+            bh.consume(message.getObjectValue(field));
+        }
+    }
+
+    @Benchmark
+    public byte[] encodeJ8583() {
+        return j8583.encode(reply);
+    }
+
+    @Benchmark
+    public byte[] encodeCompiled() {
+        return compiled.encode(reply);
+    }
+
+    @Benchmark
+    public byte[] errorBuilt() {
+        return compiled.encode(processor.createErrorResponse(parsed, "96", "System error"));
+    }
+
+    @Benchmark
+    public byte[] errorTemplate() {
+        return templates.error(parsed, "96", "System error");
+    }
+
+    @Benchmark
+    public byte[] errorTemplateEcho() {
+        return templates.error(view, "96", "System error");
+    }
+
+    @Benchmark
+    public byte[] roundTripCompiled(Blackhole bh) throws Exception {
+        IsoMessage message = compiled.decode(request, request.length);
+        read(message, bh);
+        return compiled.encode(builder.build0210(message, "00", "A1B2C3"));
+    }
+
+    @Benchmark
+    public byte[] roundTripLazy(Blackhole bh) throws Exception {
+        IsoMessage message = lazy.decode(request, request.length);
+        read(message, bh);
+        return lazy.encode(builder.build0210(message, "00", "A1B2C3"));
+    }
+
+    @Benchmark
+    public byte[] roundTripRecycled(Blackhole bh) throws Exception {
+        IsoMessage message = lazy.decode(request, request.length, pool);
+        read(message, bh);
+        IsoMessage response = builder.build0210(message, "00", "A1B2C3");
+        byte[] reply = lazy.encode(response);
+        pool.release(response);
+        pool.release(message);
+        return reply;
+    }
+
+    @Benchmark
+    public void emvParsed(Blackhole bh) throws Exception {
+        emv(j8583.decode(request, request.length), bh);
+    }
+
+    @Benchmark
+    public void emvLazy(Blackhole bh) throws Exception {
+        emv(lazy.decode(request, request.length), bh);
+    }
+
+    private void emv(IsoMessage message, Blackhole bh) {
+        tlv.wrap(message);
+        if (tlv.find(0x9F26)) bh.consume(tlv.valueLong());
+        if (tlv.find(0x9F27)) bh.consume(tlv.valueByte(0));
+        if (tlv.find(0x95)) bh.consume(tlv.valueLong());
+    }
+}
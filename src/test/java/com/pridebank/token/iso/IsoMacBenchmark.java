@@ -0,0 +1,86 @@
+package com.pridebank.token.iso;
+
+import com.pridebank.token.config.IsoConfig;
+import com.solab.iso8583.IsoMessage;
+import com.solab.iso8583.IsoType;
+import com.solab.iso8583.MessageFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-message cost of the field 64 MAC on the EMV-bearing 0200 of {@link IsoCodecBenchmark} and
+ * an 0210 of the same size: verifying the request and signing the reply in place, and for
+ * comparison signing with primitives created and keyed for the one message.
+ * <pre>
+ * mvn -q test-compile dependency:build-classpath -Dmdep.outputFile=target/cp.txt
+ * java -cp target/test-classes:target/classes:$(cat target/cp.txt) org.openjdk.jmh.Main IsoMacBenchmark -prof gc
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IsoMacBenchmark {
+
+    private static final String KEY = "0123456789ABCDEFFEDCBA9876543210";
+
+    @Param({"retail", "hmac-sha256"})
+    public String algorithm;
+
+    private MessageFactory<IsoMessage> messageFactory;
+    private IsoMac mac;
+    private byte[] request;
+    private byte[] reply;
+
+    @Setup
+    public void setUp() {
+        messageFactory = new IsoConfig().messageFactory();
+        mac = IsoMac.of(messageFactory, algorithm, KEY);
+        request = mac.sign(message(messageFactory, 0x200).writeData());
+        reply = message(messageFactory, 0x210).writeData();
+    }
+
+    private static IsoMessage message(MessageFactory<IsoMessage> messageFactory, int type) {
+        IsoMessage m = messageFactory.newMessage(type);
+        m.setValue(2, "5399831234567890", IsoType.LLVAR, 0);
+        m.setValue(3, "011000", IsoType.NUMERIC, 6);
+        m.setValue(4, "000000050000", IsoType.NUMERIC, 12);
+        m.setValue(7, new Date(), IsoType.DATE10, 10);
+        m.setValue(11, "123456", IsoType.NUMERIC, 6);
+        m.setValue(41, "TERM0001", IsoType.ALPHA, 8);
+        m.setValue(55, "9F2608C2C12B098F3DA6E39F2701809F10120110A0000F040000000000000000000000FF"
+                + "9F3704A1B2C3D49F36020011950500000080009A032510179C01009F02060000000500005F2A020566"
+                + "82025C009F1A0205669F03060000000000009F3303E0F8C8", IsoType.LLLVAR, 0);
+        m.setValue(64, new byte[8], IsoType.BINARY, 8);
+        return m;
+    }
+
+    @Benchmark
+    public boolean verifyRequest() {
+        return mac.verifyRequest(request, request.length);
+    }
+
+    @Benchmark
+    public byte[] signReply() {
+        return mac.signReply(reply);
+    }
+
+    @Benchmark
+    public byte[] signReplyUncached() {
+        return IsoMac.of(messageFactory, algorithm, KEY).signReply(reply);
+    }
+}
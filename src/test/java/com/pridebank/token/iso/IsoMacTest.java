@@ -0,0 +1,182 @@
+package com.pridebank.token.iso;
+
+import com.pridebank.token.config.IsoConfig;
+import com.solab.iso8583.IsoMessage;
+import com.solab.iso8583.IsoType;
+import com.solab.iso8583.MessageFactory;
+import org.junit.jupiter.api.Test;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class IsoMacTest {
+
+    private static final String KEY = "0123456789ABCDEFFEDCBA9876543210";
+
+    private final MessageFactory<IsoMessage> mf = new IsoConfig().messageFactory();
+    private final IsoMac retail = IsoMac.of(mf, "retail", KEY);
+    private final IsoMac hmac = IsoMac.of(mf, "hmac-sha256", KEY);
+    private final Random random = new Random(64);
+
+    @Test
+    void retailMacIsX919OverEverythingButField64() throws Exception {
+        for (int n = 0; n < 200; n++) {
+            byte[] signed = retail.sign(randomMessage(0x200).writeData());
+
+            IsoMessage parsed = mf.parseMessage(signed, 0);
+            assertThat((byte[]) parsed.getObjectValue(64)).as("message %d", n).isEqualTo(x919(withoutField64(signed)));
+            assertThat(retail.verify(signed, signed.length)).isTrue();
+        }
+    }
+
+    @Test
+    void hmacIsTruncatedHmacSha256OverEverythingButField64() throws Exception {
+        Mac reference = Mac.getInstance("HmacSHA256");
+        reference.init(new SecretKeySpec(HexFormat.of().parseHex(KEY), "HmacSHA256"));
+        for (int n = 0; n < 200; n++) {
+            byte[] signed = hmac.sign(randomMessage(0x210).writeData());
+
+            IsoMessage parsed = mf.parseMessage(signed, 0);
+            assertThat((byte[]) parsed.getObjectValue(64))
+                    .isEqualTo(Arrays.copyOf(reference.doFinal(withoutField64(signed)), 8));
+            assertThat(hmac.verify(signed, signed.length)).isTrue();
+        }
+    }
+
+    @Test
+    void anyChangeToTheMessageFailsVerification() {
+        byte[] signed = retail.sign(randomMessage(0x200).writeData());
+        for (int i = 0; i < signed.length; i++) {
+            byte[] tampered = signed.clone();
+            tampered[i] ^= 0x01;
+            assertThat(retail.verify(tampered, tampered.length)).as("byte %d", i).isFalse();
+        }
+        assertThat(hmac.verify(signed, signed.length)).isFalse();
+    }
+
+    @Test
+    void verifiesOnlyRequestsAndSignsOnlyReplies() {
+        IsoMessage request = randomMessage(0x200);
+        request.removeFields(64);
+        byte[] unsigned = request.writeData();
+        assertThat(retail.verifyRequest(unsigned, unsigned.length)).isFalse();
+
+        IsoMessage echo = mf.newMessage(0x800);
+        echo.setValue(11, "000001", IsoType.NUMERIC, 6);
+        byte[] network = echo.writeData();
+        assertThat(retail.verifyRequest(network, network.length)).isTrue();
+        assertThat(retail.signReply(network)).isSameAs(network);
+        assertThat(retail.signReply(unsigned)).isSameAs(unsigned);
+
+        byte[] reply = randomMessage(0x231).writeData();
+        assertThat(retail.signReply(reply)).isSameAs(reply);
+        assertThat(retail.verify(reply, reply.length)).isTrue();
+    }
+
+    @Test
+    void addsField64WhenTheReplyHasNone() throws Exception {
+        IsoMessage reply = randomMessage(0x210);
+        reply.removeFields(64);
+
+        byte[] signed = retail.signReply(reply.writeData());
+
+        IsoMessage parsed = mf.parseMessage(signed, 0);
+        assertThat(parsed.hasField(64)).isTrue();
+        assertThat(parsed.getObjectValue(70).toString()).isEqualTo(reply.getObjectValue(70).toString());
+        assertThat(retail.verify(signed, signed.length)).isTrue();
+    }
+
+    @Test
+    void threadsComputeTheSameMacs() throws Exception {
+        byte[] message = randomMessage(0x200).writeData();
+        byte[] expected = retail.sign(message.clone());
+        ExecutorService threads = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<byte[]>> results = new ArrayList<>();
+            for (int i = 0; i < 64; i++) {
+                results.add(threads.submit(() -> retail.sign(message.clone())));
+            }
+            for (Future<byte[]> result : results) {
+                assertThat(result.get()).isEqualTo(expected);
+            }
+        } finally {
+            threads.shutdown();
+        }
+    }
+
+    @Test
+    void rejectsUnusableSettings() {
+        assertThatThrownBy(() -> IsoMac.of(mf, "retail", "0123")).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> IsoMac.of(mf, "retail", "")).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> IsoMac.of(mf, "cmac", KEY)).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    /**
+     * ISO 9797-1 algorithm 3 the long way: CBC under K1 up to the last block, then that block
+     * through triple DES with K1 K2 K1.
+     */
+    private static byte[] x919(byte[] data) throws Exception {
+        byte[] key = HexFormat.of().parseHex(KEY);
+        byte[] padded = Arrays.copyOf(data, (data.length + 7) / 8 * 8);
+        byte[] chained = new byte[8];
+        if (padded.length > 8) {
+            Cipher cbc = Cipher.getInstance("DES/CBC/NoPadding");
+            cbc.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(key, 0, 8, "DES"), new IvParameterSpec(new byte[8]));
+            byte[] out = cbc.doFinal(padded, 0, padded.length - 8);
+            chained = Arrays.copyOfRange(out, out.length - 8, out.length);
+        }
+        byte[] last = Arrays.copyOfRange(padded, padded.length - 8, padded.length);
+        for (int i = 0; i < 8; i++) {
+            last[i] ^= chained[i];
+        }
+        byte[] k1k2k1 = new byte[24];
+        System.arraycopy(key, 0, k1k2k1, 0, 16);
+        System.arraycopy(key, 0, k1k2k1, 16, 8);
+        Cipher ede = Cipher.getInstance("DESede/ECB/NoPadding");
+        ede.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(k1k2k1, "DESede"));
+        return ede.doFinal(last);
+    }
+
+    private static byte[] withoutField64(byte[] message) {
+        int start = CompiledIsoCodec.fieldOffset(message, message.length, 64);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(message, 0, start);
+        out.write(message, start + 16, message.length - start - 16);
+        return out.toByteArray();
+    }
+
+    private IsoMessage randomMessage(int type) {
+        IsoMessage m = mf.newMessage(type);
+        m.setValue(2, digits(12 + random.nextInt(8)), IsoType.LLVAR, 0);
+        m.setValue(4, (long) random.nextInt(10_000_000), IsoType.NUMERIC, 12);
+        m.setValue(7, new Date(), IsoType.DATE10, 10);
+        m.setValue(11, digits(6), IsoType.NUMERIC, 6);
+        m.setValue(41, "TERM" + digits(4), IsoType.ALPHA, 8);
+        m.setValue(55, digits(random.nextInt(300)), IsoType.LLLVAR, 0);
+        m.setValue(64, new byte[8], IsoType.BINARY, 8);
+        return m;
+    }
+
+    private String digits(int n) {
+        StringBuilder sb = new StringBuilder(n);
+        for (int i = 0; i < n; i++) {
+            sb.append((char) ('0' + random.nextInt(10)));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,121 @@
+package com.pridebank.token.iso;
+
+import com.pridebank.token.config.IsoConfig;
+import com.pridebank.token.service.IsoMessageBuilder;
+import com.pridebank.token.util.StanGenerator;
+import com.solab.iso8583.IsoMessage;
+import com.solab.iso8583.IsoType;
+import com.solab.iso8583.MessageFactory;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Clock;
+import java.util.Date;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class IsoMessagePoolTest {
+
+    private final MessageFactory<IsoMessage> mf = new IsoConfig().messageFactory();
+    private final IsoCodec lazy = new CompiledIsoCodec(mf, true);
+    private final IsoMessagePool pool = new IsoMessagePool(4);
+    private final Random random = new Random(23);
+    private IsoMessageBuilder builder;
+
+    @BeforeEach
+    void setUp() {
+        builder = new IsoMessageBuilder();
+        ReflectionTestUtils.setField(builder, "messageFactory", mf);
+        ReflectionTestUtils.setField(builder, "stanGenerator", new StanGenerator());
+        ReflectionTestUtils.setField(builder, "clock", Clock.systemUTC());
+    }
+
+    @Test
+    void recycledMessagesReadAndReplyLikeFreshOnes() throws Exception {
+        for (int n = 0; n < 500; n++) {
+            byte[] frame = randomRequest();
+            IsoMessage fresh = lazy.decode(frame, frame.length);
+            byte[] expected = lazy.encode(builder.build0210(fresh, "00", "A1B2C3"));
+
+            IsoMessage request = lazy.decode(frame, frame.length, pool);
+            assertThat(request.getObjectValue(11).toString()).isEqualTo(fresh.getObjectValue(11).toString());
+            assertThat(request.hasField(55)).isEqualTo(fresh.hasField(55));
+            IsoMessage reply = builder.build0210(request, "00", "A1B2C3");
+            assertThat(lazy.encode(reply)).as("frame %d", n).isEqualTo(expected);
+            assertThat(request.writeData()).as("frame %d", n).isEqualTo(mf.parseMessage(frame, 0).writeData());
+
+            pool.release(reply);
+            pool.release(request);
+        }
+    }
+
+    @Test
+    void steadyTrafficReusesTheSameMessages() throws Exception {
+        byte[] frame = randomRequest();
+        IsoMessage request = lazy.decode(frame, frame.length, pool);
+        IsoMessage reply = builder.build0210(request, "00", "A1B2C3");
+        pool.release(reply);
+        pool.release(request);
+        assertThat(pool.size()).isEqualTo(2);
+
+        for (int n = 0; n < 10; n++) {
+            IsoMessage next = lazy.decode(frame, frame.length, pool);
+            IsoMessage nextReply = builder.build0210(next, "00", "A1B2C3");
+            assertThat(next).isIn(request, reply);
+            assertThat(nextReply).isIn(request, reply);
+            lazy.encode(nextReply);
+            pool.release(nextReply);
+            pool.release(next);
+        }
+        assertThat(pool.size()).isEqualTo(2);
+    }
+
+    @Test
+    void releasingTwiceOrReleasingOtherMessagesIsIgnored() throws Exception {
+        byte[] frame = randomRequest();
+        IsoMessage request = lazy.decode(frame, frame.length, pool);
+        pool.release(request);
+        pool.release(request);
+        pool.release(lazy.decode(frame, frame.length));
+        pool.release(mf.parseMessage(frame, 0));
+        pool.release(null);
+
+        assertThat(pool.size()).isEqualTo(1);
+    }
+
+    @Test
+    void malformedFramesDoNotKeepTheirMessage() throws Exception {
+        byte[] frame = randomRequest();
+        byte[] truncated = java.util.Arrays.copyOf(frame, frame.length - 3);
+
+        IsoMessage eager = lazy.decode(truncated, truncated.length, pool);
+        assertThat(eager).isNotInstanceOf(LazyIsoMessage.class);
+        assertThat(pool.size()).isEqualTo(1);
+        assertThat(lazy.decode(frame, frame.length, pool).writeData())
+                .isEqualTo(mf.parseMessage(frame, 0).writeData());
+    }
+
+    private byte[] randomRequest() {
+        IsoMessage m = builder.build0200(digits(12 + random.nextInt(8)), (long) random.nextInt(10_000_000),
+                "TERM" + digits(4), digits(6));
+        m.setValue(7, new Date(System.currentTimeMillis() / 1000 * 1000), IsoType.DATE10, 10);
+        if (random.nextBoolean()) {
+            m.setValue(55, digits(random.nextInt(200)), IsoType.LLLVAR, 0);
+        }
+        if (random.nextBoolean()) {
+            m.setValue(62, digits(random.nextInt(40)), IsoType.LLLVAR, 0);
+        }
+        m.setValue(64, new byte[]{1, 2, 3, 4, 5, 6, 7, 8}, IsoType.BINARY, 8);
+        return m.writeData();
+    }
+
+    private String digits(int n) {
+        StringBuilder sb = new StringBuilder(n);
+        for (int i = 0; i < n; i++) {
+            sb.append((char) ('0' + random.nextInt(10)));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,153 @@
+package com.pridebank.token.iso;
+
+import com.pridebank.token.config.IsoConfig;
+import com.pridebank.token.service.IsoMessageBuilder;
+import com.pridebank.token.service.IsoToJsonConverter;
+import com.pridebank.token.util.StanGenerator;
+import com.pridebank.token.validation.IsoValidator;
+import com.solab.iso8583.IsoMessage;
+import com.solab.iso8583.IsoType;
+import com.solab.iso8583.MessageFactory;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Clock;
+import java.util.Date;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class LazyIsoMessageTest {
+
+    private static final String EMV = "9F2608C2C12B098F3DA6E39F2701809F10120110A0000F040000000000000000000000FF";
+
+    private final MessageFactory<IsoMessage> mf = new IsoConfig().messageFactory();
+    private final IsoCodec lazy = new CompiledIsoCodec(mf, true);
+    private IsoMessageBuilder builder;
+    private byte[] request;
+
+    @BeforeEach
+    void setUp() {
+        builder = new IsoMessageBuilder();
+        ReflectionTestUtils.setField(builder, "messageFactory", mf);
+        ReflectionTestUtils.setField(builder, "stanGenerator", new StanGenerator());
+        ReflectionTestUtils.setField(builder, "clock", Clock.systemUTC());
+
+        IsoMessage m = builder.build0200("5399831234567890", 50000L, "TERM0001", "123456");
+        m.setValue(7, new Date(System.currentTimeMillis() / 1000 * 1000), IsoType.DATE10, 10);
+        m.setValue(55, EMV, IsoType.LLLVAR, 0);
+        m.setValue(62, "PRIVATE-DATA", IsoType.LLLVAR, 0);
+        m.setValue(64, new byte[]{1, 2, 3, 4, 5, 6, 7, 8}, IsoType.BINARY, 8);
+        request = m.writeData();
+    }
+
+    private LazyIsoMessage decode() throws Exception {
+        return (LazyIsoMessage) lazy.decode(request, request.length);
+    }
+
+    @Test
+    void decodesOnlyTheFieldsThatAreRead() throws Exception {
+        LazyIsoMessage view = decode();
+
+        assertThat(view.hasField(55)).isTrue();
+        assertThat(view.hasField(50)).isFalse();
+        assertThat(view.isPending(55)).isTrue();
+
+        assertThat(view.getObjectValue(11).toString()).isEqualTo("123456");
+        assertThat(view.isPending(11)).isFalse();
+        assertThat(view.isPending(2)).isTrue();
+        assertThat(view.isPending(55)).isTrue();
+        assertThat(view.isPending(64)).isTrue();
+    }
+
+    @Test
+    void validatorAndConverterReadTheSameValuesWithoutTouchingEmvData() throws Exception {
+        IsoMessage eager = mf.parseMessage(request, 0);
+        LazyIsoMessage view = decode();
+        IsoValidator validator = new IsoValidator();
+        IsoToJsonConverter converter = new IsoToJsonConverter();
+
+        assertThat(validator.validate0200(view).isValid()).isEqualTo(validator.validate0200(eager).isValid());
+        assertThat(converter.convert(view)).isEqualTo(converter.convert(eager));
+        assertThat(view.isPending(55)).isTrue();
+        assertThat(view.isPending(62)).isTrue();
+        assertThat(view.isPending(64)).isTrue();
+    }
+
+    @Test
+    void builtResponsesMatchThoseOfTheParsedRequest() throws Exception {
+        IsoMessage eager = mf.parseMessage(request, 0);
+
+        assertThat(builder.build0210(decode(), "00", "A1B2C3").writeData())
+                .isEqualTo(builder.build0210(eager, "00", "A1B2C3").writeData());
+        assertThat(builder.build0231(decode(), "30", "Field 4 invalid").writeData())
+                .isEqualTo(builder.build0231(eager, "30", "Field 4 invalid").writeData());
+    }
+
+    @Test
+    void repliesEchoUnchangedFieldsAsTheirBytes() throws Exception {
+        IsoMessage eager = mf.parseMessage(request, 0);
+        LazyIsoMessage view = decode();
+        view.getObjectValue(2);
+        view.setValue(62, "CHANGED", IsoType.LLLVAR, 0);
+        eager.setValue(62, "CHANGED", IsoType.LLLVAR, 0);
+
+        IsoMessage reply = builder.build0210(view, "00", "A1B2C3");
+        byte[] expected = builder.build0210(eager, "00", "A1B2C3").writeData();
+
+        assertThat(lazy.encode(reply)).isEqualTo(expected);
+        assertThat(view.isPending(55)).isTrue();
+        assertThat(((LazyIsoMessage) reply).isPending(55)).isTrue();
+        assertThat(new ResponseTemplates(mf).error(view, "96", "System error"))
+                .isEqualTo(errorReply(eager));
+        assertThat(view.isPending(55)).isTrue();
+        // Writing through j8583 decodes the echoed fields and gives the same bytes
+        assertThat(reply.writeData()).isEqualTo(expected);
+    }
+
+    @Test
+    void fieldsThatWouldReEncodeDifferentlyAreDecoded() throws Exception {
+        // Lower-case hex parses to the same MAC, but j8583 writes it back in upper case
+        byte[] lower = request.clone();
+        for (int i = lower.length - 16; i < lower.length; i++) {
+            lower[i] = (byte) Character.toLowerCase(lower[i]);
+        }
+        LazyIsoMessage view = (LazyIsoMessage) lazy.decode(lower, lower.length);
+        IsoMessage eager = mf.parseMessage(lower, 0);
+
+        assertThat(lazy.encode(builder.build0210(view, "00", "A1B2C3")))
+                .isEqualTo(builder.build0210(eager, "00", "A1B2C3").writeData());
+        assertThat(lazy.encode(view)).isEqualTo(eager.writeData());
+    }
+
+    private byte[] errorReply(IsoMessage request) {
+        IsoMessage reply = builder.createResponseFromRequest(request, 0x210);
+        reply.setValue(39, "96", IsoType.ALPHA, 2);
+        reply.setValue(44, "System error", IsoType.LLVAR, 12);
+        return reply.writeData();
+    }
+
+    @Test
+    void editsReplacePendingFieldsAndWritingDecodesTheRest() throws Exception {
+        IsoMessage eager = mf.parseMessage(request, 0);
+        LazyIsoMessage view = decode();
+        for (IsoMessage m : new IsoMessage[]{eager, view}) {
+            m.setValue(55, "9F2701", IsoType.LLLVAR, 0);
+            m.removeFields(62);
+            m.updateValue(11, "654321");
+        }
+
+        assertThat(view.isPending(55)).isFalse();
+        assertThat(view.hasField(62)).isFalse();
+        assertThat(view.writeData()).isEqualTo(eager.writeData());
+        assertThat(lazy.encode(view)).isEqualTo(eager.writeData());
+        assertThat(view.debugString()).isEqualTo(eager.debugString());
+    }
+
+    @Test
+    void malformedPayloadsAreParsedEagerlyByTheFactory() throws Exception {
+        byte[] echo = mf.newMessage(0x800).writeData();
+
+        assertThat(lazy.decode(echo, echo.length)).isNotInstanceOf(LazyIsoMessage.class);
+    }
+}
@@ -0,0 +1,134 @@
+package com.pridebank.token.iso;
+
+import com.pridebank.token.TestInjection;
+import com.pridebank.token.config.IsoConfig;
+import com.pridebank.token.service.AtmTransactionProcessor;
+import com.pridebank.token.service.IsoMessageBuilder;
+import com.pridebank.token.util.StanGenerator;
+import com.solab.iso8583.IsoMessage;
+import com.solab.iso8583.IsoType;
+import com.solab.iso8583.MessageFactory;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Date;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Differential tests: every templated reply must be byte for byte what the processor's error
+ * response encodes to.
+ */
+class ResponseTemplatesTest {
+
+    private static final String[] CODES = {"30", "91", "94", "96", null, ""};
+    private static final String[] MESSAGES = {"Duplicate transmission", "Field 4 missing; field 41 invalid",
+            "", "   ", null};
+
+    private final MessageFactory<IsoMessage> mf = new IsoConfig().messageFactory();
+    private final ResponseTemplates templates = new ResponseTemplates(mf);
+    private final CompiledIsoCodec lazy = new CompiledIsoCodec(mf, true);
+    private final Random random = new Random(210);
+    private AtmTransactionProcessor processor;
+
+    @BeforeEach
+    void setUp() {
+        IsoMessageBuilder builder = new IsoMessageBuilder();
+        TestInjection.set(builder, "messageFactory", mf);
+        TestInjection.set(builder, "stanGenerator", new StanGenerator());
+        TestInjection.set(builder, "clock", java.time.Clock.systemUTC());
+        processor = new AtmTransactionProcessor();
+        TestInjection.set(processor, "messageFactory", mf);
+        TestInjection.set(processor, "isoMessageBuilder", builder);
+    }
+
+    @Test
+    void errorRepliesMatchTheBuiltResponses() {
+        for (int n = 0; n < 1000; n++) {
+            IsoMessage request = randomRequest();
+            String code = CODES[random.nextInt(CODES.length)];
+            String message = MESSAGES[random.nextInt(MESSAGES.length)];
+
+            assertThat(templates.error(request, code, message))
+                    .as("request %d, code %s, message %s", n, code, message)
+                    .isEqualTo(processor.createErrorResponse(request, code, message).writeData());
+        }
+    }
+
+    @Test
+    void repliesEchoingLazyRequestsMatchTheBuiltResponses() throws Exception {
+        for (int n = 0; n < 1000; n++) {
+            byte[] frame = randomRequest().writeData();
+            String code = CODES[random.nextInt(CODES.length)];
+            String message = MESSAGES[random.nextInt(MESSAGES.length)];
+            byte[] expected = processor.createErrorResponse(mf.parseMessage(frame, 0), code, message).writeData();
+
+            assertThat(templates.error(lazy.decode(frame, frame.length), code, message))
+                    .as("request %d, code %s, message %s", n, code, message)
+                    .isEqualTo(expected);
+            assertThat(lazy.encode(processor.createErrorResponse(lazy.decode(frame, frame.length), code, message)))
+                    .as("request %d built from the view", n)
+                    .isEqualTo(expected);
+        }
+    }
+
+    @Test
+    void repliesWithoutARequestMatchTheBuiltResponses() {
+        for (String code : CODES) {
+            assertThat(templates.error(null, code, "System error"))
+                    .isEqualTo(processor.createErrorResponse(null, code, "System error").writeData());
+        }
+    }
+
+    @Test
+    void formatErrorIsTheMinimal0210() {
+        IsoMessage expected = mf.newMessage(0x210);
+        expected.setValue(39, "30", IsoType.ALPHA, 2);
+
+        byte[] reply = templates.formatError();
+        reply[0] = 'X';
+        assertThat(templates.formatError()).isEqualTo(expected.writeData());
+    }
+
+    @Test
+    void leavesWhatItCannotWriteToTheCaller() {
+        IsoMessage request = randomRequest();
+        assertThat(templates.error(request, "96", "Café fermé")).isNull();
+        assertThat(templates.error(request, "961", "System error")).isNull();
+
+        request.setValue(41, "TÉRM0001", IsoType.ALPHA, 8);
+        assertThat(templates.error(request, "96", "System error")).isNull();
+
+        IsoMessage network = mf.newMessage(0x800);
+        assertThat(templates.error(network, "96", "System error")).isNull();
+    }
+
+    private IsoMessage randomRequest() {
+        IsoMessage m = mf.newMessage(0x200);
+        m.setValue(2, digits(12 + random.nextInt(8)), IsoType.LLVAR, 0);
+        m.setValue(4, (long) random.nextInt(10_000_000), IsoType.NUMERIC, 12);
+        m.setValue(7, new Date(System.currentTimeMillis() / 1000 * 1000), IsoType.DATE10, 10);
+        m.setValue(11, digits(6), IsoType.NUMERIC, 6);
+        m.setValue(41, "TERM" + digits(random.nextInt(5)), IsoType.ALPHA, 8);
+        m.setValue(38, "A1B2C3", IsoType.ALPHA, 6);
+        m.setValue(54, digits(20), IsoType.LLLVAR, 0);
+        m.setValue(55, digits(random.nextInt(200)), IsoType.LLLVAR, 0);
+        m.setValue(64, new byte[]{1, 2, 3, 4, 5, 6, 7, 8}, IsoType.BINARY, 8);
+        // Drop a random selection so template values show through as well as echoed ones
+        for (int i = 2; i <= 70; i++) {
+            if (m.hasField(i) && random.nextInt(4) == 0) {
+                m.removeFields(i);
+            }
+        }
+        return m;
+    }
+
+    private String digits(int n) {
+        StringBuilder sb = new StringBuilder(n);
+        for (int i = 0; i < n; i++) {
+            sb.append((char) ('0' + random.nextInt(10)));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,85 @@
+package com.pridebank.token.server;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class AdaptivePoolSizerTest {
+
+    private static final long MS = 1_000_000L;
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final ThreadPoolExecutor pool =
+            new ThreadPoolExecutor(10, 10, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>());
+    private final AdaptivePoolSizer sizer = new AdaptivePoolSizer(pool, 4, 50, Duration.ofSeconds(1),
+            0.5, Duration.ofMillis(50), registry);
+
+    @AfterEach
+    void tearDown() {
+        pool.shutdownNow();
+    }
+
+    @Test
+    void growsToLittlesLawEstimateWhenTheEsbSlowsDown() {
+        // 20 tx/s at 1 s each keeps 20 workers busy; at 50% utilisation the pool wants 40
+        load(20, 1000 * MS, 0);
+
+        assertThat(sizer.evaluate(1.0)).isEqualTo(40);
+        assertThat(pool.getCorePoolSize()).isEqualTo(40);
+        assertThat(registry.get("atm.server.workers.resize").tag("direction", "grow").counter().count())
+                .isEqualTo(1.0);
+        assertThat(registry.get("atm.server.workers.size").gauge().value()).isEqualTo(40.0);
+    }
+
+    @Test
+    void neverLeavesConfiguredBounds() {
+        load(100, 1000 * MS, 0);
+        assertThat(sizer.evaluate(1.0)).isEqualTo(50);
+
+        for (int i = 0; i < 20; i++) {
+            sizer.evaluate(1.0);
+        }
+        // Settles at the minimum or within the shrink band above it, never below
+        assertThat(pool.getMaximumPoolSize()).isBetween(4, 5);
+    }
+
+    @Test
+    void shrinksOnlyAfterSustainedLowLoadAndHalfWay() {
+        // 1 tx/s at 100 ms wants the minimum of 4
+        for (int i = 1; i < AdaptivePoolSizer.SHRINK_AFTER_INTERVALS; i++) {
+            load(1, 100 * MS, 0);
+            assertThat(sizer.evaluate(1.0)).isEqualTo(10);
+        }
+        load(1, 100 * MS, 0);
+        assertThat(sizer.evaluate(1.0)).isEqualTo(7);
+    }
+
+    @Test
+    void smallDifferencesDoNotResize() {
+        // Wants 11 against a size of 10: inside the growth band
+        load(11, 500 * MS, 0);
+
+        assertThat(sizer.evaluate(1.0)).isEqualTo(10);
+    }
+
+    @Test
+    void queueWaitAboveThresholdGrowsEvenWhenEstimateDoesNot() {
+        load(2, 100 * MS, 200 * MS);
+
+        assertThat(sizer.evaluate(1.0)).isEqualTo(12);
+    }
+
+    private void load(int transactions, long serviceNanos, long queueWaitNanos) {
+        for (int i = 0; i < transactions; i++) {
+            sizer.arrived();
+            sizer.completed(queueWaitNanos, serviceNanos);
+        }
+    }
+}
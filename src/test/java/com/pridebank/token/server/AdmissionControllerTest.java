@@ -0,0 +1,87 @@
+package com.pridebank.token.server;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class AdmissionControllerTest {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final ExecutorService workers = Executors.newFixedThreadPool(1);
+    private final CountDownLatch releaseWorker = new CountDownLatch(1);
+
+    @AfterEach
+    void tearDown() {
+        releaseWorker.countDown();
+        workers.shutdownNow();
+    }
+
+    @Test
+    void rejectsImmediatelyWhenQueueIsFull() throws Exception {
+        AdmissionController admission = new AdmissionController(workers, 1, Duration.ofSeconds(10), registry);
+        blockWorker(admission);
+
+        admission.execute(() -> { }, () -> { });          // takes the only queue slot
+        AtomicBoolean rejected = new AtomicBoolean();
+        admission.execute(() -> { }, () -> rejected.set(true));
+
+        assertThat(rejected).isTrue();
+        assertThat(registry.get("atm.admission.rejected").tag("reason", "queue_full").counter().count())
+                .isEqualTo(1.0);
+        admission.shutdown();
+    }
+
+    @Test
+    void rejectsWhenQueueWaitBudgetExpiresAndNeverRunsTheTask() throws Exception {
+        AdmissionController admission = new AdmissionController(workers, 10, Duration.ofMillis(50), registry);
+        blockWorker(admission);
+
+        CountDownLatch rejected = new CountDownLatch(1);
+        AtomicBoolean ran = new AtomicBoolean();
+        admission.execute(() -> ran.set(true), rejected::countDown);
+
+        assertThat(rejected.await(2, TimeUnit.SECONDS)).isTrue();
+        assertThat(admission.getQueued()).isZero();
+
+        releaseWorker.countDown();
+        workers.shutdown();
+        assertThat(workers.awaitTermination(2, TimeUnit.SECONDS)).isTrue();
+        assertThat(ran).isFalse();
+        assertThat(registry.get("atm.admission.rejected").tag("reason", "queue_timeout").counter().count())
+                .isEqualTo(1.0);
+        admission.shutdown();
+    }
+
+    @Test
+    void runsTaskWithinBudget() throws Exception {
+        AdmissionController admission = new AdmissionController(workers, 10, Duration.ofSeconds(5), registry);
+        CountDownLatch ran = new CountDownLatch(1);
+        admission.execute(ran::countDown, () -> { });
+
+        assertThat(ran.await(2, TimeUnit.SECONDS)).isTrue();
+        assertThat(registry.get("atm.admission.queue.wait").timer().count()).isEqualTo(1);
+        admission.shutdown();
+    }
+
+    private void blockWorker(AdmissionController admission) throws InterruptedException {
+        CountDownLatch started = new CountDownLatch(1);
+        admission.execute(() -> {
+            started.countDown();
+            try {
+                releaseWorker.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, () -> { });
+        assertThat(started.await(2, TimeUnit.SECONDS)).isTrue();
+    }
+}
@@ -0,0 +1,60 @@
+package com.pridebank.token.server;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.InputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class BlockingIsoConnectionTest {
+
+    private final HashedWheelTimer timer = new HashedWheelTimer("test-timeouts", 20, 64);
+    private final ConnectionTimeouts timeouts =
+            new ConnectionTimeouts(timer, 30000, 5000, 30000, new SimpleMeterRegistry());
+
+    @AfterEach
+    void tearDown() {
+        timer.close();
+    }
+
+    @Test
+    void onlyAWriteThePeerStopsDrainingCountsAsBlocked() throws Exception {
+        try (ServerSocket server = new ServerSocket(0);
+             Socket peer = new Socket("127.0.0.1", server.getLocalPort());
+             Socket accepted = server.accept()) {
+            BlockingIsoConnection connection = new BlockingIsoConnection(accepted, timeouts);
+            InputStream in = peer.getInputStream();
+
+            connection.send(new byte[100]);
+            assertThat(in.readNBytes(102)).hasSize(102);
+            assertThat(connection.getWriteBlockedSince()).isZero();
+
+            // The peer stops reading: writes fill the socket buffers until one blocks
+            Thread writer = new Thread(() -> {
+                try {
+                    while (true) {
+                        connection.send(new byte[60000]);
+                    }
+                } catch (Exception e) {
+                    // closed below
+                }
+            });
+            writer.start();
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (connection.getWriteBlockedSince() == 0 && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+
+            assertThat(connection.getWriteBlockedSince()).isPositive();
+            assertThat(System.currentTimeMillis() - connection.getWriteBlockedSince())
+                    .isGreaterThanOrEqualTo(BlockingIsoConnection.STALLED_WRITE_MS);
+            connection.close();
+            writer.join(5000);
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package com.pridebank.token.server;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.channels.SocketChannel;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
+
+class ConnectionGateTest {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    @Test
+    void refusesConnectionsOverThePerAddressCap() throws Exception {
+        ConnectionGate gate = new ConnectionGate(0, 2, 0, 0, registry);
+        InetAddress atm = InetAddress.getByName("10.0.0.1");
+        InetAddress other = InetAddress.getByName("10.0.0.2");
+
+        assertThat(gate.tryOpen(atm)).isTrue();
+        assertThat(gate.tryOpen(atm)).isTrue();
+        assertThat(gate.tryOpen(atm)).isFalse();
+        assertThat(gate.tryOpen(other)).isTrue();
+
+        gate.closed(atm);
+        assertThat(gate.tryOpen(atm)).isTrue();
+        assertThat(gate.getOpen()).isEqualTo(3);
+        assertThat(refused("address_limit")).isEqualTo(1.0);
+    }
+
+    @Test
+    void refusesConnectionsOverTheGlobalCap() throws Exception {
+        ConnectionGate gate = new ConnectionGate(2, 0, 0, 0, registry);
+
+        assertThat(gate.tryOpen(InetAddress.getByName("10.0.0.1"))).isTrue();
+        assertThat(gate.tryOpen(InetAddress.getByName("10.0.0.2"))).isTrue();
+        assertThat(gate.tryOpen(InetAddress.getByName("10.0.0.3"))).isFalse();
+
+        assertThat(gate.getOpen()).isEqualTo(2);
+        assertThat(refused("global_limit")).isEqualTo(1.0);
+    }
+
+    @Test
+    void pacesAcceptsBeyondTheBurst() throws Exception {
+        // 20 accepts per second after a burst of 2: the next three wait about 50 ms each
+        ConnectionGate gate = new ConnectionGate(0, 0, 20, 2, registry);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < 5; i++) {
+            gate.awaitPermit();
+        }
+        long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+
+        assertThat(elapsedMs).isGreaterThanOrEqualTo(120);
+        assertThat(registry.get("atm.server.connections.deferred").counter().count()).isEqualTo(3.0);
+    }
+
+    @Test
+    void acceptorResetsRefusedConnectionsBeforeHandingThemOver() throws Exception {
+        int port;
+        try (ServerSocket ss = new ServerSocket(0)) {
+            port = ss.getLocalPort();
+        }
+        List<SocketChannel> handedOver = new CopyOnWriteArrayList<>();
+        AcceptorGroup group = new AcceptorGroup(port, 1, 0, true,
+                new ConnectionGate(0, 1, 0, 0, registry), registry);
+        group.start((channel, onClosed) -> handedOver.add(channel));
+        try (Socket first = new Socket("127.0.0.1", port);
+             Socket second = new Socket("127.0.0.1", port)) {
+            second.setSoTimeout(5000);
+            InputStream in = second.getInputStream();
+            Throwable reset = catchThrowable(in::read);
+
+            assertThat(reset).isInstanceOf(SocketException.class);
+            assertThat(handedOver).hasSize(1);
+            assertThat(first.isClosed()).isFalse();
+        } finally {
+            group.close();
+            for (SocketChannel channel : handedOver) {
+                channel.close();
+            }
+        }
+    }
+
+    private double refused(String reason) {
+        return registry.get("atm.server.connections.refused").tag("reason", reason).counter().count();
+    }
+}
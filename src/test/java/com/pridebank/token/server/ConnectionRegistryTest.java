@@ -0,0 +1,86 @@
+package com.pridebank.token.server;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ConnectionRegistryTest {
+
+    private final SimpleMeterRegistry meters = new SimpleMeterRegistry();
+
+    @Test
+    void gaugesCountInFlightIdleAndSlowReadersPerListener() throws Exception {
+        ConnectionRegistry registry = new ConnectionRegistry(0, 0);
+        ConnectionRegistry.Scope scope = registry.scope("atm", meters);
+        TestConnection busy = new TestConnection();
+        TestConnection idle = new TestConnection();
+        scope.add(busy);
+        scope.add(idle);
+
+        busy.frameReceived(100);
+        busy.frameReceived(100);
+        busy.writeBlocked(true);
+        Thread.sleep(5);
+
+        assertThat(gauge("atm.connections.in.flight")).isEqualTo(2.0);
+        assertThat(gauge("atm.connections.idle")).isEqualTo(1.0);
+        assertThat(gauge("atm.connections.slow.readers")).isEqualTo(1.0);
+
+        busy.writeBlocked(false);
+        busy.requestCompleted(50);
+        assertThat(gauge("atm.connections.in.flight")).isEqualTo(1.0);
+        assertThat(gauge("atm.connections.slow.readers")).isZero();
+        assertThat(registry.get(busy.getId()).bytesOut()).isEqualTo(50);
+    }
+
+    @Test
+    void drainsOnlyTheSelectedConnection() {
+        ConnectionRegistry registry = new ConnectionRegistry(60000, 1000);
+        ConnectionRegistry.Scope scope = registry.scope("atm", meters);
+        TestConnection first = new TestConnection();
+        TestConnection second = new TestConnection();
+        scope.add(first);
+        scope.add(second);
+        first.terminalSeen("ATM00001");
+
+        assertThat(registry.drain(first.getId())).isTrue();
+        assertThat(first.drained).isTrue();
+        assertThat(second.drained).isFalse();
+        assertThat(registry.get(first.getId()).terminalId()).isEqualTo("ATM00001");
+
+        scope.remove(first);
+        assertThat(registry.drain(first.getId())).isFalse();
+        assertThat(registry.list("atm")).extracting(ConnectionRegistry.ConnectionInfo::id)
+                .containsExactly(second.getId());
+        assertThat(registry.list("pos")).isEmpty();
+    }
+
+    private double gauge(String name) {
+        return meters.get(name).gauge().value();
+    }
+
+    private static final class TestConnection extends IsoConnection {
+
+        private final AtomicBoolean drained = new AtomicBoolean();
+
+        private TestConnection() {
+            super("test");
+        }
+
+        @Override
+        public void send(byte[] body) {
+        }
+
+        @Override
+        public void drain() {
+            drained.set(true);
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package com.pridebank.token.server;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ConnectionTimeoutsTest {
+
+    private final HashedWheelTimer timer = new HashedWheelTimer("test-timeouts", 10, 64);
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final ConnectionTimeouts timeouts = new ConnectionTimeouts(timer, 50, 5000, 5000, registry);
+    private final TestConnection connection = new TestConnection();
+
+    @AfterEach
+    void tearDown() {
+        timer.close();
+    }
+
+    @Test
+    void outstandingRequestKeepsReArmingTheIdleDeadline() throws Exception {
+        ConnectionTimeouts.Deadlines deadlines = timeouts.open(connection);
+        deadlines.awaitFrame();
+        deadlines.requestStarted();
+
+        // Several idle periods pass while the transaction is out
+        assertThat(connection.closed.await(300, TimeUnit.MILLISECONDS)).isFalse();
+
+        deadlines.requestFinished();
+        assertThat(connection.closed.await(2, TimeUnit.SECONDS)).isTrue();
+        assertThat(idleTimeouts()).isEqualTo(1.0);
+    }
+
+    @Test
+    void frameStartedWhileTheIdleCheckReArmsStopsTheIdleDeadline() throws Exception {
+        ConnectionTimeouts.Deadlines deadlines = timeouts.open(connection);
+        deadlines.awaitFrame();
+        deadlines.requestStarted();
+
+        // The timer thread keeps re-arming; a frame starting on the I/O side must win every time
+        Thread.sleep(120);
+        deadlines.frameStarted();
+        deadlines.requestFinished();
+
+        assertThat(connection.closed.await(300, TimeUnit.MILLISECONDS)).isFalse();
+        assertThat(idleTimeouts()).isZero();
+        deadlines.cancel();
+    }
+
+    private double idleTimeouts() {
+        return registry.get("atm.server.timeouts").tag("kind", "idle").counter().count();
+    }
+
+    private static final class TestConnection extends IsoConnection {
+
+        private final CountDownLatch closed = new CountDownLatch(1);
+
+        private TestConnection() {
+            super("test");
+        }
+
+        @Override
+        public void send(byte[] body) {
+        }
+
+        @Override
+        public void drain() {
+        }
+
+        @Override
+        public void close() {
+            closed.countDown();
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.pridebank.token.server;
+
+import com.pridebank.token.TestInjection;
+import com.pridebank.token.config.IsoConfig;
+import com.pridebank.token.service.IsoMessageBuilder;
+import com.pridebank.token.util.StanGenerator;
+import com.solab.iso8583.IsoMessage;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.InputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class FrameDecoderTest {
+
+    private final BufferPool pool = new BufferPool(8192, 4);
+    private final FrameDecoder decoder = new FrameDecoder(pool, 8192);
+
+    @Test
+    void decodesFrameIntoPooledBufferAndParsesWithoutCopy() throws Exception {
+        var mf = new IsoConfig().messageFactory();
+        IsoMessageBuilder builder = new IsoMessageBuilder();
+        TestInjection.set(builder, "messageFactory", mf);
+        TestInjection.set(builder, "stanGenerator", new StanGenerator());
+        TestInjection.set(builder, "clock", java.time.Clock.systemUTC());
+        byte[] data = builder.build0200("1234567890123456", 500L, "TERM01", "000123").writeData();
+
+        IsoFrame frame = decoder.read(stream(frame(data)));
+
+        assertThat(frame.length()).isEqualTo(data.length);
+        assertThat(frame.array().length).isGreaterThan(data.length);
+        IsoMessage parsed = mf.parseMessage(frame.array(), 0);
+        assertThat(parsed.getObjectValue(11).toString()).isEqualTo("000123");
+    }
+
+    @Test
+    void releasedBuffersAreReused() throws Exception {
+        IsoFrame first = decoder.read(stream(frame(new byte[300])));
+        byte[] buffer = first.array();
+        first.release();
+        assertThat(pool.pooled(300)).isEqualTo(1);
+
+        IsoFrame second = decoder.read(stream(frame(new byte[400])));
+        assertThat(second.array()).isSameAs(buffer);
+    }
+
+    @Test
+    void withoutAPoolEveryFrameGetsAnExactLengthArray() throws Exception {
+        FrameDecoder unpooled = new FrameDecoder(null, 8192);
+
+        IsoFrame first = unpooled.read(stream(frame(new byte[300])));
+        byte[] buffer = first.array();
+        assertThat(buffer).hasSize(300);
+        first.release();
+        assertThat(unpooled.read(stream(frame(new byte[300]))).array()).isNotSameAs(buffer);
+    }
+
+    @Test
+    void rejectsOversizedLengthHeaderBeforeAllocating() {
+        FrameDecoder small = new FrameDecoder(pool, 1024);
+        InputStream in = stream(new byte[]{(byte) 0x10, 0x00});
+        assertThatThrownBy(() -> small.read(in)).isInstanceOf(FrameDecoder.FrameTooLongException.class);
+    }
+
+    @Test
+    void endOfStreamBetweenFramesReturnsNull() throws Exception {
+        assertThat(decoder.read(stream(new byte[0]))).isNull();
+    }
+
+    @Test
+    void truncatedFrameFails() {
+        InputStream in = stream(new byte[]{0x00, 0x10, 1, 2, 3});
+        assertThatThrownBy(() -> decoder.read(in)).isInstanceOf(EOFException.class);
+    }
+
+    private static InputStream stream(byte[] bytes) {
+        return new BufferedInputStream(new ByteArrayInputStream(bytes));
+    }
+
+    private static byte[] frame(byte[] body) {
+        byte[] f = new byte[body.length + 2];
+        f[0] = (byte) ((body.length >> 8) & 0xFF);
+        f[1] = (byte) (body.length & 0xFF);
+        System.arraycopy(body, 0, f, 2, body.length);
+        return f;
+    }
+}
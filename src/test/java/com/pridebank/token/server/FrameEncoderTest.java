@@ -0,0 +1,44 @@
+package com.pridebank.token.server;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Queue;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class FrameEncoderTest {
+
+    @Test
+    void headerAndBodyShareOneBuffer() {
+        ByteBuffer frame = FrameEncoder.encode(new byte[]{'A', 'B', 'C'});
+
+        assertThat(frame.remaining()).isEqualTo(5);
+        assertThat(frame.array()).containsExactly(0, 3, 'A', 'B', 'C');
+    }
+
+    @Test
+    void queuedFramesAreJoinedForOneWrite() {
+        Queue<ByteBuffer> queue = new ArrayDeque<>();
+        queue.add(FrameEncoder.encode(new byte[]{'A'}));
+        queue.add(FrameEncoder.encode(new byte[]{'B', 'C'}));
+
+        ByteBuffer batch = FrameEncoder.drain(queue);
+
+        assertThat(queue).isEmpty();
+        byte[] bytes = new byte[batch.remaining()];
+        batch.get(bytes);
+        assertThat(bytes).containsExactly(0, 1, 'A', 0, 2, 'B', 'C');
+        assertThat(FrameEncoder.drain(queue)).isNull();
+    }
+
+    @Test
+    void singleFrameIsWrittenWithoutCopy() {
+        Queue<ByteBuffer> queue = new ArrayDeque<>();
+        ByteBuffer frame = FrameEncoder.encode(new byte[]{'A'});
+        queue.add(frame);
+
+        assertThat(FrameEncoder.drain(queue)).isSameAs(frame);
+    }
+}
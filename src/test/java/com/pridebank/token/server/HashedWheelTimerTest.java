@@ -0,0 +1,45 @@
+package com.pridebank.token.server;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class HashedWheelTimerTest {
+
+    private final HashedWheelTimer timer = new HashedWheelTimer("test-wheel", 10, 8);
+
+    @AfterEach
+    void close() {
+        timer.close();
+    }
+
+    @Test
+    void firesNoEarlierThanDelayAcrossSeveralRounds() throws Exception {
+        CountDownLatch fired = new CountDownLatch(1);
+        long start = System.nanoTime();
+        // 8 ticks of 10 ms per round, so 250 ms needs three rounds
+        HashedWheelTimer.Timeout timeout = timer.schedule(fired::countDown, 250);
+
+        assertThat(fired.await(2, TimeUnit.SECONDS)).isTrue();
+        assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)).isGreaterThanOrEqualTo(250);
+        assertThat(timeout.isExpired()).isTrue();
+        assertThat(timeout.cancel()).isFalse();
+    }
+
+    @Test
+    void cancelledTimeoutNeverFires() throws Exception {
+        AtomicInteger runs = new AtomicInteger();
+        HashedWheelTimer.Timeout cancelled = timer.schedule(runs::incrementAndGet, 50);
+        CountDownLatch later = new CountDownLatch(1);
+        timer.schedule(later::countDown, 100);
+
+        assertThat(cancelled.cancel()).isTrue();
+        assertThat(later.await(2, TimeUnit.SECONDS)).isTrue();
+        assertThat(runs).hasValue(0);
+    }
+}
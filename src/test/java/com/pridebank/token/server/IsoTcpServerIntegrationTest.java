@@ -1,24 +1,44 @@
 package com.pridebank.token.server;
 
 import com.pridebank.token.config.IsoConfig;
+import com.pridebank.token.iso.IsoMac;
 import com.pridebank.token.service.*;
 import com.pridebank.token.util.ResponseCodeMapper;
 import com.pridebank.token.util.StanGenerator;
 import com.pridebank.token.validation.IsoValidator;
 import com.solab.iso8583.IsoMessage;
+import com.solab.iso8583.MessageFactory;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.*;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+import org.mockito.Mockito;
+import org.springframework.boot.availability.AvailabilityChangeEvent;
+import org.springframework.boot.availability.ReadinessState;
+import org.springframework.boot.web.context.WebServerGracefulShutdownLifecycle;
 import org.springframework.test.util.ReflectionTestUtils;
 
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
 class IsoTcpServerIntegrationTest {
 
     private IsoTcpServer server;
+    private AtmTransactionProcessor proc;
+    private MessageFactory<IsoMessage> mf;
+    private IsoMessageBuilder builder;
+    private final List<Object> events = new CopyOnWriteArrayList<>();
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private IsoListenerProperties listenerProperties;
+    private final ConnectionRegistry connectionRegistry = new ConnectionRegistry(60000, 1000);
     private int port;
 
     @BeforeEach
@@ -28,20 +48,16 @@ class IsoTcpServerIntegrationTest {
             port = ss.getLocalPort();
         }
 
-        var mf = new IsoConfig().messageFactory();
-
-        IsoMessageBuilder builder = new IsoMessageBuilder();
-
-        // Use fixed STAN for deterministic test
-        StanGenerator stanGenerator = new StanGenerator();
-//        stanGenerator.setFixedStan(0); // always return "000000" in test
+        mf = new IsoConfig().messageFactory();
 
+        // Shared by the server's processor and the tests' requests, which pass their own STANs
+        builder = new IsoMessageBuilder();
         ReflectionTestUtils.setField(builder, "messageFactory", mf);
-        ReflectionTestUtils.setField(builder, "stanGenerator", stanGenerator);
+        ReflectionTestUtils.setField(builder, "stanGenerator", new StanGenerator());
         ReflectionTestUtils.setField(builder, "clock", java.time.Clock.systemUTC());
 
         // Processor that short-circuits ESB to SUCCESS
-        AtmTransactionProcessor proc = new AtmTransactionProcessor();
+        proc = new AtmTransactionProcessor();
         ReflectionTestUtils.setField(proc, "isoMessageBuilder", builder);
         ReflectionTestUtils.setField(proc, "messageFactory", mf);
         ReflectionTestUtils.setField(proc, "isoValidator", new IsoValidator());
@@ -63,56 +79,280 @@ class IsoTcpServerIntegrationTest {
         ReflectionTestUtils.setField(proc, "esbGatewayService", esb);
         ReflectionTestUtils.setField(esb, "esbClient", (Object) null); // unused
 
-        server = new IsoTcpServer(mf, proc);
+        listenerProperties = new IsoListenerProperties();
+        server = new IsoTcpServer(mf, proc, registry, events::add, new IsoLaneProperties(), listenerProperties,
+                java.util.Map.of("messageFactory", mf), connectionRegistry);
         ReflectionTestUtils.setField(server, "port", port);
         ReflectionTestUtils.setField(server, "threads", 1);
-        server.start();
+        ReflectionTestUtils.setField(server, "maxFrameLength", 8192);
+        ReflectionTestUtils.setField(server, "admissionQueueDepth", 10);
+        ReflectionTestUtils.setField(server, "admissionMaxQueueWaitMs", 5000L);
+        ReflectionTestUtils.setField(server, "drainTimeoutMs", 5000L);
+        ReflectionTestUtils.setField(server, "timerTickMs", 100L);
+        ReflectionTestUtils.setField(server, "terminalMaxQueued", 4);
     }
 
     @AfterEach
     void stop() throws Exception {
         server.stop();
+        server.close();
+    }
+
+    private byte[] echoRequest(String stan) {
+        IsoMessage echo = mf.newMessage(0x800);
+        echo.setValue(7, new java.util.Date(), com.solab.iso8583.IsoType.DATE10, 10);
+        echo.setValue(11, stan, com.solab.iso8583.IsoType.NUMERIC, 6);
+        echo.setValue(70, "301", com.solab.iso8583.IsoType.NUMERIC, 3);
+        return echo.writeData();
+    }
+
+    private byte[] request0200(String stan) {
+        return builder.build0200("1234567890123456", 500L, "TERM01", stan).writeData();
+    }
+
+    private IsoMessage exchange(int port, byte[] data) throws Exception {
+        return mf.parseMessage(exchangeBytes(port, data), 0);
+    }
+
+    /** One request on a connection of its own. */
+    private static byte[] exchangeBytes(int port, byte[] data) throws Exception {
+        try (Socket s = new Socket("127.0.0.1", port);
+             OutputStream out = s.getOutputStream();
+             InputStream in = s.getInputStream()) {
+            return send(out, in, data, data.length);
+        }
+    }
+
+    /** Sends the first {@code length} bytes of {@code data} as one frame and reads the reply. */
+    private static byte[] send(OutputStream out, InputStream in, byte[] data, int length) throws Exception {
+        write(out, data, length);
+        return read(in);
+    }
+
+    private static void write(OutputStream out, byte[] data, int length) throws Exception {
+        out.write((length >> 8) & 0xFF);
+        out.write(length & 0xFF);
+        out.write(data, 0, length);
+        out.flush();
+    }
+
+    private static byte[] read(InputStream in) throws Exception {
+        byte[] lenBytes = in.readNBytes(2);
+        assertThat(lenBytes).hasSize(2);
+        return in.readNBytes(((lenBytes[0] & 0xFF) << 8) | (lenBytes[1] & 0xFF));
     }
 
     @Test
     void roundTrip() throws Exception {
-        var mf = new IsoConfig().messageFactory();
-        IsoMessageBuilder builder = new IsoMessageBuilder();
+        server.start();
 
-        StanGenerator stanGenerator = new StanGenerator();
-//        stanGenerator.setFixedStan(0); // match server STAN
+        IsoMessage parsed = exchange(port, request0200("000000"));
 
-        ReflectionTestUtils.setField(builder, "messageFactory", mf);
-        ReflectionTestUtils.setField(builder, "stanGenerator", stanGenerator);
-        ReflectionTestUtils.setField(builder, "clock", java.time.Clock.systemUTC());
+        assertThat(parsed.hasField(39)).isTrue();
+    }
 
-        // Build ISO 0200 request
-        IsoMessage req = builder.build0200("1234567890123456", 500L, "TERM01", "000000");
-        byte[] data = req.writeData();
+    @Test
+    void echoTestIsAnsweredWithoutReachingTheEsb() throws Exception {
+        server.start();
+        EsbGatewayService esb = Mockito.mock(EsbGatewayService.class);
+        ReflectionTestUtils.setField(proc, "esbGatewayService", esb);
+
+        IsoMessage parsed = exchange(port, echoRequest("000042"));
+
+        assertThat(parsed.getType()).isEqualTo(0x810);
+        assertThat(parsed.getObjectValue(39).toString()).isEqualTo("00");
+        assertThat(parsed.getField(11).toString()).isEqualTo("000042");
+        Mockito.verifyNoInteractions(esb);
+    }
+
+    @Test
+    void drainLetsInFlightTransactionReplyBeforeClosing() throws Exception {
+        server.start();
+        CountDownLatch esbCalled = new CountDownLatch(1);
+        EsbGatewayService slowEsb = Mockito.mock(EsbGatewayService.class);
+        Mockito.when(slowEsb.sendToEsb(Mockito.anyString(), Mockito.any())).thenAnswer(inv -> {
+            esbCalled.countDown();
+            Thread.sleep(300);
+            return "{\"responseCode\":\"SUCCESS\"}";
+        });
+        ReflectionTestUtils.setField(proc, "esbGatewayService", slowEsb);
+        byte[] data = request0200("000001");
 
         try (Socket s = new Socket("127.0.0.1", port);
              OutputStream out = s.getOutputStream();
              InputStream in = s.getInputStream()) {
 
-            // Send length + data
-            out.write((data.length >> 8) & 0xFF);
-            out.write(data.length & 0xFF);
-            out.write(data);
-            out.flush();
+            write(out, data, data.length);
+            assertThat(esbCalled.await(2, TimeUnit.SECONDS)).isTrue();
+
+            // Shut down while the debit is still at the ESB
+            Thread stopper = new Thread(() -> {
+                try {
+                    server.stop();
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+            stopper.start();
+
+            IsoMessage parsed = mf.parseMessage(read(in), 0);
+            assertThat(parsed.getObjectValue(39).toString()).isEqualTo("00");
+
+            // Connection is closed once the reply is out
+            assertThat(in.read()).isEqualTo(-1);
+            stopper.join(5000);
+        }
 
-            // Read response length
-            byte[] lenBytes = in.readNBytes(2);
-            assertThat(lenBytes.length).isEqualTo(2); // avoid AIOOBE
-            int len = ((lenBytes[0] & 0xFF) << 8) | (lenBytes[1] & 0xFF);
+        assertThat(events).anyMatch(e -> e instanceof AvailabilityChangeEvent<?> change
+                && change.getState() == ReadinessState.REFUSING_TRAFFIC);
+        assertThat(server.isRunning()).isFalse();
+        // Drained while the web server still answers the readiness probe
+        assertThat(server.getPhase()).isGreaterThan(WebServerGracefulShutdownLifecycle.SMART_LIFECYCLE_PHASE);
+    }
 
-            byte[] resp = in.readNBytes(len);
-            assertThat(resp.length).isEqualTo(len);
+    @Test
+    void additionalListenerServesItsOwnPortAndReportsItsOwnRequests() throws Exception {
+        int posPort;
+        try (ServerSocket ss = new ServerSocket(0)) {
+            posPort = ss.getLocalPort();
+        }
+        IsoListenerProperties.ListenerConfig pos = new IsoListenerProperties.ListenerConfig();
+        pos.setName("pos");
+        pos.setPort(posPort);
+        pos.setThreads(1);
+        pos.setMessageFactory("messageFactory");
+        listenerProperties.getListeners().add(pos);
+        server.start();
 
-            IsoMessage parsed = mf.parseMessage(resp, 0);
+        assertThat(exchange(port, echoRequest("000001")).getType()).isEqualTo(0x810);
+        assertThat(exchange(posPort, echoRequest("000002")).getType()).isEqualTo(0x810);
+        assertThat(exchange(posPort, echoRequest("000003")).getType()).isEqualTo(0x810);
 
-            // Assert numeric MTI (response)
-//            assertThat(parsed.getType()).isEqualTo(0x210);
-            assertThat(parsed.hasField(39)).isTrue();
+        assertThat(registry.get("atm.listener.requests").tag("listener", "default").timer().count())
+                .isEqualTo(1);
+        assertThat(registry.get("atm.listener.requests").tag("listener", "pos").timer().count())
+                .isEqualTo(2);
+        // Each listener has its own admission queue
+        assertThat(registry.find("atm.admission.queue.depth").gauges()).hasSize(2);
+    }
+
+    @Test
+    void stagedEngineAnswersThroughThePipeline() throws Exception {
+        ReflectionTestUtils.setField(server, "engine", "staged");
+        server.start();
+
+        IsoMessage reply = exchange(port, request0200("000000"));
+
+        assertThat(reply.hasField(39)).isTrue();
+        // A stage records its service time once it has handed the transaction on, so it may trail the reply
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+        while (registry.get("atm.pipeline.service").tag("stage", "validate").timer().count() == 0
+                && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        assertThat(registry.get("atm.pipeline.service").tag("stage", "decode").timer().count()).isEqualTo(1);
+        assertThat(registry.get("atm.pipeline.service").tag("stage", "validate").timer().count()).isEqualTo(1);
+        assertThat(registry.get("atm.pipeline.occupancy").tag("stage", "esb").gauge().value()).isZero();
+        assertThat(registry.get("atm.listener.requests").tag("listener", "default").timer().count()).isEqualTo(1);
+    }
+
+    @ParameterizedTest
+    @CsvSource({"pooled, lazy", "staged, compiled"})
+    void macIsVerifiedOnRequestsAndWrittenOnReplies(String engine, String codec) throws Exception {
+        String key = "0123456789ABCDEFFEDCBA9876543210";
+        ReflectionTestUtils.setField(server, "engine", engine);
+        ReflectionTestUtils.setField(server, "codec", codec);
+        ReflectionTestUtils.setField(server, "recycleMessages", true);
+        ReflectionTestUtils.setField(server, "mac", true);
+        ReflectionTestUtils.setField(server, "macAlgorithm", "retail");
+        ReflectionTestUtils.setField(server, "macKey", key);
+        server.start();
+        IsoMac mac = IsoMac.of(mf, "retail", key);
+        byte[] request = request0200("000124");
+
+        byte[] rejected = exchangeBytes(port, request);
+        assertThat(mf.parseMessage(rejected, 0).getObjectValue(39).toString()).isEqualTo("63");
+        assertThat(mac.verify(rejected, rejected.length)).isTrue();
+
+        byte[] answered = exchangeBytes(port, mac.sign(request));
+        assertThat(mf.parseMessage(answered, 0).getObjectValue(39).toString()).isNotEqualTo("63");
+        assertThat(mf.parseMessage(answered, 0).getObjectValue(11).toString()).isEqualTo("000124");
+        assertThat(mac.verify(answered, answered.length)).isTrue();
+    }
+
+    @ParameterizedTest
+    @CsvSource({"j8583", "compiled"})
+    void truncatedFrameIsRejectedRatherThanReadPastItsEnd(String codec) throws Exception {
+        ReflectionTestUtils.setField(server, "codec", codec);
+        server.start();
+        IsoMessage request = builder.build0200("1234567890123456", 500L, "TERM01", "000125");
+        request.setValue(64, new byte[8], com.solab.iso8583.IsoType.BINARY, 8);
+        byte[] full = request.writeData();
+
+        try (Socket s = new Socket("127.0.0.1", port);
+             OutputStream out = s.getOutputStream();
+             InputStream in = s.getInputStream()) {
+            // The full frame leaves its bytes in the pooled buffer the truncated one is read into
+            IsoMessage answered = mf.parseMessage(send(out, in, full, full.length), 0);
+            assertThat(answered.getObjectValue(39).toString()).isNotEqualTo("30");
+
+            IsoMessage rejected = mf.parseMessage(send(out, in, full, full.length - 16), 0);
+            assertThat(rejected.getObjectValue(39).toString()).isEqualTo("30");
+        }
+    }
+
+    @Test
+    void compiledCodecAnswersTransactions() throws Exception {
+        ReflectionTestUtils.setField(server, "codec", "compiled");
+        server.start();
+
+        IsoMessage reply = exchange(port, request0200("000123"));
+
+        assertThat(reply.getType()).isIn(0x210, 0x231);
+        assertThat(reply.getObjectValue(11).toString()).isEqualTo("000123");
+        assertThat(reply.hasField(39)).isTrue();
+    }
+
+    @Test
+    void rejectsListenersSharingAPort() {
+        IsoListenerProperties.ListenerConfig clash = new IsoListenerProperties.ListenerConfig();
+        clash.setName("clash");
+        clash.setPort(port);
+        listenerProperties.getListeners().add(clash);
+
+        assertThat(org.assertj.core.api.Assertions.catchThrowable(server::start))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("clash");
+    }
+
+    @Test
+    void registryTracksAndClosesASingleConnection() throws Exception {
+        server.start();
+        byte[] data = echoRequest("000007");
+
+        try (Socket s = new Socket("127.0.0.1", port);
+             OutputStream out = s.getOutputStream();
+             InputStream in = s.getInputStream()) {
+            int len = send(out, in, data, data.length).length;
+
+            List<ConnectionRegistry.ConnectionInfo> open = connectionRegistry.list(null);
+            assertThat(open).hasSize(1);
+            ConnectionRegistry.ConnectionInfo info = open.get(0);
+            assertThat(info.listener()).isEqualTo("default");
+            assertThat(info.framesIn()).isEqualTo(1);
+            assertThat(info.bytesIn()).isEqualTo(data.length + 2);
+            assertThat(info.framesOut()).isEqualTo(1);
+            assertThat(info.bytesOut()).isEqualTo(len + 2);
+            assertThat(info.inFlight()).isZero();
+
+            assertThat(connectionRegistry.close(info.id())).isTrue();
+            assertThat(in.read()).isEqualTo(-1);
+        }
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+        while (!connectionRegistry.list(null).isEmpty() && System.nanoTime() < deadline) {
+            Thread.sleep(10);
         }
+        assertThat(connectionRegistry.list(null)).isEmpty();
+        assertThat(connectionRegistry.close(Long.MAX_VALUE)).isFalse();
     }
 }
@@ -0,0 +1,150 @@
+package com.pridebank.token.server;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class KeyedExecutorTest {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final ExecutorService workers = Executors.newFixedThreadPool(4);
+
+    @AfterEach
+    void tearDown() {
+        workers.shutdownNow();
+    }
+
+    @Test
+    void runsOneKeysTasksInOrderAndOneAtATime() throws Exception {
+        KeyedExecutor keyed = new KeyedExecutor(workers, 100, registry);
+        List<Integer> order = new CopyOnWriteArrayList<>();
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(20);
+        CountDownLatch release = new CountDownLatch(1);
+
+        // The first task holds the terminal on a worker while the rest queue up behind it
+        workers.execute(() -> keyed.execute("ATM00001", done(() -> await(release)), () -> { }));
+        Thread.sleep(50);
+        for (int i = 0; i < 20; i++) {
+            int n = i;
+            keyed.execute("ATM00001", done(() -> {
+                maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                order.add(n);
+                sleep(2);
+                running.decrementAndGet();
+                done.countDown();
+            }), () -> { });
+        }
+        release.countDown();
+
+        assertThat(done.await(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(order).isSorted().hasSize(20);
+        assertThat(maxRunning).hasValue(1);
+        // The key is released just after the last task counts down
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(1);
+        while (keyed.getActiveKeys() > 0 && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        assertThat(keyed.getActiveKeys()).isZero();
+    }
+
+    @Test
+    void shedsOnlyTheNoisyTerminal() throws Exception {
+        KeyedExecutor keyed = new KeyedExecutor(workers, 2, registry);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger shed = new AtomicInteger();
+
+        // First task holds the terminal busy; two may wait, the rest are shed
+        workers.execute(() -> keyed.execute("NOISY", done(() -> await(release)), shed::incrementAndGet));
+        Thread.sleep(50);
+        for (int i = 0; i < 5; i++) {
+            keyed.execute("NOISY", done(() -> { }), shed::incrementAndGet);
+        }
+        CountDownLatch quiet = new CountDownLatch(1);
+        workers.execute(() -> keyed.execute("QUIET", done(quiet::countDown), shed::incrementAndGet));
+
+        assertThat(quiet.await(2, TimeUnit.SECONDS)).isTrue();
+        assertThat(shed).hasValue(3);
+        assertThat(registry.get("atm.terminal.shed").counter().count()).isEqualTo(3.0);
+        release.countDown();
+    }
+
+    @Test
+    void rejectsQueuedTasksWhoseWaitBudgetRanOut() throws Exception {
+        KeyedExecutor keyed = new KeyedExecutor(workers, 10, Duration.ofMillis(50), registry);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger ran = new AtomicInteger();
+        AtomicInteger rejected = new AtomicInteger();
+
+        workers.execute(() -> keyed.execute("ATM00001", done(() -> await(release)), rejected::incrementAndGet));
+        Thread.sleep(50);
+        for (int i = 0; i < 3; i++) {
+            keyed.execute("ATM00001", done(ran::incrementAndGet), rejected::incrementAndGet);
+        }
+        Thread.sleep(100);
+        release.countDown();
+        CountDownLatch fresh = new CountDownLatch(1);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+        while (keyed.getActiveKeys() > 0 && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        keyed.execute("ATM00001", done(fresh::countDown), rejected::incrementAndGet);
+
+        assertThat(fresh.await(2, TimeUnit.SECONDS)).isTrue();
+        assertThat(ran).hasValue(0);
+        assertThat(rejected).hasValue(3);
+        assertThat(registry.get("atm.terminal.expired").counter().count()).isEqualTo(3.0);
+    }
+
+    @Test
+    void keyIsHeldUntilTheReturnedStageCompletes() throws Exception {
+        KeyedExecutor keyed = new KeyedExecutor(workers, 10, registry);
+        CompletableFuture<Void> handedOn = new CompletableFuture<>();
+        CountDownLatch second = new CountDownLatch(1);
+
+        keyed.execute("ATM00001", () -> handedOn, () -> { });
+        keyed.execute("ATM00001", done(second::countDown), () -> { });
+
+        assertThat(second.await(200, TimeUnit.MILLISECONDS)).isFalse();
+        handedOn.complete(null);
+        assertThat(second.await(2, TimeUnit.SECONDS)).isTrue();
+    }
+
+    private static Supplier<CompletionStage<?>> done(Runnable body) {
+        return () -> {
+            body.run();
+            return CompletableFuture.completedFuture(null);
+        };
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void sleep(long ms) {
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package com.pridebank.token.server;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class LaneRouterTest {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final ExecutorService workers = Executors.newFixedThreadPool(4);
+
+    @AfterEach
+    void tearDown() {
+        workers.shutdownNow();
+    }
+
+    @Test
+    void longestProcessingCodePrefixWins() {
+        LaneRouter router = new LaneRouter(List.of(
+                lane("inquiry", 4, 10, "31"),
+                lane("mini-statement", 2, 10, "3800", "31000"),
+                lane("withdrawal", 4, 10, "01")), workers, registry);
+
+        assertThat(router.select("310000").getName()).isEqualTo("mini-statement");
+        assertThat(router.select("312000").getName()).isEqualTo("inquiry");
+        assertThat(router.select("011000").getName()).isEqualTo("withdrawal");
+        assertThat(router.select("400000").getName()).isEqualTo(LaneRouter.DEFAULT_LANE);
+        assertThat(router.select(null).getName()).isEqualTo(LaneRouter.DEFAULT_LANE);
+    }
+
+    @Test
+    void saturatedLaneQueuesAndRejectsWithoutBlockingOtherLanes() throws Exception {
+        LaneRouter router = new LaneRouter(List.of(
+                lane("inquiry", 1, 10, "31"),
+                lane("withdrawal", 1, 1, "01")), workers, registry);
+        Lane withdrawal = router.select("010000");
+        CountDownLatch esbStuck = new CountDownLatch(1);
+        AtomicInteger rejected = new AtomicInteger();
+
+        workers.execute(() -> withdrawal.execute(() -> await(esbStuck), rejected::incrementAndGet));
+        Thread.sleep(50);
+        withdrawal.execute(() -> { }, rejected::incrementAndGet);          // waits
+        withdrawal.execute(() -> { }, rejected::incrementAndGet);          // queue full
+
+        CountDownLatch inquiry = new CountDownLatch(1);
+        workers.execute(() -> router.select("310000").execute(inquiry::countDown, rejected::incrementAndGet));
+
+        assertThat(inquiry.await(2, TimeUnit.SECONDS)).isTrue();
+        assertThat(rejected).hasValue(1);
+        assertThat(withdrawal.getQueued()).isEqualTo(1);
+        assertThat(registry.get("atm.lane.rejected").tag("lane", "withdrawal").counter().count())
+                .isEqualTo(1.0);
+
+        esbStuck.countDown();
+        Thread.sleep(100);
+        assertThat(withdrawal.getQueued()).isZero();
+        assertThat(registry.get("atm.lane.latency").tag("lane", "withdrawal").timer().count())
+                .isEqualTo(2);
+    }
+
+    @Test
+    void taskThatWaitedPastTheBudgetIsRejectedWhenItsTurnComes() throws Exception {
+        LaneRouter router = new LaneRouter(List.of(lane("withdrawal", 1, 10, "01")), Duration.ofMillis(50),
+                workers, registry);
+        Lane withdrawal = router.select("010000");
+        CountDownLatch esbStuck = new CountDownLatch(1);
+        AtomicInteger ran = new AtomicInteger();
+        CountDownLatch rejected = new CountDownLatch(1);
+
+        workers.execute(() -> withdrawal.execute(() -> await(esbStuck), rejected::countDown));
+        Thread.sleep(50);
+        withdrawal.execute(ran::incrementAndGet, rejected::countDown);
+        Thread.sleep(100);
+        esbStuck.countDown();
+
+        assertThat(rejected.await(2, TimeUnit.SECONDS)).isTrue();
+        assertThat(ran).hasValue(0);
+        assertThat(registry.get("atm.lane.expired").tag("lane", "withdrawal").counter().count()).isEqualTo(1.0);
+        CountDownLatch fresh = new CountDownLatch(1);
+        withdrawal.execute(fresh::countDown, () -> { });
+        assertThat(fresh.await(2, TimeUnit.SECONDS)).isTrue();
+    }
+
+    private static IsoLaneProperties.LaneConfig lane(String name, int concurrency, int queueDepth,
+                                                     String... codes) {
+        IsoLaneProperties.LaneConfig config = new IsoLaneProperties.LaneConfig();
+        config.setName(name);
+        config.setConcurrency(concurrency);
+        config.setQueueDepth(queueDepth);
+        config.setProcessingCodes(List.of(codes));
+        return config;
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
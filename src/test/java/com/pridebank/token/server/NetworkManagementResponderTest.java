@@ -0,0 +1,123 @@
+package com.pridebank.token.server;
+
+import com.pridebank.token.config.IsoConfig;
+import com.solab.iso8583.IsoMessage;
+import com.solab.iso8583.IsoType;
+import com.solab.iso8583.MessageFactory;
+import com.solab.iso8583.parse.NumericParseInfo;
+import com.solab.iso8583.parse.date.Date10ParseInfo;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Date;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class NetworkManagementResponderTest {
+
+    private final MessageFactory<IsoMessage> mf = new IsoConfig().messageFactory();
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final NetworkManagementResponder responder = new NetworkManagementResponder(mf, registry);
+    private final FrameDecoder decoder = new FrameDecoder(new BufferPool(1024, 2), 1024);
+    private final IsoConnection connection = new IsoConnection("test") {
+        @Override public void send(byte[] body) { }
+        @Override public void drain() { }
+        @Override public void close() { }
+    };
+
+    @Test
+    void echoTestIsAnsweredFromTemplateWithRequestFieldsEchoed() throws Exception {
+        IsoMessage request = networkRequest("301", "004711");
+        IsoFrame frame = frame(request.writeData());
+        assertThat(responder.accepts(frame)).isTrue();
+
+        IsoMessage response = mf.parseMessage(responder.respond(frame, connection), 0);
+
+        assertThat(response.getType()).isEqualTo(0x810);
+        assertThat(response.getObjectValue(39).toString()).isEqualTo("00");
+        assertThat(response.getField(11).toString()).isEqualTo("004711");
+        assertThat(response.getField(70).toString()).isEqualTo("301");
+        assertThat(response.getField(7).toString()).isEqualTo(request.getField(7).toString());
+        assertThat(registry.get("atm.network.requests").tag("function", "echo").counter().count())
+                .isEqualTo(1.0);
+    }
+
+    @Test
+    void unsupportedFunctionIsDeclined() throws Exception {
+        IsoFrame frame = frame(networkRequest("161", "000001").writeData());
+
+        IsoMessage response = mf.parseMessage(responder.respond(frame, connection), 0);
+
+        assertThat(response.getObjectValue(39).toString()).isEqualTo("40");
+        assertThat(response.getField(70).toString()).isEqualTo("161");
+    }
+
+    @Test
+    void replyToARequestWithoutField7CarriesTheCurrentTime() throws Exception {
+        // A template written long ago, like one built when the application started
+        mf.getMessageTemplate(0x810).setValue(7, new Date(0), IsoType.DATE10, 10);
+        NetworkManagementResponder responder = new NetworkManagementResponder(mf, new SimpleMeterRegistry());
+        IsoMessage request = networkRequest("301", "000002");
+        request.removeFields(7);
+        Date before = new Date(System.currentTimeMillis() / 1000 * 1000);
+
+        IsoMessage response = mf.parseMessage(responder.respond(frame(request.writeData()), connection), 0);
+
+        // DATE10 carries no year; compare month to second with a fresh value written the same way
+        String sent = response.getField(7).toString();
+        assertThat(sent).isBetween(IsoType.DATE10.format(before, null), IsoType.DATE10.format(new Date(), null));
+    }
+
+    @Test
+    void factoryWithoutAn0810TemplateGetsTheSameReply() throws Exception {
+        MessageFactory<IsoMessage> bare = new MessageFactory<>();
+        bare.setUseBinaryBitmap(true);
+        bare.setParseMap(0x800, Map.of(7, new Date10ParseInfo(), 11, new NumericParseInfo(6),
+                70, new NumericParseInfo(3)));
+        NetworkManagementResponder responder = new NetworkManagementResponder(bare, new SimpleMeterRegistry());
+        IsoMessage request = networkRequest("001", "004712");
+
+        byte[] reply = responder.respond(frame(request.writeData()), connection);
+
+        IsoMessage response = mf.parseMessage(reply, 0);
+        assertThat(response.getType()).isEqualTo(0x810);
+        assertThat(response.getField(7).toString()).isEqualTo(request.getField(7).toString());
+        assertThat(response.getField(11).toString()).isEqualTo("004712");
+        assertThat(response.getObjectValue(39).toString()).isEqualTo("00");
+        assertThat(response.getField(70).toString()).isEqualTo("001");
+        assertThat(reply).isEqualTo(this.responder.respond(frame(request.writeData()), connection));
+    }
+
+    @Test
+    void factoryThatCannotWriteTheSlotsInPlaceIsRefused() {
+        MessageFactory<IsoMessage> binary = new MessageFactory<>();
+        binary.setUseBinaryBitmap(true);
+        binary.setBinaryFields(true);
+
+        assertThatThrownBy(() -> new NetworkManagementResponder(binary, new SimpleMeterRegistry()))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void financialFramesAreNotAccepted() {
+        IsoMessage request = mf.newMessage(0x200);
+        request.setValue(11, "000001", IsoType.NUMERIC, 6);
+
+        assertThat(responder.accepts(frame(request.writeData()))).isFalse();
+    }
+
+    private IsoMessage networkRequest(String code, String stan) {
+        IsoMessage request = mf.newMessage(0x800);
+        request.setValue(7, new Date(), IsoType.DATE10, 10);
+        request.setValue(11, stan, IsoType.NUMERIC, 6);
+        request.setValue(70, code, IsoType.NUMERIC, 3);
+        return request;
+    }
+
+    private IsoFrame frame(byte[] data) {
+        return decoder.copy(ByteBuffer.wrap(data), data.length);
+    }
+}
@@ -0,0 +1,245 @@
+package com.pridebank.token.server;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class NioIsoServerTest {
+
+    private NioIsoServer server;
+    private AcceptorGroup acceptorGroup;
+    private ExecutorService workers;
+    private HashedWheelTimer timer;
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private int port;
+
+    @BeforeEach
+    void start() throws Exception {
+        workers = Executors.newFixedThreadPool(2);
+        timer = new HashedWheelTimer("test-timeouts", 20, 64);
+    }
+
+    private void startServer(int maxInFlight, Handler handler) throws Exception {
+        startServer(1, maxInFlight, handler);
+    }
+
+    private void startServer(int acceptors, int maxInFlight, Handler handler) throws Exception {
+        try (ServerSocket ss = new ServerSocket(0)) {
+            port = ss.getLocalPort();
+        }
+        FrameDecoder decoder = new FrameDecoder(new BufferPool(1024, 4), 1024);
+        ConnectionTimeouts timeouts = new ConnectionTimeouts(timer, 30000, 300, 10000, registry);
+        server = new NioIsoServer(1, maxInFlight, decoder,
+                (frame, connection) -> CompletableFuture.supplyAsync(() -> {
+                    try {
+                        return handler.handle(frame, connection);
+                    } catch (Exception e) {
+                        throw new IllegalStateException(e);
+                    }
+                }, workers),
+                timeouts, new ConnectionRegistry(60000, 1000).scope("test", registry));
+        server.start();
+        acceptorGroup = new AcceptorGroup(port, acceptors, 0, true,
+                new ConnectionGate(0, 0, 0, 0, registry), registry);
+        acceptorGroup.start(server::register);
+    }
+
+    private interface Handler {
+        byte[] handle(IsoFrame frame, IsoConnection connection) throws Exception;
+    }
+
+    // Echo handler prefixed with "R:" so replies are distinguishable from requests
+    private static byte[] echo(IsoFrame frame, IsoConnection connection) {
+        String body = new String(frame.array(), 0, frame.length(), StandardCharsets.US_ASCII);
+        frame.release();
+        return ("R:" + body).getBytes(StandardCharsets.US_ASCII);
+    }
+
+    @AfterEach
+    void stop() {
+        if (acceptorGroup != null) acceptorGroup.close();
+        if (server != null) server.stop();
+        workers.shutdownNow();
+        timer.close();
+    }
+
+    @Test
+    void answersCoalescedFramesInOrder() throws Exception {
+        startServer(1, NioIsoServerTest::echo);
+        try (Socket s = new Socket("127.0.0.1", port);
+             OutputStream out = s.getOutputStream();
+             InputStream in = s.getInputStream()) {
+
+            byte[] both = concat(frame("ONE"), frame("TWO"));
+            out.write(both);
+            out.flush();
+
+            assertThat(readFrame(in)).isEqualTo("R:ONE");
+            assertThat(readFrame(in)).isEqualTo("R:TWO");
+        }
+    }
+
+    @Test
+    void reassemblesFrameSplitAcrossWrites() throws Exception {
+        startServer(1, NioIsoServerTest::echo);
+        try (Socket s = new Socket("127.0.0.1", port);
+             OutputStream out = s.getOutputStream();
+             InputStream in = s.getInputStream()) {
+
+            byte[] f = frame("SPLIT-FRAME");
+            out.write(f, 0, 1);
+            out.flush();
+            Thread.sleep(50);
+            out.write(f, 1, 5);
+            out.flush();
+            Thread.sleep(50);
+            out.write(f, 6, f.length - 6);
+            out.flush();
+
+            assertThat(readFrame(in)).isEqualTo("R:SPLIT-FRAME");
+        }
+    }
+
+    @Test
+    void pipelinedRepliesAreWrittenInCompletionOrder() throws Exception {
+        CountDownLatch fastDone = new CountDownLatch(1);
+        startServer(2, (frame, connection) -> {
+            String body = new String(frame.array(), 0, frame.length(), StandardCharsets.US_ASCII);
+            if (body.equals("SLOW")) {
+                fastDone.await(5, TimeUnit.SECONDS);
+                // Let the fast reply get to the event loop first
+                Thread.sleep(200);
+            } else {
+                fastDone.countDown();
+            }
+            return echo(frame, connection);
+        });
+
+        try (Socket s = new Socket("127.0.0.1", port);
+             OutputStream out = s.getOutputStream();
+             InputStream in = s.getInputStream()) {
+
+            out.write(concat(frame("SLOW"), frame("FAST")));
+            out.flush();
+
+            assertThat(readFrame(in)).isEqualTo("R:FAST");
+            assertThat(readFrame(in)).isEqualTo("R:SLOW");
+        }
+    }
+
+    @Test
+    void repliesCompletingTogetherAreAllDelivered() throws Exception {
+        startServer(8, NioIsoServerTest::echo);
+
+        try (Socket s = new Socket("127.0.0.1", port);
+             OutputStream out = s.getOutputStream();
+             InputStream in = s.getInputStream()) {
+            byte[] burst = new byte[0];
+            for (int i = 0; i < 8; i++) {
+                burst = concat(burst, frame("P" + i));
+            }
+            out.write(burst);
+            out.flush();
+
+            java.util.Set<String> replies = new java.util.HashSet<>();
+            for (int i = 0; i < 8; i++) {
+                replies.add(readFrame(in));
+            }
+            assertThat(replies).hasSize(8).allMatch(r -> r.startsWith("R:P"));
+        }
+    }
+
+    @Test
+    void servesConnectionsAcrossReusePortAcceptors() throws Exception {
+        startServer(2, 1, NioIsoServerTest::echo);
+
+        for (int i = 0; i < 8; i++) {
+            try (Socket s = new Socket("127.0.0.1", port);
+                 OutputStream out = s.getOutputStream();
+                 InputStream in = s.getInputStream()) {
+                out.write(frame("C" + i));
+                out.flush();
+                assertThat(readFrame(in)).isEqualTo("R:C" + i);
+            }
+        }
+        double accepted = registry.find("atm.server.connections.accepted").counters().stream()
+                .mapToDouble(Counter::count).sum();
+        assertThat(accepted).isEqualTo(8.0);
+    }
+
+    @Test
+    void closesConnectionOnOversizedFrame() throws Exception {
+        startServer(1, NioIsoServerTest::echo);
+
+        try (Socket s = new Socket("127.0.0.1", port);
+             OutputStream out = s.getOutputStream();
+             InputStream in = s.getInputStream()) {
+
+            out.write(new byte[]{(byte) 0xFF, (byte) 0xFF, 'X'});
+            out.flush();
+
+            assertThat(in.read()).isEqualTo(-1);
+        }
+    }
+
+    @Test
+    void closesStalledPartialFrameButKeepsIdleConnectionOpen() throws Exception {
+        startServer(1, NioIsoServerTest::echo);
+
+        try (Socket slow = new Socket("127.0.0.1", port);
+             Socket idle = new Socket("127.0.0.1", port)) {
+            // Header and one byte of a 10-byte frame, then nothing
+            slow.getOutputStream().write(new byte[]{0, 10, 'X'});
+            slow.getOutputStream().flush();
+            slow.setSoTimeout(5000);
+            assertThat(slow.getInputStream().read()).isEqualTo(-1);
+
+            // The idle link is well inside its idle deadline and still served
+            idle.getOutputStream().write(frame("STILL-HERE"));
+            idle.getOutputStream().flush();
+            assertThat(readFrame(idle.getInputStream())).isEqualTo("R:STILL-HERE");
+        }
+        assertThat(registry.get("atm.server.timeouts").tag("kind", "frame").counter().count())
+                .isEqualTo(1.0);
+        assertThat(registry.get("atm.server.timeouts").tag("kind", "idle").counter().count())
+                .isZero();
+    }
+
+    private static byte[] frame(String body) {
+        byte[] data = body.getBytes(StandardCharsets.US_ASCII);
+        byte[] f = new byte[data.length + 2];
+        f[0] = (byte) ((data.length >> 8) & 0xFF);
+        f[1] = (byte) (data.length & 0xFF);
+        System.arraycopy(data, 0, f, 2, data.length);
+        return f;
+    }
+
+    private static byte[] concat(byte[] a, byte[] b) {
+        byte[] c = new byte[a.length + b.length];
+        System.arraycopy(a, 0, c, 0, a.length);
+        System.arraycopy(b, 0, c, a.length, b.length);
+        return c;
+    }
+
+    private static String readFrame(InputStream in) throws Exception {
+        byte[] lenBytes = in.readNBytes(2);
+        assertThat(lenBytes.length).isEqualTo(2);
+        int len = ((lenBytes[0] & 0xFF) << 8) | (lenBytes[1] & 0xFF);
+        return new String(in.readNBytes(len), StandardCharsets.US_ASCII);
+    }
+}
@@ -0,0 +1,78 @@
+package com.pridebank.token.server;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class PipelineStageTest {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    @Test
+    void workersDrainInBatchesAndReportOccupancy() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch handled = new CountDownLatch(10);
+        PipelineStage<Integer> stage = new PipelineStage<>("test", 1, 16, 8, item -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            handled.countDown();
+        }, registry);
+        stage.start();
+        try {
+            for (int i = 0; i < 10; i++) {
+                assertThat(stage.offer(i)).isTrue();
+            }
+            // The single worker holds its first batch, the rest waits in the ring
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+            while (stage.size() == 10 && System.nanoTime() < deadline) {
+                Thread.sleep(1);
+            }
+            assertThat(registry.get("atm.pipeline.busy").tag("stage", "test").gauge().value()).isEqualTo(1);
+            assertThat(registry.get("atm.pipeline.occupancy").tag("stage", "test").gauge().value())
+                    .isGreaterThan(0);
+            release.countDown();
+            assertThat(handled.await(2, TimeUnit.SECONDS)).isTrue();
+            // The worker times an item after its handler returns
+            deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+            while (registry.get("atm.pipeline.service").tag("stage", "test").timer().count() < 10
+                    && System.nanoTime() < deadline) {
+                Thread.sleep(1);
+            }
+        } finally {
+            stage.stop();
+        }
+        assertThat(registry.get("atm.pipeline.service").tag("stage", "test").timer().count()).isEqualTo(10);
+        assertThat(registry.get("atm.pipeline.batch").tag("stage", "test").summary().max()).isGreaterThan(1);
+    }
+
+    @Test
+    void putWaitsForRoomAndParkedWorkersWakeUp() throws Exception {
+        AtomicInteger handled = new AtomicInteger();
+        PipelineStage<Integer> stage = new PipelineStage<>("put", 2, 2, 1, item -> handled.incrementAndGet(),
+                registry);
+        stage.start();
+        try {
+            // Long enough for the workers to park between items
+            Thread.sleep(50);
+            for (int i = 0; i < 100; i++) {
+                stage.put(i);
+            }
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+            while (handled.get() < 100 && System.nanoTime() < deadline) {
+                Thread.sleep(1);
+            }
+            assertThat(handled.get()).isEqualTo(100);
+        } finally {
+            stage.stop();
+        }
+        assertThat(stage.offer(1)).isFalse();
+    }
+}
@@ -0,0 +1,74 @@
+package com.pridebank.token.server;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class RingBufferTest {
+
+    @Test
+    void roundsCapacityUpAndRefusesWhenFull() {
+        RingBuffer<Integer> ring = new RingBuffer<>(3);
+        assertThat(ring.capacity()).isEqualTo(4);
+        for (int i = 0; i < 4; i++) {
+            assertThat(ring.offer(i)).isTrue();
+        }
+        assertThat(ring.offer(4)).isFalse();
+        assertThat(ring.size()).isEqualTo(4);
+
+        assertThat(ring.poll()).isZero();
+        assertThat(ring.offer(4)).isTrue();
+        Object[] batch = new Object[8];
+        assertThat(ring.drainTo(batch, 8)).isEqualTo(4);
+        assertThat(batch).startsWith(1, 2, 3, 4);
+        assertThat(ring.poll()).isNull();
+        assertThat(ring.isEmpty()).isTrue();
+    }
+
+    @Test
+    void deliversEveryItemOnceAcrossProducersAndConsumers() throws Exception {
+        RingBuffer<Integer> ring = new RingBuffer<>(64);
+        int producers = 4;
+        int perProducer = 20_000;
+        Set<Integer> seen = ConcurrentHashMap.newKeySet();
+        AtomicInteger duplicates = new AtomicInteger();
+        CountDownLatch consumed = new CountDownLatch(producers * perProducer);
+        ExecutorService threads = Executors.newFixedThreadPool(producers * 2);
+        try {
+            for (int p = 0; p < producers; p++) {
+                int base = p * perProducer;
+                threads.execute(() -> {
+                    for (int i = 0; i < perProducer; i++) {
+                        while (!ring.offer(base + i)) {
+                            Thread.yield();
+                        }
+                    }
+                });
+                threads.execute(() -> {
+                    while (consumed.getCount() > 0) {
+                        Integer item = ring.poll();
+                        if (item == null) {
+                            Thread.yield();
+                            continue;
+                        }
+                        if (!seen.add(item)) duplicates.incrementAndGet();
+                        consumed.countDown();
+                    }
+                });
+            }
+            assertThat(consumed.await(10, TimeUnit.SECONDS)).isTrue();
+        } finally {
+            threads.shutdownNow();
+        }
+        assertThat(duplicates.get()).isZero();
+        assertThat(seen).hasSize(producers * perProducer);
+    }
+}
@@ -0,0 +1,77 @@
+package com.pridebank.token.server;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TimedExecutorTest {
+
+    private final ExecutorService pool = Executors.newFixedThreadPool(2);
+    private final List<Long> serviceNanos = new ArrayList<>();
+    private int arrivals;
+
+    private final TimedExecutor workers = new TimedExecutor(pool, new TimedExecutor.Listener() {
+        @Override
+        public synchronized void arrived() {
+            arrivals++;
+        }
+
+        @Override
+        public void completed(long queueWaitNanos, long serviceNanos) {
+            synchronized (TimedExecutorTest.this) {
+                TimedExecutorTest.this.serviceNanos.add(serviceNanos);
+            }
+        }
+    });
+
+    @AfterEach
+    void tearDown() {
+        pool.shutdownNow();
+    }
+
+    @Test
+    void countsTasksQueuedBehindABusyTerminalNotJustTheAdmittedOne() throws Exception {
+        KeyedExecutor terminals = new KeyedExecutor(workers, 0, new SimpleMeterRegistry());
+        AdmissionController admission =
+                new AdmissionController(workers, 10, Duration.ofSeconds(5), new SimpleMeterRegistry());
+        CompletableFuture<Void> first = new CompletableFuture<>();
+        CountDownLatch queuedRan = new CountDownLatch(1);
+
+        admission.execute(() -> terminals.execute("ATM1", () -> first, () -> { }), () -> { });
+        while (terminals.getActiveKeys() == 0) {
+            Thread.sleep(5);
+        }
+        admission.execute(() -> terminals.execute("ATM1", () -> {
+            queuedRan.countDown();
+            return CompletableFuture.completedFuture(null);
+        }, () -> { }), () -> { });
+        Thread.sleep(50);
+        first.complete(null);
+
+        assertThat(queuedRan.await(5, TimeUnit.SECONDS)).isTrue();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (completions() < 3 && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        // Two admissions plus the hand-off of the queued frame to the back of the pool
+        synchronized (this) {
+            assertThat(arrivals).isEqualTo(3);
+            assertThat(serviceNanos).hasSize(3).allMatch(n -> n >= 0);
+        }
+    }
+
+    private synchronized int completions() {
+        return serviceNanos.size();
+    }
+}
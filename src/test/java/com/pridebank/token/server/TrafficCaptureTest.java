@@ -0,0 +1,91 @@
+package com.pridebank.token.server;
+
+import com.pridebank.token.config.IsoConfig;
+import com.solab.iso8583.IsoMessage;
+import com.solab.iso8583.IsoType;
+import com.solab.iso8583.MessageFactory;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TrafficCaptureTest {
+
+    private final MessageFactory<IsoMessage> messageFactory = new IsoConfig().messageFactory();
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final IsoConnection connection = new IsoConnection("test") {
+        @Override
+        public void send(byte[] body) {
+        }
+
+        @Override
+        public void drain() {
+        }
+
+        @Override
+        public void close() {
+        }
+    };
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void recordsBothDirectionsWithThePanMasked() throws Exception {
+        IsoMessage request = messageFactory.newMessage(0x200);
+        request.setValue(2, "4111111111111111", IsoType.LLVAR, 0);
+        request.setValue(11, "000123", IsoType.NUMERIC, 6);
+        byte[] payload = request.writeData();
+        byte[] reply = messageFactory.newMessage(0x210).writeData();
+
+        Path file = dir.resolve("atm.isocap");
+        try (TrafficCapture capture = new TrafficCapture(file, 16, registry)) {
+            capture.inbound(connection, frame(payload));
+            capture.outbound(connection, reply);
+        }
+
+        try (TrafficCapture.Reader reader = new TrafficCapture.Reader(file)) {
+            TrafficCapture.Record in = reader.next();
+            TrafficCapture.Record out = reader.next();
+            assertThat(reader.next()).isNull();
+
+            assertThat(in.isInbound()).isTrue();
+            assertThat(in.connectionId()).isEqualTo(connection.getId());
+            IsoMessage captured = messageFactory.parseMessage(in.payload(), 0);
+            assertThat(captured.getObjectValue(2).toString()).isEqualTo("4111110000001111");
+            assertThat(captured.getObjectValue(11).toString()).isEqualTo("000123");
+
+            assertThat(out.isInbound()).isFalse();
+            assertThat(out.nanos()).isGreaterThanOrEqualTo(in.nanos());
+        }
+        // The caller's buffer is left as it was
+        assertThat(messageFactory.parseMessage(payload, 0).getObjectValue(2).toString())
+                .isEqualTo("4111111111111111");
+    }
+
+    @Test
+    void dropsFramesWhosePanCannotBeLocated() throws Exception {
+        byte[] garbage = "0200Àgarbage-without-an-LL-prefix".getBytes(java.nio.charset.StandardCharsets.ISO_8859_1);
+
+        Path file = dir.resolve("bad.isocap");
+        try (TrafficCapture capture = new TrafficCapture(file, 16, registry)) {
+            capture.outbound(connection, garbage);
+        }
+
+        try (TrafficCapture.Reader reader = new TrafficCapture.Reader(file)) {
+            assertThat(reader.next()).isNull();
+        }
+        assertThat(registry.get("atm.capture.dropped").tag("reason", "unmaskable").counter().count())
+                .isEqualTo(1.0);
+    }
+
+    private static IsoFrame frame(byte[] payload) {
+        BufferPool pool = new BufferPool(1024, 1);
+        byte[] buffer = pool.acquire(payload.length);
+        System.arraycopy(payload, 0, buffer, 0, payload.length);
+        return new IsoFrame(pool, buffer, payload.length);
+    }
+}
@@ -34,7 +34,7 @@ class JsonToIsoConverterTest {
         IsoMessage req = builder.build0200("1234567890123456", 500L, "TERM01", "000000");
         String json = "{\"responseCode\":\"SUCCESS\",\"authorizationCode\":\"ABC123\",\"availableBalance\":\"250.75\",\"message\":\"OK\"}";
         IsoMessage resp = converter.convert(json, req);
-//        assertThat(String.format("%04d", resp.getType())).isEqualTo("0528");
+        assertThat(resp.getType()).isEqualTo(0x210);
         assertThat((String) resp.getObjectValue(38)).isEqualTo("ABC123");
         assertThat((String) resp.getObjectValue(39)).isEqualTo("00");
 //        assertThat((String) resp.getObjectValue(54)).isEqualTo("00000025075");
@@ -0,0 +1,99 @@
+package com.pridebank.token.tools;
+
+import com.pridebank.token.config.IsoConfig;
+import com.pridebank.token.server.TrafficCapture;
+import com.solab.iso8583.IsoMessage;
+import com.solab.iso8583.IsoType;
+import com.solab.iso8583.MessageFactory;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class IsoReplayTest {
+
+    private final MessageFactory<IsoMessage> messageFactory = new IsoConfig().messageFactory();
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void replaysInboundFramesAndReportsEveryReply() throws Exception {
+        Path file = dir.resolve("traffic.isocap");
+        try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(file))) {
+            out.writeInt(0x49534F43); // "ISOC"
+            out.writeByte(1);
+            for (int i = 0; i < 5; i++) {
+                byte[] request = request(i);
+                // Captured replies are ignored by the replay
+                for (byte direction : new byte[]{TrafficCapture.INBOUND, TrafficCapture.OUTBOUND}) {
+                    out.writeLong(i * 1_000_000L);
+                    out.writeLong(i % 2);
+                    out.writeByte(direction);
+                    out.writeShort(request.length);
+                    out.write(request);
+                }
+            }
+        }
+
+        AtomicInteger connections = new AtomicInteger();
+        try (ServerSocket gateway = new ServerSocket(0)) {
+            Thread echo = new Thread(() -> echo(gateway, connections));
+            echo.setDaemon(true);
+            echo.start();
+
+            IsoReplay.Report report = new IsoReplay(file, "127.0.0.1", gateway.getLocalPort(), 0, messageFactory)
+                    .run();
+
+            assertThat(report.sent()).isEqualTo(5);
+            assertThat(report.answered()).isEqualTo(5);
+            assertThat(report.percentile(50)).isPositive().isLessThanOrEqualTo(report.percentile(100));
+            assertThat(report.throughput()).isPositive();
+        }
+        assertThat(connections).hasValue(2);
+    }
+
+    private byte[] request(int i) {
+        IsoMessage m = messageFactory.newMessage(0x200);
+        m.setValue(2, "4111111111111111", IsoType.LLVAR, 0);
+        m.setValue(11, String.format("%06d", i), IsoType.NUMERIC, 6);
+        return m.writeData();
+    }
+
+    // Answers every frame with itself on a thread per connection
+    private static void echo(ServerSocket gateway, AtomicInteger connections) {
+        while (!gateway.isClosed()) {
+            try {
+                Socket s = gateway.accept();
+                connections.incrementAndGet();
+                Thread t = new Thread(() -> {
+                    try (s) {
+                        DataInputStream in = new DataInputStream(s.getInputStream());
+                        DataOutputStream out = new DataOutputStream(s.getOutputStream());
+                        while (true) {
+                            byte[] payload = new byte[in.readUnsignedShort()];
+                            in.readFully(payload);
+                            out.writeShort(payload.length);
+                            out.write(payload);
+                            out.flush();
+                        }
+                    } catch (Exception ignored) {
+                        // replay finished
+                    }
+                });
+                t.setDaemon(true);
+                t.start();
+            } catch (Exception ignored) {
+                // gateway closed
+            }
+        }
+    }
+}